@@ -0,0 +1,69 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads the task, undo and custom command stores on background threads so
+ * that startup does not block on file reads. Each store waits only on its
+ * own load the first time it is used.
+ */
+class BackgroundLoader {
+	private static final int LOADER_THREADS = 3;
+
+	private static Logger LOGGER = Logger.getLogger(BackgroundLoader.class.getName());
+
+	private static final ExecutorService loader = Executors.newFixedThreadPool(LOADER_THREADS, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "store-loader");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Applies the user's settings, then starts loading every store in the background
+	 */
+	protected static void startLoading() {
+		Settings.load();
+		CustomCommandHandler.startLoading();
+		Task.startLoading();
+		HistoryHandler.startLoading();
+	}
+
+	protected static <T> Future<T> submit(Callable<T> load) {
+		return loader.submit(load);
+	}
+
+	/**
+	 * Waits for a store to finish loading. If the load failed, the failure is
+	 * logged and the fallback is used instead.
+	 * @param load
+	 * @param fallback
+	 * @param storeName
+	 * @return the loaded store, or the fallback if loading failed
+	 */
+	protected static <T> T await(Future<T> load, T fallback, String storeName) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return load.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			LOGGER.log(Level.SEVERE, "Error loading " + storeName, e.getCause());
+			return fallback;
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
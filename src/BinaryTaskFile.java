@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+/**
+ * Compact binary form of the task file.
+ *
+ * The file starts with a fixed-width header: magic number, version, record
+ * count and the checkpoint sequence of the journal. Each record then holds
+ * the start and end as epoch milliseconds, a flags byte, the task ID and the
+ * zone offsets of the start and end if the flags say there are any, and the
+ * alias and description as length-prefixed UTF-8. A record without offsets,
+ * written before they were kept, is read in the default zone. The file is read into one buffer and the records are decoded
+ * straight from it, so loading does no line splitting or date parsing.
+ */
+class BinaryTaskFile {
+	private static final int MAGIC = 0x44544B53;
+	private static final short VERSION = 2;
+	private static final short VERSION_WITHOUT_OFFSETS = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int FIXED_RECORD_SIZE = 8 + 8 + 1 + 4 + 4;
+
+	private static final long NULL_DATE_TIME = Long.MIN_VALUE;
+	private static final byte FLAG_COMPLETED = 1;
+	private static final byte FLAG_HAS_ALIAS = 2;
+	private static final byte FLAG_HAS_ID = 4;
+	private static final byte FLAG_HAS_OFFSETS = 8;
+	private static final int ID_SIZE = 8;
+	private static final int OFFSETS_SIZE = 4 + 4;
+
+	/**
+	 * Writes the tasks to the file in binary form
+	 * @param fileName
+	 * @param tasks
+	 * @param checkpointSequence
+	 * @return true if the file was written
+	 */
+	protected static boolean write(String fileName, List<Task> tasks, long checkpointSequence) {
+		return FileManager.writeToFile(fileName, encode(tasks, checkpointSequence));
+	}
+
+	/**
+	 * Reads the tasks in the binary file into the given list. The file is read
+	 * through the channel rather than mapped, so nothing holds on to it once
+	 * this returns and it can be replaced straight away.
+	 * @param fileName
+	 * @param tasks
+	 * @return the checkpoint sequence stored in the header, or 0 if there is no file
+	 * @throws IllegalStateException if the file cannot be read or is corrupt
+	 */
+	protected static long read(String fileName, ArrayList<Task> tasks) {
+		Path path = Paths.get(FileManager.filepath + fileName);
+		if (!path.toFile().exists()) {
+			return 0;
+		}
+
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = ByteBuffer.allocate((int) channel.size());
+			FileManager.readAt(channel, 0, buffer);
+			buffer.flip();
+		} catch (IOException e) {
+			throw new IllegalStateException("Error reading from file " + fileName, e);
+		}
+
+		ArrayList<Task> decoded = new ArrayList<Task>();
+		try {
+			long checkpointSequence = decode(buffer, decoded);
+			tasks.addAll(decoded);
+			return checkpointSequence;
+		} catch (RuntimeException e) {
+			throw new IllegalStateException("Corrupt binary task file " + fileName, e);
+		}
+	}
+
+	protected static ByteBuffer encode(List<Task> tasks, long checkpointSequence) {
+		byte[][] records = new byte[tasks.size()][];
+		int size = HEADER_SIZE;
+
+		for (int i = 0; i < tasks.size(); i++) {
+			records[i] = encodeRecord(tasks.get(i));
+			size += records[i].length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putShort((short) 0);
+		buffer.putInt(tasks.size());
+		buffer.putLong(checkpointSequence);
+		buffer.position(HEADER_SIZE);
+
+		for (int i = 0; i < records.length; i++) {
+			buffer.put(records[i]);
+		}
+
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Decodes every record in the buffer into the given list
+	 * @param buffer
+	 * @param tasks
+	 * @return the checkpoint sequence stored in the header
+	 * @throws IllegalArgumentException if the buffer does not hold a whole binary task file
+	 * @throws java.nio.BufferUnderflowException if a record runs past the end of the buffer
+	 */
+	protected static long decode(ByteBuffer buffer, ArrayList<Task> tasks) {
+		if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IllegalArgumentException("Not a binary task file");
+		}
+
+		short version = buffer.getShort(4);
+		if (version != VERSION && version != VERSION_WITHOUT_OFFSETS) {
+			throw new IllegalArgumentException("Unsupported binary task file version " + version);
+		}
+
+		int count = buffer.getInt(8);
+		long checkpointSequence = buffer.getLong(12);
+		if (count < 0 || count > (buffer.limit() - HEADER_SIZE) / FIXED_RECORD_SIZE) {
+			throw new IllegalArgumentException("Record count " + count + " does not fit the file");
+		}
+		buffer.position(HEADER_SIZE);
+		tasks.ensureCapacity(tasks.size() + count);
+
+		RecordDecoder decoder = new RecordDecoder();
+		for (int i = 0; i < count; i++) {
+			tasks.add(decoder.decode(buffer));
+		}
+
+		return checkpointSequence;
+	}
+
+	/**
+	 * Encodes a single task in the record layout of the binary file
+	 * @param task
+	 * @return the encoded record
+	 */
+	protected static byte[] encodeRecord(Task task) {
+		byte[] alias = (task.getAlias() == null) ? new byte[0] : task.getAlias().getBytes(StandardCharsets.UTF_8);
+		byte[] desc = (task.getDescription() == null) ? new byte[0] : task.getDescription().getBytes(StandardCharsets.UTF_8);
+
+		byte flags = FLAG_HAS_ID | FLAG_HAS_OFFSETS;
+		if (task.getStatus()) {
+			flags |= FLAG_COMPLETED;
+		}
+		if (task.getAlias() != null) {
+			flags |= FLAG_HAS_ALIAS;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(FIXED_RECORD_SIZE + ID_SIZE + OFFSETS_SIZE + alias.length + desc.length);
+		buffer.putLong(toMillis(task.getStartDateTime()));
+		buffer.putLong(toMillis(task.getEndDateTime()));
+		buffer.put(flags);
+		buffer.putLong(task.getId());
+		buffer.putInt(toOffset(task.getStartDateTime()));
+		buffer.putInt(toOffset(task.getEndDateTime()));
+		buffer.putInt(alias.length);
+		buffer.put(alias);
+		buffer.putInt(desc.length);
+		buffer.put(desc);
+		return buffer.array();
+	}
+
+	/**
+	 * Decodes records one after another, reusing one scratch array for the
+	 * string bytes instead of allocating one per field.
+	 */
+	protected static class RecordDecoder {
+		private byte[] scratch = new byte[256];
+
+		/**
+		 * Decodes the record at the position of the buffer and moves past it
+		 * @param buffer
+		 * @return the decoded task
+		 */
+		protected Task decode(ByteBuffer buffer) {
+			long start = buffer.getLong();
+			long end = buffer.getLong();
+			byte flags = buffer.get();
+			long taskId = ((flags & FLAG_HAS_ID) != 0) ? buffer.getLong() : 0;
+			DateTime startDateTime;
+			DateTime endDateTime;
+			if ((flags & FLAG_HAS_OFFSETS) != 0) {
+				startDateTime = toDateTime(start, buffer.getInt());
+				endDateTime = toDateTime(end, buffer.getInt());
+			} else {
+				startDateTime = toDateTime(start);
+				endDateTime = toDateTime(end);
+			}
+
+			String alias = readString(buffer);
+			String desc = readString(buffer);
+			if ((flags & FLAG_HAS_ALIAS) == 0) {
+				alias = null;
+			}
+
+			boolean completed = (flags & FLAG_COMPLETED) != 0;
+			if (taskId <= 0) {
+				return new Task(desc, startDateTime, endDateTime, alias, completed);
+			}
+			return new Task(taskId, desc, startDateTime, endDateTime, alias, completed);
+		}
+
+		private String readString(ByteBuffer buffer) {
+			int length = buffer.getInt();
+			if (length < 0 || length > buffer.remaining()) {
+				throw new BufferUnderflowException();
+			}
+			if (length > scratch.length) {
+				scratch = new byte[Math.max(length, scratch.length * 2)];
+			}
+			buffer.get(scratch, 0, length);
+			return new String(scratch, 0, length, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Converts a task file in the text format into the binary format
+	 * @param textFile
+	 * @param binaryFile
+	 */
+	protected static void convertTextToBinary(String textFile, String binaryFile) {
+		ArrayList<Task> tasks = new ArrayList<Task>();
+		long checkpointSequence = TaskSnapshot.readText(textFile, tasks);
+		write(binaryFile, tasks, checkpointSequence);
+	}
+
+	/**
+	 * Converts a task file in the binary format into the text format
+	 * @param binaryFile
+	 * @param textFile
+	 */
+	protected static void convertBinaryToText(String binaryFile, String textFile) {
+		ArrayList<Task> tasks = new ArrayList<Task>();
+		long checkpointSequence = read(binaryFile, tasks);
+		TaskSnapshot.writeText(textFile, tasks, checkpointSequence);
+	}
+
+	private static long toMillis(DateTime dateTime) {
+		return (dateTime == null) ? NULL_DATE_TIME : dateTime.getMillis();
+	}
+
+	private static DateTime toDateTime(long millis) {
+		return (millis == NULL_DATE_TIME) ? null : new DateTime(millis);
+	}
+
+	private static int toOffset(DateTime dateTime) {
+		return (dateTime == null) ? 0 : dateTime.getZone().getOffset(dateTime);
+	}
+
+	private static DateTime toDateTime(long millis, int offsetMillis) {
+		return (millis == NULL_DATE_TIME) ? null : Task.toDateTime(millis, offsetMillis);
+	}
+}
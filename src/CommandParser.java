@@ -1,164 +1,176 @@
-import java.util.ArrayList;
-
-class CommandParser {
-	/**
-	 * Returns the command type portion of the string
-	 * @param userInput
-	 * @return command type portion of the input
-	 */
-	protected static String getUserCommandType(String userInput) {
-		String[] tokens = userInput.split("\\s+");
-		return tokens[0];
-	}
-
-	/**
-	 * Returns the description portion of the string
-	 * @param userInput
-	 * @return description portion of the input
-	 */
-	protected static String getUserCommandDesc(String userInput) {
-		String[] tokens = userInput.split("\\s+", 2);
-		if (tokens.length < 2) {
-			return null;
-		}
-		return tokens[1];
-	}
-	
-	/**
-	 * Finds whether the command input by the user is valid,
-	 * with at least two words in length.
-	 * @param userInput
-	 * @return true if the command is at least 2 words long, false otherwise
-	 */
-	protected static boolean isInputValid(String userInput, int length) {
-		if (userInput == null || userInput.length() == 0 || userInput.equals("")) {
-			return false;
-		}
-		
-		String[] tokens = userInput.split("\\s+");
-		return tokens.length >= length;
-	}
-	
-	/**
-	 * Returns an array of string of length 4 containing the start and end
-	 * dates and times of the input. Index 0 and 1 contains the start date
-	 * and time respectively. Index 2 and 3 contains the end date and time.
-	 * @param input
-	 * @return a String array containing start and end date/times
-	 */
-	protected static String[] getTaskFields(ArrayList<String> input) {
-		String[] fields = new String[Task.TASK_FIELD_SIZE];
-		fields = getDateFields(input, fields);
-		fields = getTimeFields(input, fields);
-		return fields;
-	}
-	
-	/**
-	 * Returns an array of string of length 4 containing the start and end
-	 * dates of the input at index 0 and 2 of the array respectively.
-	 * @param input
-	 * @param fields
-	 * @return a String array containing the start and end date
-	 */
-	private static String[] getDateFields(ArrayList<String> input, String[] fields) {
-		for (int i = 0; i < input.size(); i++) {
-			if (DateParser.isDate(input.get(i))) {
-				if (fields[Task.START_DATE] == null) {
-					fields[Task.START_DATE] = input.get(i);
-				} else if (fields[Task.END_DATE] == null) {
-					fields[Task.END_DATE] = input.get(i);
-					break;
-				}
-			}
-		}
-		
-		return fields;
-	}
-	
-	/**
-	 * Returns an array of string of length 4 containing the start and end
-	 * times of the input at index 1 and 3 of the array respectively.
-	 * @param input
-	 * @param fields
-	 * @return a String array containing the start and end date
-	 */
-	private static String[] getTimeFields(ArrayList<String> input, String[] fields) {
-		for (int i = 0; i < input.size(); i++) {
-			if (TimeParser.isTime(input.get(i))) {
-				if (fields[Task.START_TIME] == null) {
-					fields[Task.START_TIME] = input.get(i);
-				} else if (fields[Task.END_TIME] == null) {
-					fields[Task.END_TIME] = input.get(i);
-					break;
-				}
-			}
-		}
-		
-		return fields;
-	}
-	
-	protected static String removeDateTimeFromString(String s) {
-		String[] tokens = s.split("\\s+");
-		
-		for(int i = 0; i < tokens.length; i++) {
-			if (DateParser.isDate(tokens[i]) || TimeParser.isTime(tokens[i])) {
-				int j = i - 1;
-				while (j >= 0 && isDateTimeIdentifier(tokens[j])) {
-					tokens[j--] = null;
-				}
-				tokens[i] = null;
-			}
-		}
-		
-		return arrayToString(tokens);
-	}
-	
-	protected static String removeAliasFromDescription(String desc) {
-		String[] tokens = desc.split("\\s+");
-		for (int i = 0; i < tokens.length; i++) {
-			if (tokens[i].contains("alias:")) {
-				tokens[i] = null;
-			}
-		}
-		
-		return arrayToString(tokens);
-	}
-	
-	protected static String getAliasFromDescription(String desc) {
-		String[] tokens = desc.split("\\s+");
-		for (int i = 0; i < tokens.length; i++) {
-			if (tokens[i].contains("alias:")) {
-				return tokens[i].substring("alias:".length());
-			}
-		}
-		
-		return null;
-	}
-	
-	private static boolean isDateTimeIdentifier(String s) {
-		String[] identifierList = {"at", "@", "by", "from", "for", "to", "on", "before", "until", "end", "start", "-", ","};
-		
-		if (s == null)
-			return false;
-		
-		for(String identifier: identifierList) {
-			if (s.equals(identifier)) return true;
-		}
-		
-		return false;
-	}
-	
-	protected static String arrayToString(String[] s) {
-		String r = "";
-		for (int i = 0; i < s.length; i++) {
-			if (s[i] == null) continue;
-			if (i == s.length) {
-				r = r + s[i];
-			} else {
-				r = r + s[i] + " ";
-			}
-		}
-		
-		return r.trim();
-	}
-}
+import java.util.ArrayList;
+
+class CommandParser {
+	/**
+	 * Splits the input into its tokens once, for the methods below to share
+	 * @param userInput
+	 * @return the tokens of the input
+	 */
+	protected static CommandTokens tokenize(String userInput) {
+		return CommandTokens.tokenize(userInput);
+	}
+	
+	/**
+	 * Returns the command type portion of the string
+	 * @param userInput
+	 * @return command type portion of the input
+	 */
+	protected static String getUserCommandType(String userInput) {
+		return getUserCommandType(tokenize(userInput));
+	}
+	
+	protected static String getUserCommandType(CommandTokens tokens) {
+		return getToken(tokens, 0);
+	}
+	
+	/**
+	 * Returns the token at the index, or "" if there is none
+	 * @param tokens
+	 * @param index
+	 * @return the text of the token
+	 */
+	protected static String getToken(CommandTokens tokens, int index) {
+		if (index >= tokens.size()) {
+			return "";
+		}
+		return tokens.getText(index);
+	}
+
+	/**
+	 * Returns the description portion of the string
+	 * @param userInput
+	 * @return description portion of the input
+	 */
+	protected static String getUserCommandDesc(String userInput) {
+		return getUserCommandDesc(tokenize(userInput));
+	}
+	
+	protected static String getUserCommandDesc(CommandTokens tokens) {
+		return tokens.getRest(1);
+	}
+	
+	/**
+	 * Finds whether the command input by the user is valid,
+	 * with at least two words in length.
+	 * @param userInput
+	 * @return true if the command is at least 2 words long, false otherwise
+	 */
+	protected static boolean isInputValid(String userInput, int length) {
+		if (userInput == null || userInput.length() == 0 || userInput.equals("")) {
+			return false;
+		}
+		
+		return tokenize(userInput).size() >= length;
+	}
+	
+	/**
+	 * Returns an array of string of length 4 containing the start and end
+	 * dates and times of the input. Index 0 and 1 contains the start date
+	 * and time respectively. Index 2 and 3 contains the end date and time.
+	 * @param input
+	 * @return a String array containing start and end date/times
+	 */
+	protected static String[] getTaskFields(ArrayList<String> input) {
+		StringBuilder joined = new StringBuilder();
+		for (int i = 0; i < input.size(); i++) {
+			joined.append(input.get(i)).append(' ');
+		}
+		return getTaskFields(tokenize(joined.toString().trim()));
+	}
+	
+	protected static String[] getTaskFields(CommandTokens tokens) {
+		String[] fields = new String[Task.TASK_FIELD_SIZE];
+		fields = getFields(tokens, fields, CommandTokens.DATE, Task.START_DATE, Task.END_DATE);
+		fields = getFields(tokens, fields, CommandTokens.TIME, Task.START_TIME, Task.END_TIME);
+		return fields;
+	}
+	
+	/**
+	 * Sets the first two tokens of the kind as the start and end fields
+	 * @param tokens
+	 * @param fields
+	 * @param kind CommandTokens.DATE or CommandTokens.TIME
+	 * @param start the index of the start field
+	 * @param end the index of the end field
+	 * @return a String array containing the start and end date or time
+	 */
+	private static String[] getFields(CommandTokens tokens, String[] fields, byte kind, int start, int end) {
+		for (int i = 0; i < tokens.size(); i++) {
+			if (tokens.getKind(i) == kind) {
+				if (fields[start] == null) {
+					fields[start] = tokens.getText(i);
+				} else if (fields[end] == null) {
+					fields[end] = tokens.getText(i);
+					break;
+				}
+			}
+		}
+		
+		return fields;
+	}
+	
+	protected static String removeDateTimeFromString(String s) {
+		CommandTokens tokens = tokenize(s);
+		return tokens.join(getDateTimeTokens(tokens));
+	}
+	
+	/**
+	 * Marks each date and time, and the identifiers such as "on" or "from" just before it
+	 * @param tokens
+	 * @return which tokens are part of a date or time
+	 */
+	private static boolean[] getDateTimeTokens(CommandTokens tokens) {
+		boolean[] isDateTime = new boolean[tokens.size()];
+		
+		for (int i = 0; i < tokens.size(); i++) {
+			byte kind = tokens.getKind(i);
+			if (kind == CommandTokens.DATE || kind == CommandTokens.TIME) {
+				int j = i - 1;
+				while (j >= 0 && !isDateTime[j] && tokens.getKind(j) == CommandTokens.IDENTIFIER) {
+					isDateTime[j--] = true;
+				}
+				isDateTime[i] = true;
+			}
+		}
+		
+		return isDateTime;
+	}
+	
+	protected static String removeAliasFromDescription(String desc) {
+		CommandTokens tokens = tokenize(desc);
+		boolean[] isAlias = new boolean[tokens.size()];
+		for (int i = 0; i < tokens.size(); i++) {
+			isAlias[i] = (tokens.getKind(i) == CommandTokens.ALIAS);
+		}
+		
+		return tokens.join(isAlias);
+	}
+	
+	/**
+	 * Returns the description of a task, without its dates, times and alias
+	 * @param tokens
+	 * @return the words of the description
+	 */
+	protected static String getDescription(CommandTokens tokens) {
+		boolean[] isRemoved = getDateTimeTokens(tokens);
+		for (int i = 0; i < tokens.size(); i++) {
+			isRemoved[i] = isRemoved[i] || (tokens.getKind(i) == CommandTokens.ALIAS);
+		}
+		
+		return tokens.join(isRemoved);
+	}
+	
+	protected static String getAliasFromDescription(String desc) {
+		return getAliasFromDescription(tokenize(desc));
+	}
+	
+	protected static String getAliasFromDescription(CommandTokens tokens) {
+		for (int i = 0; i < tokens.size(); i++) {
+			if (tokens.getKind(i) == CommandTokens.ALIAS) {
+				return tokens.getText(i).substring(CommandTokens.ALIAS_MARKER.length());
+			}
+		}
+		
+		return null;
+	}
+}
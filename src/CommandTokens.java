@@ -0,0 +1,194 @@
+import java.util.Arrays;
+
+/**
+ * The words of a command, found in one pass over the input. Each token is
+ * kept as its start and end offsets in the input, so finding the tokens
+ * creates no strings; a token's text is only cut out when it is asked for.
+ * Tokens are split on whitespace the way String.split("\\s+") splits them,
+ * including the empty first token of an input that starts with whitespace.
+ *
+ * The kind of every token is worked out together the first time any kind is
+ * asked for, since a command word or task number never needs its kind.
+ */
+class CommandTokens {
+	protected static final byte WORD = 0;
+	protected static final byte NUMBER = 1;
+	protected static final byte DATE = 2;
+	protected static final byte TIME = 3;
+	protected static final byte ALIAS = 4;
+	protected static final byte IDENTIFIER = 5;	// a word such as "at" or "from" that leads up to a date or time
+
+	protected static final String ALIAS_MARKER = "alias:";
+	private static final String[] IDENTIFIERS = {"at", "@", "by", "from", "for", "to", "on", "before", "until", "end", "start", "-", ","};
+
+	private final String input;
+	private int[] starts = new int[8];
+	private int[] ends = new int[8];
+	private byte[] kinds = null;
+	private int size = 0;
+
+	private CommandTokens(String input) {
+		this.input = input;
+	}
+
+	/**
+	 * @param input
+	 * @return the tokens of the input
+	 */
+	protected static CommandTokens tokenize(String input) {
+		CommandTokens tokens = new CommandTokens(input);
+		int length = input.length();
+		int position = 0;
+
+		if (length == 0 || isWhitespace(input.charAt(0))) {
+			tokens.addToken(0, 0);
+		}
+		while (true) {
+			while (position < length && isWhitespace(input.charAt(position))) {
+				position++;
+			}
+			if (position == length) {
+				break;
+			}
+
+			int start = position;
+			while (position < length && !isWhitespace(input.charAt(position))) {
+				position++;
+			}
+			tokens.addToken(start, position);
+		}
+
+		// An input of only whitespace has no tokens, as with split
+		if (tokens.size == 1 && length > 0 && tokens.ends[0] == 0) {
+			tokens.size = 0;
+		}
+		return tokens;
+	}
+
+	protected int size() {
+		return size;
+	}
+
+	protected String getInput() {
+		return input;
+	}
+
+	protected String getText(int index) {
+		return input.substring(starts[index], ends[index]);
+	}
+
+	protected int getStart(int index) {
+		return starts[index];
+	}
+
+	protected int getEnd(int index) {
+		return ends[index];
+	}
+
+	/**
+	 * @param index
+	 * @return the input from the token on, "" if the input only has whitespace
+	 * after the token before, or null if there is nothing after it
+	 */
+	protected String getRest(int index) {
+		if (index < size) {
+			return input.substring(starts[index]);
+		} else if (index == size && size > 0 && ends[size - 1] < input.length()) {
+			return "";
+		}
+		return null;
+	}
+
+	/**
+	 * @param index
+	 * @return the kind of the token, one of WORD, NUMBER, DATE, TIME, ALIAS and IDENTIFIER
+	 */
+	protected byte getKind(int index) {
+		if (kinds == null) {
+			classify();
+		}
+		return kinds[index];
+	}
+
+	/**
+	 * @param index
+	 * @return true if the token is the given text
+	 */
+	protected boolean isText(int index, String text) {
+		int length = ends[index] - starts[index];
+		return length == text.length() && input.startsWith(text, starts[index]);
+	}
+
+	/**
+	 * Joins the tokens that are not skipped with single spaces
+	 * @param skipped which tokens to leave out
+	 * @return the joined tokens, trimmed
+	 */
+	protected String join(boolean[] skipped) {
+		StringBuilder joined = new StringBuilder(input.length());
+		for (int i = 0; i < size; i++) {
+			if (!skipped[i]) {
+				joined.append(input, starts[i], ends[i]).append(' ');
+			}
+		}
+		return joined.toString().trim();
+	}
+
+	private void classify() {
+		kinds = new byte[size];
+		for (int i = 0; i < size; i++) {
+			String text = getText(i);
+			if (DateParser.isDate(text)) {
+				kinds[i] = DATE;
+			} else if (TimeParser.isTime(text)) {
+				kinds[i] = TIME;
+			} else if (text.contains(ALIAS_MARKER)) {
+				kinds[i] = ALIAS;
+			} else if (isIdentifier(i)) {
+				kinds[i] = IDENTIFIER;
+			} else if (isNumber(i)) {
+				kinds[i] = NUMBER;
+			} else {
+				kinds[i] = WORD;
+			}
+		}
+	}
+
+	private boolean isIdentifier(int index) {
+		for (String identifier : IDENTIFIERS) {
+			if (isText(index, identifier)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isNumber(int index) {
+		if (starts[index] == ends[index]) {
+			return false;
+		}
+		for (int i = starts[index]; i < ends[index]; i++) {
+			if (input.charAt(i) < '0' || input.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void addToken(int start, int end) {
+		if (size == starts.length) {
+			starts = Arrays.copyOf(starts, size * 2);
+			ends = Arrays.copyOf(ends, size * 2);
+		}
+		starts[size] = start;
+		ends[size] = end;
+		size++;
+	}
+
+	/**
+	 * @return true if the character is one that the regex \s matches
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+}
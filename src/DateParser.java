@@ -1,234 +1,446 @@
-import java.util.ArrayList;
-import java.util.Arrays;
-
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-
-public class DateParser{
-	private static final String DATE_FORMAT_0 = "dd/MM/YYYY";
-	private static final String DATE_FORMAT_1 = "dd-MM-YYYY";
-	private static final String DATE_FORMAT_2 = "dd.MM.YYYY";
-	private static final String DATE_FORMAT_3 = "dd/MMM/YYYY";
-	private static final String DATE_FORMAT_4 = "dd-MMM-YYYY";
-	private static final String DATE_FORMAT_5 = "dd.MMM.YYYY";
-	private static final String DATE_FORMAT_6 = "dd/MM";
-	private static final String DATE_FORMAT_7 = "dd-MM";
-	private static final String DATE_FORMAT_8 = "dd/MMM";
-	private static final String DATE_FORMAT_9 = "dd-MMM";
-	private static final String DATE_FORMAT_10 = "dd.MMM";
-	private static final String DATE_FORMAT_11 = "E";
-	private static final int FORMAT_TYPE_0_INDEX = 6;	//format 0 : full date, with year
-	private static final int FORMAT_TYPE_1_INDEX = 11;	//format 1 : with day and month only
-	private static final int FORMAT_TYPE_2_INDEX = 12;	//format 2 : day of the week, Friday, etc.
-	
-	private static final String DATE_TODAY = "today";
-	private static final String DATE_TOMORROW = "tomorrow";
-	private static final String DATE_YESTERDAY = "yesterday";
-	
-	private static ArrayList<DateTimeFormatter> dateFormats = 
-		new ArrayList<DateTimeFormatter> (Arrays.asList( 
-			DateTimeFormat.forPattern(DATE_FORMAT_0), 
-			DateTimeFormat.forPattern(DATE_FORMAT_1), 
-			DateTimeFormat.forPattern(DATE_FORMAT_2), 	
-			DateTimeFormat.forPattern(DATE_FORMAT_3), 
-			DateTimeFormat.forPattern(DATE_FORMAT_4), 
-			DateTimeFormat.forPattern(DATE_FORMAT_5), 
-			DateTimeFormat.forPattern(DATE_FORMAT_6),
-			DateTimeFormat.forPattern(DATE_FORMAT_7), 
-			DateTimeFormat.forPattern(DATE_FORMAT_8), 
-			DateTimeFormat.forPattern(DATE_FORMAT_9), 
-			DateTimeFormat.forPattern(DATE_FORMAT_10), 
-			DateTimeFormat.forPattern(DATE_FORMAT_11)
-		));
-
-	
-	/**
-	 * Sets the date to the one from the input.
-	 * @param input
-	 * @return a DateTime object with the date to the input
-	 */
-	protected static DateTime setDate(String input) {
-		int formatType = getDateFormatType(input);
-		DateTime date = new DateTime();
-
-		if (formatType == 0) {
-			date = parseDateFormat0(input);
-		} else if (formatType == 1) {
-			date = parseDateFormat1(input, date);
-		} else if (formatType == 2) { 
-			date = parseDateFormat2(input, date);
-		} else if (formatType == 3) {
-			date = parseDateFormat3(input);
-		}
-		
-		return date;
-	}
-	
-	/**
-	 * Set the date to today's date
-	 * @return a DateTime object with the date set to today.
-	 */
-	protected static DateTime setDate() {
-		return new DateTime();
-	}
-
-	/**
-	 * Get the date format type of the input.
-	 * returns 0 if date contains day, month and year
-	 * returns 1 if date contains day and month only
-	 * returns 2 if date is written in english (Tuesday, wed etc)
-	 * returns 3 if date is yesterday/today/tomorrow
-	 * returns -1 if invalid
-	 * @param input
-	 * @return the format of the input date
-	 */
-	private static int getDateFormatType(String input) {
-		DateTime date;
-		int i = 0;
-		for ( ; i < dateFormats.size(); i++) {
-			try {
-				date = dateFormats.get(i).parseDateTime(input);
-				break;
-			} catch (IllegalArgumentException e) {
-				continue;
-			}
-		}
-		
-		if (i < FORMAT_TYPE_0_INDEX) {
-			return 0;
-		} else if (i < FORMAT_TYPE_1_INDEX) {
-			return 1;
-		} else if (i < FORMAT_TYPE_2_INDEX) {
-			return 2;
-		} else if (isFormat3(input)) {
-			return 3;
-		}
-			
-		return -1;
-	}
-	
-	private static boolean isFormat3(String input) {
-		return input.equalsIgnoreCase(DATE_TODAY) || input.equalsIgnoreCase(DATE_TOMORROW) || input.equalsIgnoreCase(DATE_YESTERDAY);
-	}
-	
-	/**
-	 * Finds if the input string is a valid date
-	 * @param input
-	 * @return true if the input string is a valid date
-	 */
-	protected static boolean isDate(String input) {
-		int formatType = getDateFormatType(input);
-		assert(formatType >= -1 && formatType <=3);
-		
-		if (formatType == -1) {
-			return false;
-		} else {
-			return true;
-		}
-	}
-	
-	protected static boolean isSameDate(DateTime date1, DateTime date2) {
-		return (date1.getYear() == date2.getYear()) && (date1.getDayOfYear() == date2.getDayOfYear());
-	}
-	
-	/**
-	 * Parse the input string with date format type 0 and returns a
-	 * DateTime object with the corresponding date
-	 * @param input
-	 * @return a DateTime object with the date set to the input date
-	 */
-	private static DateTime parseDateFormat0(String input){
-		DateTime date = null;
-		
-		for (int i = 0; i < FORMAT_TYPE_0_INDEX; i++) {
-			try {
-				date = dateFormats.get(i).parseDateTime(input);
-			} catch (IllegalArgumentException e) {
-				continue;
-			}
-		}
-		
-		return date;
-	}
-	
-	/**
-	 * Parse the input string with date format type 1 and returns a
-	 * DateTime object with the corresponding date
-	 * @param input
-	 * @return a DateTime object with the date set to the input date
-	 */
-	private static DateTime parseDateFormat1(String input, DateTime date) {
-		int[] dateTokens = splitDayMonth(input);
-		int targetDay = dateTokens[0];
-		int targetMonth = dateTokens[1];
-		int currentDay = date.getDayOfMonth();
-		int currentMonth = date.getMonthOfYear();
-		
-		// Target day to be set has already passed, so set it to next year
-		if (targetMonth < currentMonth || (targetMonth == currentMonth && targetDay < currentDay)) {
-			date = new DateTime(date.getYear()+1 , targetMonth, targetDay, 0, 0);
-		} else {
-			date = new DateTime(date.getYear(), targetMonth, targetDay, 0, 0);
-		}
-		return date;
-	}
-	
-	/**
-	 * Parse the input string with date format type 2 and returns a
-	 * DateTime object with the corresponding date
-	 * @param input
-	 * @return a DateTime object with the date set to the input date
-	 */
-	private static DateTime parseDateFormat2(String input, DateTime date) {
-		DateTime tempDate = dateFormats.get(FORMAT_TYPE_2_INDEX - 1).parseDateTime(input);
-		int targetDayOfWeek = tempDate.getDayOfWeek();
-		int currentDayOfWeek = date.getDayOfWeek();
-		
-		if (targetDayOfWeek < currentDayOfWeek) {
-			date = date.plusWeeks(1);
-		} 
-		
-		date = date.withDayOfWeek(targetDayOfWeek);
-		return date;
-	}
-	
-	private static DateTime parseDateFormat3(String input) {
-		DateTime today = new DateTime();
-		
-		if (input.equalsIgnoreCase(DATE_YESTERDAY)) {
-			return today.minusDays(1);
-		} else if (input.equalsIgnoreCase(DATE_TOMORROW)) {
-			return today.plusDays(1);
-		}
-		
-		return today;
-	}
-	
-	/**
-	 * Splits the day and month of the input dqate string into two integers
-	 * @param date
-	 * @return integer array with the day of the month in index 0 and month of the year in index 1
-	 */
-	private static int[] splitDayMonth(String date) {
-		String[] tokens = new String[2];
-		if (date.contains("/")) {
-			tokens = date.split("/");
-		} else if (date.contains("-")) {
-			tokens = date.split("-");
-		}
-		
-		System.out.println(tokens.length);
-		int[] intTokens = new int[tokens.length];
-		for (int i = 0; i < tokens.length; i++) {
-			try {	
-				intTokens[i] = Integer.parseInt(tokens[i]);
-			} catch (NumberFormatException e) {
-				DateTime tempDate = DateTimeFormat.forPattern("MMM").parseDateTime(tokens[i]);
-				intTokens[i] = tempDate.getMonthOfYear();
-			}
-		}
-		
-		return intTokens;
-	}
-}
+import java.util.Locale;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+
+public class DateParser{
+	private static final int FORMAT_TYPE_0 = 0;	//format 0 : full date, with year
+	private static final int FORMAT_TYPE_1 = 1;	//format 1 : with day and month only
+	private static final int FORMAT_TYPE_2 = 2;	//format 2 : day of the week, Friday, etc.
+	private static final int FORMAT_TYPE_3 = 3;	//format 3 : yesterday, today or tomorrow
+	
+	private static final String DATE_TODAY = "today";
+	private static final String DATE_TOMORROW = "tomorrow";
+	private static final String DATE_YESTERDAY = "yesterday";
+	
+	private static final String[] MONTH_NAMES = {"january", "february", "march", "april", "may", "june",
+		"july", "august", "september", "october", "november", "december"};
+	private static final String[] DAY_NAMES = {"monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday"};
+	private static final int SHORT_NAME_LENGTH = 3;
+	
+	private static final int MAXIMUM_DAY_DIGITS = 2;
+	private static final int MAXIMUM_YEAR_DIGITS = 9;
+	private static final int MAXIMUM_YEAR = 292278993;
+	private static final int LEAP_YEAR = 2000;	//a date without a year is checked against a leap year, so 29/02 is a date
+	private static final int CACHE_SIZE = 1024;
+	
+	/**
+	 * The parts of a date found in a token, read in a single pass over its
+	 * characters. Only the parts its format type has are set.
+	 */
+	private static class DateFields {
+		private int formatType;
+		private int day;
+		private int month;
+		private int year;
+		private int dayOfWeek;
+		private int dayOffset;
+		private LocalDate date;	// the date the token stands for on the day it was read
+		
+		private DateFields(int formatType) {
+			this.formatType = formatType;
+		}
+	}
+	
+	/**
+	 * A day and the time it ends, after which dates read relative to it are stale
+	 */
+	private static class Day {
+		private final LocalDate date;
+		private final long end;
+		
+		private Day(LocalDate date, long end) {
+			this.date = date;
+			this.end = end;
+		}
+	}
+	
+	// Tokens read before, including those that are not dates, which are most of them
+	private static final DateFields NOT_A_DATE = new DateFields(-1);
+	private static final LruCache<String, DateFields> recognizedDates = new LruCache<String, DateFields>(CACHE_SIZE);
+	private static volatile Day today = null;
+	
+	/**
+	 * Sets the date to the one from the input.
+	 * @param input
+	 * @return a DateTime object with the date to the input
+	 */
+	protected static DateTime setDate(String input) {
+		DateFields fields = getDateFields(input);
+		DateTime date = new DateTime();
+		
+		if (fields == null) {
+			return date;
+		} else if (fields.formatType == FORMAT_TYPE_0 || fields.formatType == FORMAT_TYPE_1) {
+			return fields.date.toDateTimeAtStartOfDay();
+		}
+		
+		// Days of the week and relative days keep the current time
+		return date.withDate(fields.date.getYear(), fields.date.getMonthOfYear(), fields.date.getDayOfMonth());
+	}
+	
+	/**
+	 * Gets the date of the input without its time, for callers that set the time themselves.
+	 * @param input
+	 * @return the date of the input, or today if the input is not a date
+	 */
+	protected static LocalDate getDate(String input) {
+		DateFields fields = getDateFields(input);
+		
+		if (fields == null) {
+			return new LocalDate();
+		}
+		return fields.date;
+	}
+	
+	private static LocalDate getDate(DateFields fields, LocalDate today) {
+		if (fields.formatType == FORMAT_TYPE_0) {
+			return parseDateFormat0(fields);
+		} else if (fields.formatType == FORMAT_TYPE_1) {
+			return parseDateFormat1(fields, today);
+		} else if (fields.formatType == FORMAT_TYPE_2) { 
+			return parseDateFormat2(fields, today);
+		}
+		return today.plusDays(fields.dayOffset);
+	}
+	
+	/**
+	 * Set the date to today's date
+	 * @return a DateTime object with the date set to today.
+	 */
+	protected static DateTime setDate() {
+		return new DateTime();
+	}
+
+	/**
+	 * Get the date format type of the input.
+	 * returns 0 if date contains day, month and year
+	 * returns 1 if date contains day and month only
+	 * returns 2 if date is written in english (Tuesday, wed etc)
+	 * returns 3 if date is yesterday/today/tomorrow
+	 * returns -1 if invalid
+	 * @param input
+	 * @return the format of the input date
+	 */
+	private static int getDateFormatType(String input) {
+		DateFields fields = getDateFields(input);
+		
+		if (fields == null) {
+			return -1;
+		}
+		return fields.formatType;
+	}
+	
+	/**
+	 * Finds if the input string is a valid date
+	 * @param input
+	 * @return true if the input string is a valid date
+	 */
+	protected static boolean isDate(String input) {
+		int formatType = getDateFormatType(input);
+		assert(formatType >= -1 && formatType <=3);
+		
+		if (formatType == -1) {
+			return false;
+		} else {
+			return true;
+		}
+	}
+	
+	protected static boolean isSameDate(DateTime date1, DateTime date2) {
+		return (date1.getYear() == date2.getYear()) && (date1.getDayOfYear() == date2.getDayOfYear());
+	}
+	
+	/**
+	 * @return the hits and misses of the cache of tokens read before
+	 */
+	protected static LruCache.Statistics getCacheStatistics() {
+		return recognizedDates.getStatistics();
+	}
+	
+	/**
+	 * Looks the input up among the tokens read before, and reads it if it is
+	 * not there. A date without a year, a day of the week or a relative day
+	 * depends on today, so it goes stale when the day ends.
+	 * @param input
+	 * @return the parts of the date, or null if the input is not a date
+	 */
+	private static DateFields getDateFields(String input) {
+		if (input == null) {
+			return null;
+		}
+		
+		input = normalize(input);
+		long now = System.currentTimeMillis();
+		DateFields fields = recognizedDates.get(input, now);
+		if (fields == null) {
+			Day day = getToday(now);
+			long expiry = LruCache.NEVER;
+			fields = recognizeDate(input);
+			
+			if (fields == null) {
+				fields = NOT_A_DATE;
+			} else {
+				fields.date = getDate(fields, day.date);
+				expiry = (fields.formatType == FORMAT_TYPE_0) ? LruCache.NEVER : day.end;
+			}
+			recognizedDates.put(input, fields, expiry);
+		}
+		
+		return (fields == NOT_A_DATE) ? null : fields;
+	}
+	
+	/**
+	 * Lower-cases the input if its letters are all lower case, all upper case
+	 * or capitalised, the cases a name is read in. Inputs that only differ in
+	 * that way are the same date, so they share a cache entry. Whitespace is
+	 * left alone, since a token with whitespace around it is not a date.
+	 * @param input
+	 * @return the input as it is looked up and read
+	 */
+	private static String normalize(String input) {
+		int length = input.length();
+		int start = 0;
+		while (start < length && !Character.isLetter(input.charAt(start))) {
+			start++;
+		}
+		int end = start;
+		while (end < length && Character.isLetter(input.charAt(end))) {
+			end++;
+		}
+		
+		// A date spells out at most one name, so any other letters leave it as it is
+		for (int i = end; i < length; i++) {
+			if (Character.isLetter(input.charAt(i))) {
+				return input;
+			}
+		}
+		if (start == end || !isNameCase(input, start, end)) {
+			return input;
+		}
+		return input.toLowerCase(Locale.ENGLISH);
+	}
+	
+	private static Day getToday(long now) {
+		Day day = today;
+		if (day == null || now >= day.end) {
+			LocalDate date = new LocalDate(now);
+			day = new Day(date, date.plusDays(1).toDateTimeAtStartOfDay().getMillis());
+			today = day;
+		}
+		return day;
+	}
+	
+	/**
+	 * Reads the input as one of the date formats: the day, a separator, the
+	 * month and optionally the same separator and the year, as in 25/12/2014,
+	 * 25-12, 25.dec.2014 or 25-December, or else a day of the week or
+	 * yesterday, today or tomorrow. A dot only separates a day from a month
+	 * name. Names are English and must be all lower case, all upper case or
+	 * capitalised. The date must exist, so 31/04 is not one.
+	 * @param input
+	 * @return the parts of the date, or null if the input is not a date
+	 */
+	private static DateFields recognizeDate(String input) {
+		if (input == null || input.isEmpty()) {
+			return null;
+		} else if (Character.isLetter(input.charAt(0))) {
+			return recognizeWord(input);
+		}
+		
+		int length = input.length();
+		int position = 0;
+		int day = 0;
+		while (position < length && position < MAXIMUM_DAY_DIGITS && isDigit(input.charAt(position))) {
+			day = day * 10 + (input.charAt(position) - '0');
+			position++;
+		}
+		if (position == 0 || position == length) {
+			return null;
+		}
+		
+		char separator = input.charAt(position);
+		if (separator != '/' && separator != '-' && separator != '.') {
+			return null;
+		}
+		position++;
+		
+		int month = 0;
+		int monthStart = position;
+		boolean isMonthName = false;
+		if (position < length && isDigit(input.charAt(position))) {
+			while (position < length && position - monthStart < MAXIMUM_DAY_DIGITS && isDigit(input.charAt(position))) {
+				month = month * 10 + (input.charAt(position) - '0');
+				position++;
+			}
+		} else {
+			while (position < length && Character.isLetter(input.charAt(position))) {
+				position++;
+			}
+			month = findName(input, monthStart, position, MONTH_NAMES) + 1;
+			isMonthName = true;
+		}
+		
+		if (position == length) {
+			if ((separator == '.' && !isMonthName) || !isValidDay(day, month, LEAP_YEAR)) {
+				return null;
+			}
+			DateFields fields = new DateFields(FORMAT_TYPE_1);
+			fields.day = day;
+			fields.month = month;
+			return fields;
+		} else if (input.charAt(position) != separator) {
+			return null;
+		}
+		position++;
+		
+		int yearStart = position;
+		int year = 0;
+		while (position < length && position - yearStart < MAXIMUM_YEAR_DIGITS && isDigit(input.charAt(position))) {
+			year = year * 10 + (input.charAt(position) - '0');
+			position++;
+		}
+		if (position == yearStart || position < length || year > MAXIMUM_YEAR || !isValidDay(day, month, year)) {
+			return null;
+		}
+		
+		DateFields fields = new DateFields(FORMAT_TYPE_0);
+		fields.day = day;
+		fields.month = month;
+		fields.year = year;
+		return fields;
+	}
+	
+	/**
+	 * Reads the input as a day of the week or as yesterday, today or tomorrow
+	 * @param input
+	 * @return the parts of the date, or null if the input is neither
+	 */
+	private static DateFields recognizeWord(String input) {
+		int dayOfWeek = findName(input, 0, input.length(), DAY_NAMES) + 1;
+		if (dayOfWeek > 0) {
+			DateFields fields = new DateFields(FORMAT_TYPE_2);
+			fields.dayOfWeek = dayOfWeek;
+			return fields;
+		}
+		
+		DateFields fields = new DateFields(FORMAT_TYPE_3);
+		if (input.equalsIgnoreCase(DATE_YESTERDAY)) {
+			fields.dayOffset = -1;
+		} else if (input.equalsIgnoreCase(DATE_TOMORROW)) {
+			fields.dayOffset = 1;
+		} else if (!input.equalsIgnoreCase(DATE_TODAY)) {
+			return null;
+		}
+		return fields;
+	}
+	
+	/**
+	 * Finds the name, in full or shortened to its first three letters, that
+	 * the characters of the input from start to end spell
+	 * @param input
+	 * @param start
+	 * @param end
+	 * @param names lower case names
+	 * @return the index of the name, or -1 if there is none
+	 */
+	private static int findName(String input, int start, int end, String[] names) {
+		int length = end - start;
+		if (length < SHORT_NAME_LENGTH || !isNameCase(input, start, end)) {
+			return -1;
+		}
+		
+		for (int i = 0; i < names.length; i++) {
+			boolean isNameLength = (length == SHORT_NAME_LENGTH || length == names[i].length());
+			if (isNameLength && input.regionMatches(true, start, names[i], 0, length)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return true if the characters from start to end are all lower case, all upper case or capitalised
+	 */
+	private static boolean isNameCase(String input, int start, int end) {
+		char first = input.charAt(start);
+		boolean isAllUpper = Character.isUpperCase(first);
+		boolean isRestLower = Character.isUpperCase(first) || Character.isLowerCase(first);
+		for (int i = start + 1; i < end; i++) {
+			char c = input.charAt(i);
+			isAllUpper = isAllUpper && Character.isUpperCase(c);
+			isRestLower = isRestLower && Character.isLowerCase(c);
+		}
+		return isRestLower || isAllUpper;
+	}
+	
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+	
+	/**
+	 * @return true if the month has the day in the given year
+	 */
+	private static boolean isValidDay(int day, int month, int year) {
+		if (month < 1 || month > 12 || day < 1 || year < 1) {
+			return false;
+		} else if (month == 2) {
+			boolean isLeapYear = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+			return day <= (isLeapYear ? 29 : 28);
+		} else if (month == 4 || month == 6 || month == 9 || month == 11) {
+			return day <= 30;
+		}
+		return day <= 31;
+	}
+	
+	/**
+	 * Returns the date of format type 0
+	 * @param fields
+	 * @return a LocalDate object with the date set to the input date
+	 */
+	private static LocalDate parseDateFormat0(DateFields fields){
+		return new LocalDate(fields.year, fields.month, fields.day);
+	}
+	
+	/**
+	 * Returns the next date of format type 1
+	 * @param fields
+	 * @param date the current date
+	 * @return a LocalDate object with the date set to the input date
+	 */
+	private static LocalDate parseDateFormat1(DateFields fields, LocalDate date) {
+		int targetDay = fields.day;
+		int targetMonth = fields.month;
+		int currentDay = date.getDayOfMonth();
+		int currentMonth = date.getMonthOfYear();
+		int year = date.getYear();
+		
+		// Target day to be set has already passed, so set it to next year
+		if (targetMonth < currentMonth || (targetMonth == currentMonth && targetDay < currentDay)) {
+			year++;
+		}
+		// 29/02 is set to the next leap year
+		while (!isValidDay(targetDay, targetMonth, year)) {
+			year++;
+		}
+		return new LocalDate(year, targetMonth, targetDay);
+	}
+	
+	/**
+	 * Returns the next date of format type 2
+	 * @param fields
+	 * @param date the current date
+	 * @return a LocalDate object with the date set to the input date
+	 */
+	private static LocalDate parseDateFormat2(DateFields fields, LocalDate date) {
+		int targetDayOfWeek = fields.dayOfWeek;
+		int currentDayOfWeek = date.getDayOfWeek();
+		
+		if (targetDayOfWeek < currentDayOfWeek) {
+			date = date.plusWeeks(1);
+		} 
+		
+		date = date.withDayOfWeek(targetDayOfWeek);
+		return date;
+	}
+}
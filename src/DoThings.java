@@ -1,6 +1,6 @@
-public class DoThings {
-	protected static String readCommand(String userInput) {
-		Feedback feed = MainLogic.runLogic(userInput);
-		return feed.toString();
-	}
+public class DoThings {
+	protected static String readCommand(String userInput) {
+		Feedback feed = MainLogic.runLogic(userInput);
+		return feed.toString();
+	}
 }
\ No newline at end of file
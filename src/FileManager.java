@@ -1,61 +1,432 @@
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.net.URLDecoder;
-import java.util.ArrayList;
-import java.util.logging.Logger;
-
-class FileManager {
-	
-	@SuppressWarnings("deprecation")
-	public static final String filepath = new File(URLDecoder.decode(DoThings.class.getProtectionDomain().getCodeSource().getLocation().getPath())).getParent() + System.getProperty("file.separator");
-	
-	private static Logger LOGGER = Logger.getLogger(FileManager.class.getName());
-	private static BufferedReader getReader(String fileName) throws FileNotFoundException {
-		File file = new File(fileName);
-		BufferedReader bw = new BufferedReader(new FileReader(file));
-		return bw;
-	}
-	
-	private static BufferedWriter getWriter(String fileName) throws IOException {
-		File file = new File(fileName);
-		BufferedWriter bw = new BufferedWriter(new FileWriter(file));
-		return bw;
-	}
-	
-	protected static ArrayList<String> readFromFile(String fileName) {
-		//LOGGER.info("Reading from file " + fileName);
-		ArrayList<String> list = new ArrayList<String>();
-		
-		try {
-			BufferedReader reader = getReader(filepath + fileName);
-			String line;
-			while ((line = reader.readLine()) != null) {
-				list.add(line);
-			}
-		} catch (IOException e) {
-			LOGGER.info("Error reading from file " + fileName);
-		}
-		
-		return list;
-	}
-	
-	protected static void writeToFile(String fileName, ArrayList<String> list) {
-		//LOGGER.info("Writing to file " + fileName);
-		try {
-			BufferedWriter writer = getWriter(filepath + fileName);
-			for(int i = 0; i < list.size(); i++) {
-				writer.write(list.get(i) + System.getProperty("line.separator"));
-			}
-			writer.flush();
-			writer.close();
-		} catch (IOException e) {
-			LOGGER.info("Error writing to file " + fileName);
-			e.printStackTrace();
-		}
-	}
-}
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+class FileManager {
+
+	@SuppressWarnings("deprecation")
+	public static final String filepath = new File(URLDecoder.decode(DoThings.class.getProtectionDomain().getCodeSource().getLocation().getPath())).getParent() + System.getProperty("file.separator");
+
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	/**
+	 * DURABLE forces every write to the disk before it is made visible, so a
+	 * power loss leaves either the old or the new file. FAST still replaces
+	 * files atomically but leaves flushing to the operating system.
+	 */
+	protected enum WriteMode {
+		DURABLE, FAST;
+	}
+
+	private static Logger LOGGER = Logger.getLogger(FileManager.class.getName());
+
+	private static volatile WriteMode writeMode = WriteMode.DURABLE;
+	private static volatile boolean syncDirectory = false;
+
+	private static final AtomicLongArray writeCount = new AtomicLongArray(WriteMode.values().length);
+	private static final AtomicLongArray bytesWritten = new AtomicLongArray(WriteMode.values().length);
+	private static final AtomicLongArray writeNanos = new AtomicLongArray(WriteMode.values().length);
+
+	private static BufferedReader getReader(String fileName) throws FileNotFoundException {
+		File file = new File(fileName);
+		BufferedReader bw = new BufferedReader(new FileReader(file));
+		return bw;
+	}
+
+	protected static WriteMode getWriteMode() {
+		return writeMode;
+	}
+
+	protected static void setWriteMode(WriteMode mode) {
+		writeMode = mode;
+	}
+
+	/**
+	 * Sets whether the directory is also synced after a file is replaced in
+	 * DURABLE mode, which makes the rename itself survive a power loss.
+	 * @param sync
+	 */
+	protected static void setSyncDirectory(boolean sync) {
+		syncDirectory = sync;
+	}
+
+	protected static long getWriteCount(WriteMode mode) {
+		return writeCount.get(mode.ordinal());
+	}
+
+	protected static long getBytesWritten(WriteMode mode) {
+		return bytesWritten.get(mode.ordinal());
+	}
+
+	/**
+	 * @param mode
+	 * @return the total time spent writing in the given mode, in nanoseconds
+	 */
+	protected static long getWriteNanos(WriteMode mode) {
+		return writeNanos.get(mode.ordinal());
+	}
+
+	protected static void resetWriteStatistics() {
+		for (int i = 0; i < WriteMode.values().length; i++) {
+			writeCount.set(i, 0);
+			bytesWritten.set(i, 0);
+			writeNanos.set(i, 0);
+		}
+	}
+
+	protected static ArrayList<String> readFromFile(String fileName) {
+		//LOGGER.info("Reading from file " + fileName);
+		ArrayList<String> list = new ArrayList<String>();
+
+		try (BufferedReader reader = getReader(filepath + fileName)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				list.add(line);
+			}
+		} catch (IOException e) {
+			LOGGER.info("Error reading from file " + fileName);
+		}
+
+		return list;
+	}
+
+	/**
+	 * Reads every line of the file. Unlike readFromFile, a file that exists
+	 * but cannot be read is an error rather than a shorter list, for stores
+	 * that would lose data if they carried on with what was read.
+	 * @param fileName
+	 * @return the lines, or an empty list if the file does not exist
+	 * @throws IllegalStateException if the file cannot be read
+	 */
+	protected static ArrayList<String> readAllLines(String fileName) {
+		ArrayList<String> list = new ArrayList<String>();
+		if (!fileExists(fileName)) {
+			return list;
+		}
+
+		try (BufferedReader reader = getReader(filepath + fileName)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				list.add(line);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Error reading from file " + fileName, e);
+		}
+
+		return list;
+	}
+
+	/**
+	 * Replaces the contents of the file with the lines. The lines are written
+	 * to a temporary file which is then renamed over the target, so readers
+	 * never see a partially written file.
+	 * @param fileName
+	 * @param list
+	 * @return true if the file was replaced, false if it was left as it was
+	 */
+	protected static boolean writeToFile(String fileName, ArrayList<String> list) {
+		//LOGGER.info("Writing to file " + fileName);
+		return writeToFile(fileName, ByteBuffer.wrap(joinLines(list)));
+	}
+
+	/**
+	 * Replaces the contents of the file with the bytes remaining in the buffer
+	 * @param fileName
+	 * @param data
+	 * @return true if the file was replaced, false if it was left as it was
+	 */
+	protected static boolean writeToFile(String fileName, ByteBuffer data) {
+		WriteMode mode = writeMode;
+		long start = System.nanoTime();
+		int size = data.remaining();
+		Path target = getPath(fileName);
+		Path temp = getPath(fileName + TEMP_SUFFIX);
+
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (data.hasRemaining()) {
+					channel.write(data);
+				}
+				if (mode == WriteMode.DURABLE) {
+					channel.force(true);
+				}
+			}
+
+			moveAtomically(temp, target);
+			if (mode == WriteMode.DURABLE && syncDirectory) {
+				forceDirectory(target.getParent());
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Error writing to file " + fileName, e);
+			return false;
+		}
+
+		recordWrite(mode, size, System.nanoTime() - start);
+		return true;
+	}
+
+	/**
+	 * Appends the lines to the end of the file, creating it if it does not exist
+	 * @param fileName
+	 * @param list
+	 * @return true if every line was written, false if the file may hold
+	 * none, some or all of them
+	 */
+	protected static boolean appendToFile(String fileName, ArrayList<String> list) {
+		WriteMode mode = writeMode;
+		long start = System.nanoTime();
+		ByteBuffer data = ByteBuffer.wrap(joinLines(list));
+		int size = data.remaining();
+
+		try (FileChannel channel = FileChannel.open(getPath(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+			if (mode == WriteMode.DURABLE) {
+				channel.force(true);
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Error appending to file " + fileName, e);
+			return false;
+		}
+
+		recordWrite(mode, size, System.nanoTime() - start);
+		return true;
+	}
+
+	/**
+	 * Opens the file for reading and for writing at any position, creating it
+	 * if it does not exist
+	 * @param fileName
+	 * @return the open channel, which the caller must close
+	 * @throws IOException
+	 */
+	protected static FileChannel openForUpdate(String fileName) throws IOException {
+		return FileChannel.open(getPath(fileName), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Writes the bytes remaining in the buffer at the given position. Nothing is
+	 * forced to the disk here; call force once a batch of writes is done.
+	 * @param channel
+	 * @param position
+	 * @param data
+	 * @throws IOException
+	 */
+	protected static void writeAt(FileChannel channel, long position, ByteBuffer data) throws IOException {
+		WriteMode mode = writeMode;
+		long start = System.nanoTime();
+		int size = data.remaining();
+
+		while (data.hasRemaining()) {
+			position += channel.write(data, position);
+		}
+
+		recordWrite(mode, size, System.nanoTime() - start);
+	}
+
+	/**
+	 * Fills the buffer from the given position, stopping early only at the end of the file
+	 * @param channel
+	 * @param position
+	 * @param data
+	 * @throws IOException
+	 */
+	protected static void readAt(FileChannel channel, long position, ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			int read = channel.read(data, position);
+			if (read < 0) {
+				break;
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * Forces the writes made through the channel to the disk in DURABLE mode
+	 * @param channel
+	 * @throws IOException
+	 */
+	protected static void force(FileChannel channel) throws IOException {
+		if (writeMode == WriteMode.DURABLE) {
+			channel.force(false);
+		}
+	}
+
+	protected static boolean fileExists(String fileName) {
+		return new File(filepath + fileName).exists();
+	}
+
+	protected static long getFileSize(String fileName) {
+		return new File(filepath + fileName).length();
+	}
+
+	/**
+	 * @param fileName
+	 * @return true if the file is empty, missing or ends with a line break, so
+	 * that lines appended to it start on a line of their own
+	 */
+	protected static boolean endsWithNewline(String fileName) {
+		if (getFileSize(fileName) == 0) {
+			return true;
+		}
+
+		try (FileChannel channel = FileChannel.open(getPath(fileName), StandardOpenOption.READ)) {
+			ByteBuffer last = ByteBuffer.allocate(1);
+			readAt(channel, channel.size() - 1, last);
+			return last.get(0) == '\n' || last.get(0) == '\r';
+		} catch (IOException e) {
+			LOGGER.info("Error reading from file " + fileName);
+			return false;
+		}
+	}
+
+	protected static void deleteFile(String fileName) {
+		try {
+			Files.deleteIfExists(getPath(fileName));
+		} catch (IOException e) {
+			LOGGER.info("Error deleting file " + fileName);
+		}
+	}
+
+	/**
+	 * Atomically moves a file over another, replacing it
+	 * @param source
+	 * @param target
+	 * @return true if the file was moved
+	 */
+	protected static boolean replaceFile(String source, String target) {
+		try {
+			moveAtomically(getPath(source), getPath(target));
+			return true;
+		} catch (IOException e) {
+			LOGGER.info("Error moving file " + source + " to " + target);
+			return false;
+		}
+	}
+
+	private static void moveAtomically(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Flushes the directory entry itself to the disk. Not every platform allows
+	 * a directory to be opened, in which case this does nothing.
+	 * @param directory
+	 */
+	private static void forceDirectory(Path directory) {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			LOGGER.fine("Directory sync not supported for " + directory);
+		}
+	}
+
+	/**
+	 * Escapes the backslashes, tabs and line breaks in the text, so that it can
+	 * be written as one field of a tab-separated line
+	 * @param text
+	 * @return the escaped text
+	 */
+	protected static String escapeField(String text) {
+		StringBuilder escaped = null;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			String replacement = null;
+			if (c == '\\') {
+				replacement = "\\\\";
+			} else if (c == '\t') {
+				replacement = "\\t";
+			} else if (c == '\n') {
+				replacement = "\\n";
+			} else if (c == '\r') {
+				replacement = "\\r";
+			}
+
+			if (replacement != null && escaped == null) {
+				escaped = new StringBuilder(text.length() + 8).append(text, 0, i);
+			}
+			if (replacement != null) {
+				escaped.append(replacement);
+			} else if (escaped != null) {
+				escaped.append(c);
+			}
+		}
+		return (escaped == null) ? text : escaped.toString();
+	}
+
+	/**
+	 * Reverses escapeField. A backslash before any other character is kept as it is.
+	 * @param field
+	 * @return the original text
+	 */
+	protected static String unescapeField(String field) {
+		if (field.indexOf('\\') < 0) {
+			return field;
+		}
+
+		StringBuilder text = new StringBuilder(field.length());
+		for (int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			if (c != '\\' || i + 1 == field.length()) {
+				text.append(c);
+				continue;
+			}
+
+			char next = field.charAt(i + 1);
+			if (next == '\\') {
+				text.append('\\');
+			} else if (next == 't') {
+				text.append('\t');
+			} else if (next == 'n') {
+				text.append('\n');
+			} else if (next == 'r') {
+				text.append('\r');
+			} else {
+				text.append(c);
+				continue;
+			}
+			i++;
+		}
+		return text.toString();
+	}
+
+	private static void recordWrite(WriteMode mode, int size, long nanos) {
+		writeCount.incrementAndGet(mode.ordinal());
+		bytesWritten.addAndGet(mode.ordinal(), size);
+		writeNanos.addAndGet(mode.ordinal(), nanos);
+	}
+
+	private static byte[] joinLines(ArrayList<String> list) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < list.size(); i++) {
+			builder.append(list.get(i)).append(LINE_SEPARATOR);
+		}
+		return builder.toString().getBytes(Charset.defaultCharset());
+	}
+
+	private static Path getPath(String fileName) {
+		return Paths.get(filepath + fileName);
+	}
+}
@@ -1,134 +1,520 @@
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Stack;
-
-
-public class HistoryHandler {
-	private static final String FILE_UNDO = "undo.txt";
-	private static final String DELIMITER = "!@#$%^&*()";
-	private static final int MAXIMUM_UNDO_STEPS = 100;
-	private static final int MAXIMUM_SAVE_STACK_SIZE = 10;
-	
-	private static final String UNDO_SUCCESS = "Undo successful!\n";
-	private static final String UNDO_FAIL = "Nothing left to undo.\n";
-	private static final String REDO_SUCCESS = "Redo successful!\n";
-	private static final String REDO_FAIL = "Nothing left to redo.\n";
-	
-	private static ArrayDeque<ArrayList<Task>> taskUndoStack = loadUndoStack();
-	private static ArrayDeque<ArrayList<Task>> taskRedoStack = new ArrayDeque<ArrayList<Task>>();
-	
-	/**
-	 * The previous action by the user which manipulates the taskList or customCommandList will be undone
-	 * @return a Feedback object to be shown to the user, indicating success or failure in undoing
-	 */
-	protected static Feedback undoCommand() {
-		boolean tryUndo = popUndoStack();
-		if(tryUndo) {
-			Task.saveTasks();
-			return new Feedback(UNDO_SUCCESS);
-		} else {
-			return new Feedback(UNDO_FAIL);
-		}
-	}
-	
-	protected static Feedback redoCommand() {
-		boolean tryRedo = popRedoStack();
-		if(tryRedo) {
-			Task.saveTasks();
-			return new Feedback(REDO_SUCCESS);
-		} else {
-			return new Feedback(REDO_FAIL);
-		}
-	}
-
-	/**
-	 * Pushes a copy of the taskList and CustomCommandList into the undo stack.
-	 */
-	protected static void pushUndoStack() {
-		ArrayList<Task> taskNewList = (ArrayList<Task>) Task.getList().clone();		
-		taskUndoStack.add(taskNewList);
-		reduceStackSize();
-		saveUndoStack();
-	}
-	
-	private static void reduceStackSize() {
-		while (taskUndoStack.size() > MAXIMUM_UNDO_STEPS) {
-			taskUndoStack.pollFirst();
-		}
-	}
-	
-	private static void pushRedoStack() {
-		ArrayList<Task> taskNewList = (ArrayList<Task>) Task.getList().clone();		
-		taskRedoStack.add(taskNewList);
-	}
-	
-	/**
-	 * Get the top of the undo stack
-	 * @return true if stack size is greater than zero, false otherwise
-	 */
-	private static boolean popUndoStack() {
-		if (taskUndoStack.size() > 0) {
-			pushRedoStack();
-			ArrayList<Task> taskList = taskUndoStack.pollLast();
-			Task.setList(taskList);
-			return true;
-		} else {
-			return false;
-		}
-	}
-	
-	/**
-	 * Get the top of the undo stack
-	 * @return true if stack size is greater than zero, false otherwise
-	 */
-	private static boolean popRedoStack() {
-		if (taskRedoStack.size() > 0) {
-			pushUndoStack();
-			ArrayList<Task> taskList = taskRedoStack.pollLast();
-			Task.setList(taskList);
-			return true;
-		} else {
-			return false;
-		}
-	}
-	
-	protected static void purgeRedoStack() {
-		taskRedoStack = new ArrayDeque<ArrayList<Task>>();
-	}
-	
-	private static void saveUndoStack() {
-		ArrayDeque<ArrayList<Task>> undoStack = (ArrayDeque<ArrayList<Task>>) taskUndoStack.clone();
-		ArrayList<String> saveList = new ArrayList<String>();
-		
-		for (int i = 0; i < MAXIMUM_SAVE_STACK_SIZE; i++) {
-			if (undoStack.size() > 0) {
-				ArrayList<Task> stackEntry = undoStack.pop();
-				for (int j = 0; j < stackEntry.size(); j++) {
-					saveList.add(stackEntry.get(j).toString());
-				}
-				saveList.add(DELIMITER);
-			}
-		}
-		
-		FileManager.writeToFile(FILE_UNDO, saveList);
-	}
-	
-	private static ArrayDeque<ArrayList<Task>> loadUndoStack() {
-		ArrayList<String> list = FileManager.readFromFile(FILE_UNDO);
-		ArrayDeque<ArrayList<Task>> undoStack = new ArrayDeque<ArrayList<Task>>();
-		ArrayList<Task> stackEntry = new ArrayList<Task>();
-		
-		for (int i = 0; i < list.size(); i++) {
-			if (list.get(i).equals(DELIMITER)) {
-				undoStack.add(stackEntry);
-				stackEntry = new ArrayList<Task>();
-				continue;
-			}
-			
-			stackEntry.add(Task.parseTaskFromString(list.get(i)));
-		}
-		
-		return undoStack;
-	}
-	
-}
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the undo and redo history. With the DELTA engine, every push, undo
+ * and redo is appended to undo.log as one small record instead of rewriting
+ * the saved history, and the log is replayed when the undo stack is first
+ * needed. Once the log holds too many records it is rewritten to hold just
+ * the current history, so it stays bounded however long the session runs.
+ *
+ * The history is bounded by bytes rather than steps. Each stack keeps its
+ * newest entries on the heap and spills older ones to a file, see UndoStack.
+ */
+public class HistoryHandler {
+	private static final String FILE_UNDO = "undo.txt";
+	private static final String FILE_UNDO_LOG = "undo.log";
+	private static final String FILE_UNDO_SPILL = "undo.spill";
+	private static final String FILE_REDO_SPILL = "redo.spill";
+	private static final String DELIMITER = "!@#$%^&*()";
+	private static final long DEFAULT_HEAP_BUDGET = 1024 * 1024;
+	private static final long DEFAULT_DISK_BUDGET = 16 * 1024 * 1024;
+	private static final int MINIMUM_LOG_RECORDS = 400;
+
+	private static final String OP_PUSH = "PUSH";
+	private static final String OP_UNDO = "UNDO";
+	private static final String OP_REDO = "REDO";
+	private static final String OP_PURGE_REDO = "PURGE_REDO";
+	private static final String OP_CLEAR = "CLEAR";
+	private static final String OP_UNDO_ENTRY = "UNDO_ENTRY";
+	private static final String OP_REDO_ENTRY = "REDO_ENTRY";
+
+	private static final String UNDO_SUCCESS = "Undo successful!\n";
+	private static final String UNDO_FAIL = "Nothing left to undo.\n";
+	private static final String REDO_SUCCESS = "Redo successful!\n";
+	private static final String REDO_FAIL = "Nothing left to redo.\n";
+
+	/**
+	 * DELTA keeps the change made by each command and logs it to undo.log.
+	 * SNAPSHOT keeps a version of the whole task list for each step in
+	 * SnapshotHistory, which allows a much deeper history but only lasts for
+	 * the session. The engine is picked by the undo.engine setting.
+	 */
+	protected enum Engine {
+		DELTA, SNAPSHOT;
+	}
+
+	private static Logger LOGGER = Logger.getLogger(HistoryHandler.class.getName());
+
+	private static volatile Engine engine = Engine.DELTA;
+	private static volatile Engine activeEngine = Engine.DELTA;
+
+	private static volatile long heapBudget = DEFAULT_HEAP_BUDGET;
+	private static volatile long diskBudget = DEFAULT_DISK_BUDGET;
+
+	private static volatile UndoStack taskUndoStack;
+	private static Future<UndoStack> pendingLoad;
+	private static final UndoStack taskRedoStack = new UndoStack(FILE_REDO_SPILL, DEFAULT_HEAP_BUDGET, DEFAULT_DISK_BUDGET);
+
+	private static final Object logLock = new Object();
+	private static ArrayList<String> pendingRecords = new ArrayList<String>();
+	private static int recordsInLog = 0;
+	private static boolean rewriteLog = false;
+
+	private static final Runnable FLUSH_UNDO_LOG = new Runnable() {
+		public void run() {
+			flushPendingRecords();
+		}
+	};
+
+	/**
+	 * Starts loading the undo stack in the background if it has not been loaded yet
+	 */
+	protected static synchronized void startLoading() {
+		if (taskUndoStack != null || pendingLoad != null) {
+			return;
+		}
+
+		pendingLoad = BackgroundLoader.submit(new Callable<UndoStack>() {
+			public UndoStack call() {
+				return loadUndoStack();
+			}
+		});
+	}
+
+	/**
+	 * Returns the undo stack, waiting for it to finish loading if needed
+	 * @return the undo stack
+	 */
+	private static UndoStack getUndoStack() {
+		if (taskUndoStack == null) {
+			awaitLoad();
+		}
+		return taskUndoStack;
+	}
+
+	private static synchronized void awaitLoad() {
+		if (taskUndoStack != null) {
+			return;
+		}
+
+		startLoading();
+		taskUndoStack = BackgroundLoader.await(pendingLoad, newUndoStack(), FILE_UNDO_LOG);
+		pendingLoad = null;
+	}
+
+	/**
+	 * Drops the undo and redo history held in memory, so that the undo
+	 * history is read from disk again the next time it is needed
+	 */
+	protected static synchronized void reload() {
+		WriteBehindPersister.flush();
+		getUndoStack().clear();
+		taskUndoStack = null;
+		taskRedoStack.clear();
+	}
+
+	private static UndoStack newUndoStack() {
+		return new UndoStack(FILE_UNDO_SPILL, heapBudget, diskBudget);
+	}
+
+	/**
+	 * Sets how many bytes each of the undo and redo histories may keep on the
+	 * heap and in its spill file. The oldest steps are dropped past both.
+	 * Setting the budget before the undo stack is loaded does not load it.
+	 * @param heapBytes
+	 * @param diskBytes
+	 */
+	protected static synchronized void setMemoryBudget(long heapBytes, long diskBytes) {
+		heapBudget = heapBytes;
+		diskBudget = diskBytes;
+		if (taskUndoStack != null || pendingLoad != null) {
+			getUndoStack().setBudget(heapBytes, diskBytes);
+		}
+		taskRedoStack.setBudget(heapBytes, diskBytes);
+	}
+
+	protected static long getHeapBudget() {
+		return heapBudget;
+	}
+
+	protected static long getDiskBudget() {
+		return diskBudget;
+	}
+
+	/**
+	 * @return the estimated heap bytes held by the undo and redo histories
+	 */
+	protected static long getHeapFootprint() {
+		return getUndoStack().getHeapBytes() + taskRedoStack.getHeapBytes();
+	}
+
+	/**
+	 * @return the bytes taken up by the spill files of the undo and redo histories
+	 */
+	protected static long getDiskFootprint() {
+		return getUndoStack().getDiskBytes() + taskRedoStack.getDiskBytes();
+	}
+
+	protected static int getUndoSteps() {
+		return getUndoStack().size();
+	}
+
+	protected static Engine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Picks the undo engine. Nothing else happens until the history is next
+	 * used, so the settings can be applied at startup without waiting for
+	 * the undo stack to load, and a setting that is the same as last time
+	 * leaves the saved history alone.
+	 * @param historyEngine
+	 */
+	protected static void setEngine(Engine historyEngine) {
+		engine = historyEngine;
+	}
+
+	/**
+	 * Switches the history over to the engine picked last, if it is not the
+	 * one in use. The history kept so far is discarded, and so is the saved
+	 * delta history, which would no longer match the task list by the time
+	 * the DELTA engine is used again.
+	 * @return the engine in use
+	 */
+	private static Engine activateEngine() {
+		if (activeEngine == engine) {
+			return activeEngine;
+		}
+
+		synchronized (HistoryHandler.class) {
+			Engine picked = engine;
+			if (picked == Engine.SNAPSHOT) {
+				discardDeltaHistory();
+			} else {
+				SnapshotHistory.clear();
+			}
+			activeEngine = picked;
+			return picked;
+		}
+	}
+
+	private static void discardDeltaHistory() {
+		if (taskUndoStack != null || pendingLoad != null) {
+			getUndoStack().clear();
+		}
+		taskRedoStack.clear();
+		synchronized (logLock) {
+			pendingRecords = new ArrayList<String>();
+			recordsInLog = 0;
+			rewriteLog = false;
+			FileManager.deleteFile(FILE_UNDO_LOG);
+			FileManager.deleteFile(FILE_UNDO);
+		}
+	}
+
+	/**
+	 * The previous action by the user which manipulates the taskList or customCommandList will be undone
+	 * @return a Feedback object to be shown to the user, indicating success or failure in undoing
+	 */
+	protected static Feedback undoCommand() {
+		if (activateEngine() == Engine.SNAPSHOT) {
+			return new Feedback(SnapshotHistory.undo() ? UNDO_SUCCESS : UNDO_FAIL);
+		}
+
+		UndoDelta delta = getUndoStack().pollLast();
+		if (delta == null) {
+			return new Feedback(UNDO_FAIL);
+		}
+
+		delta.revert();
+		taskRedoStack.add(delta);
+		appendRecord(OP_UNDO, null);
+		return new Feedback(UNDO_SUCCESS);
+	}
+
+	protected static Feedback redoCommand() {
+		if (activateEngine() == Engine.SNAPSHOT) {
+			return new Feedback(SnapshotHistory.redo() ? REDO_SUCCESS : REDO_FAIL);
+		}
+
+		UndoDelta delta = taskRedoStack.pollLast();
+		if (delta == null) {
+			return new Feedback(REDO_FAIL);
+		}
+
+		delta.revert();
+		getUndoStack().add(delta);
+		appendRecord(OP_REDO, null);
+		return new Feedback(REDO_SUCCESS);
+	}
+
+	/**
+	 * Pushes the change made by a command into the undo stack.
+	 * @param delta
+	 */
+	protected static void pushUndoStack(UndoDelta delta) {
+		if (activateEngine() == Engine.SNAPSHOT) {
+			SnapshotHistory.push(delta);
+			return;
+		}
+
+		getUndoStack().add(delta);
+		appendRecord(OP_PUSH, delta);
+	}
+
+	protected static void purgeRedoStack() {
+		if (!taskRedoStack.isEmpty()) {
+			appendRecord(OP_PURGE_REDO, null);
+		}
+		taskRedoStack.clear();
+		SnapshotHistory.purgeRedo();
+	}
+
+	/**
+	 * Buffers a record for undo.log. Each record is an operation, the lines of
+	 * its delta if it has one, and a delimiter, so a record cut short by a
+	 * crash is recognised and skipped on load.
+	 */
+	private static void appendRecord(String op, UndoDelta delta) {
+		synchronized (logLock) {
+			pendingRecords.add(op);
+			if (delta != null) {
+				pendingRecords.addAll(delta.toLines());
+			}
+			pendingRecords.add(DELIMITER);
+		}
+		WriteBehindPersister.markDirty(FILE_UNDO_LOG, FLUSH_UNDO_LOG);
+	}
+
+	/**
+	 * Appends every buffered record to the log in a single write, and rewrites
+	 * the log as the current history once it holds more than twice as many
+	 * records as the history has steps
+	 */
+	private static void flushPendingRecords() {
+		synchronized (logLock) {
+			if (pendingRecords.isEmpty()) {
+				return;
+			}
+
+			// After a failed write the log may end in a torn record, so it is
+			// rewritten from the stacks, which already hold the buffered records
+			if (!rewriteLog && FileManager.appendToFile(FILE_UNDO_LOG, pendingRecords)) {
+				recordsInLog += countRecords(pendingRecords);
+			} else {
+				rewriteLog = true;
+			}
+			pendingRecords = new ArrayList<String>();
+
+			int steps = getUndoStack().size() + taskRedoStack.size();
+			if (rewriteLog || recordsInLog > Math.max(MINIMUM_LOG_RECORDS, 2 * steps)) {
+				compactLog(getUndoStack(), taskRedoStack);
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the log to hold only the entries of the given stacks, oldest first
+	 * @return true if the log was rewritten
+	 */
+	private static boolean compactLog(UndoStack undoStack, UndoStack redoStack) {
+		ArrayList<String> saveList = new ArrayList<String>();
+		undoStack.appendEntries(saveList, OP_UNDO_ENTRY, DELIMITER);
+		redoStack.appendEntries(saveList, OP_REDO_ENTRY, DELIMITER);
+
+		rewriteLog = !FileManager.writeToFile(FILE_UNDO_LOG, saveList);
+		if (!rewriteLog) {
+			recordsInLog = countRecords(saveList);
+		}
+		return !rewriteLog;
+	}
+
+	private static int countRecords(ArrayList<String> lines) {
+		int count = 0;
+		for (int i = 0; i < lines.size(); i++) {
+			if (lines.get(i).equals(DELIMITER)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Replays undo.log into an undo stack. The redo history is only kept for
+	 * the session, so redo entries are replayed but not returned. A record cut
+	 * short at the end of the log is dropped by rewriting the log. An undo.txt
+	 * left by an older version is read once and turned into a log.
+	 */
+	private static UndoStack loadUndoStack() {
+		if (!FileManager.fileExists(FILE_UNDO_LOG) && FileManager.fileExists(FILE_UNDO)) {
+			UndoStack undoStack = toUndoStack(loadSavedUndoStack());
+			boolean converted;
+			synchronized (logLock) {
+				converted = compactLog(undoStack, taskRedoStack);
+			}
+			if (converted) {
+				FileManager.deleteFile(FILE_UNDO);
+			}
+			return undoStack;
+		}
+
+		ArrayDeque<UndoDelta> undoStack = new ArrayDeque<UndoDelta>();
+		ArrayDeque<UndoDelta> redoStack = new ArrayDeque<UndoDelta>();
+
+		ArrayList<String> list = FileManager.readFromFile(FILE_UNDO_LOG);
+		ArrayList<String> record = new ArrayList<String>();
+		int records = 0;
+
+		for (int i = 0; i < list.size(); i++) {
+			if (!list.get(i).equals(DELIMITER)) {
+				record.add(list.get(i));
+				continue;
+			}
+
+			if (!record.isEmpty()) {
+				replayRecord(record, undoStack, redoStack);
+			}
+			record.clear();
+			records++;
+		}
+
+		UndoStack loaded = toUndoStack(undoStack);
+		synchronized (logLock) {
+			if (!record.isEmpty() || !FileManager.endsWithNewline(FILE_UNDO_LOG)) {
+				// The next record would be appended onto the torn one, so drop it first
+				compactLog(loaded, taskRedoStack);
+			} else {
+				recordsInLog = records;
+			}
+		}
+		return loaded;
+	}
+
+	private static UndoStack toUndoStack(ArrayDeque<UndoDelta> deltas) {
+		UndoStack undoStack = newUndoStack();
+		for (UndoDelta delta : deltas) {
+			undoStack.add(delta);
+		}
+		return undoStack;
+	}
+
+	private static void replayRecord(ArrayList<String> record, ArrayDeque<UndoDelta> undoStack, ArrayDeque<UndoDelta> redoStack) {
+		String op = record.get(0);
+		UndoDelta delta = new UndoDelta();
+		for (int i = 1; i < record.size(); i++) {
+			delta.addLine(record.get(i));
+		}
+
+		if (op.equals(OP_PUSH) || op.equals(OP_UNDO_ENTRY)) {
+			undoStack.add(delta);
+		} else if (op.equals(OP_REDO_ENTRY)) {
+			redoStack.add(delta);
+		} else if (op.equals(OP_UNDO) && !undoStack.isEmpty()) {
+			UndoDelta undone = undoStack.pollLast();
+			undone.invert();
+			redoStack.add(undone);
+		} else if (op.equals(OP_REDO) && !redoStack.isEmpty()) {
+			UndoDelta redone = redoStack.pollLast();
+			redone.invert();
+			undoStack.add(redone);
+		} else if (op.equals(OP_PURGE_REDO)) {
+			redoStack.clear();
+		} else if (op.equals(OP_CLEAR)) {
+			undoStack.clear();
+			redoStack.clear();
+		}
+	}
+
+	/**
+	 * Reads the undo stack saved to undo.txt by older versions, where each
+	 * entry is the whole task list as it was before a command, oldest first.
+	 * Each entry is turned into the delta from it to the entry after it, and
+	 * the newest into the delta from it to the task list as loaded. Entries
+	 * that differ from the list after them in nothing are dropped.
+	 */
+	private static ArrayDeque<UndoDelta> loadSavedUndoStack() {
+		ArrayList<String> list = FileManager.readFromFile(FILE_UNDO);
+		ArrayList<ArrayList<Task>> snapshots = new ArrayList<ArrayList<Task>>();
+		ArrayList<Task> snapshot = new ArrayList<Task>();
+
+		for (int i = 0; i < list.size(); i++) {
+			if (list.get(i).equals(DELIMITER)) {
+				snapshots.add(snapshot);
+				snapshot = new ArrayList<Task>();
+				continue;
+			}
+
+			try {
+				snapshot.add(Task.parseTaskFromString(list.get(i)));
+			} catch (IllegalArgumentException e) {
+				LOGGER.info("Skipping malformed task in " + FILE_UNDO + " " + list.get(i));
+			}
+		}
+
+		ArrayDeque<UndoDelta> undoStack = new ArrayDeque<UndoDelta>();
+		for (int i = 0; i < snapshots.size(); i++) {
+			List<Task> after = (i + 1 < snapshots.size()) ? snapshots.get(i + 1) : Task.getList();
+			UndoDelta delta = diff(snapshots.get(i), after);
+			if (delta != null) {
+				undoStack.add(delta);
+			}
+		}
+
+		LOGGER.info("Converted " + undoStack.size() + " of " + snapshots.size() + " undo steps from " + FILE_UNDO);
+		return undoStack;
+	}
+
+	/**
+	 * Matches the tasks on their string form without the ID, since the
+	 * tasks in undo.txt have none
+	 * @param before
+	 * @param after
+	 * @return the delta of a command that turned before into after, or null if they hold the same tasks
+	 */
+	private static UndoDelta diff(List<Task> before, List<Task> after) {
+		HashMap<String, Integer> unmatched = new HashMap<String, Integer>();
+		for (int i = 0; i < before.size(); i++) {
+			String key = before.get(i).toContentString();
+			Integer count = unmatched.get(key);
+			unmatched.put(key, (count == null) ? 1 : count + 1);
+		}
+
+		UndoDelta delta = new UndoDelta();
+		boolean changed = false;
+		for (int i = 0; i < after.size(); i++) {
+			String key = after.get(i).toContentString();
+			Integer count = unmatched.get(key);
+			if (count == null) {
+				delta.addInserted(after.get(i));
+				changed = true;
+			} else if (count == 1) {
+				unmatched.remove(key);
+			} else {
+				unmatched.put(key, count - 1);
+			}
+		}
+
+		for (int i = 0; i < before.size(); i++) {
+			String key = before.get(i).toContentString();
+			Integer count = unmatched.get(key);
+			if (count == null) {
+				continue;
+			}
+			delta.addRemoved(before.get(i));
+			changed = true;
+			if (count == 1) {
+				unmatched.remove(key);
+			} else {
+				unmatched.put(key, count - 1);
+			}
+		}
+
+		return changed ? delta : null;
+	}
+}
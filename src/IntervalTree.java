@@ -0,0 +1,234 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Random;
+
+/**
+ * The times taken up by timed tasks, those with both a start and a later
+ * end. Each task is the interval [start, end) in epoch milliseconds, held in
+ * a treap ordered by start where every node also keeps the latest end below
+ * it. A search skips any subtree that ends before the range asked for or
+ * starts after it, so finding the k intervals overlapping a range costs
+ * O(log n + k), and adding or removing an interval O(log n).
+ *
+ * The tree keeps the interval a task had when it was added, so a task
+ * whose times change must be removed and added again.
+ */
+class IntervalTree {
+	private static final Random priorities = new Random();
+
+	private Node root = null;
+	private final IdentityHashMap<Task, Node> nodes = new IdentityHashMap<Task, Node>();
+
+	private static class Node {
+		private final Task task;
+		private final long start;
+		private final long end;
+		private final int priority = priorities.nextInt();
+		private Node left;
+		private Node right;
+		private long maxEnd;
+
+		private Node(Task task, long start, long end) {
+			this.task = task;
+			this.start = start;
+			this.end = end;
+			this.maxEnd = end;
+		}
+	}
+
+	/**
+	 * Adds the task if it is timed and not in the tree yet
+	 * @param task
+	 */
+	protected void add(Task task) {
+		if (!isTimed(task) || nodes.containsKey(task)) {
+			return;
+		}
+
+		Node node = new Node(task, task.getStartDateTime().getMillis(), task.getEndDateTime().getMillis());
+		nodes.put(task, node);
+		root = insert(root, node);
+	}
+
+	protected void remove(Task task) {
+		Node node = nodes.remove(task);
+		if (node != null) {
+			root = delete(root, node);
+		}
+	}
+
+	protected void clear() {
+		nodes.clear();
+		root = null;
+	}
+
+	protected int size() {
+		return nodes.size();
+	}
+
+	/**
+	 * @param task
+	 * @return true if the task has a start and an end after it
+	 */
+	protected static boolean isTimed(Task task) {
+		return task.getStartDateTime() != null && task.getEndDateTime() != null
+				&& task.getEndDateTime().isAfter(task.getStartDateTime());
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return the tasks whose intervals overlap [from, to), in order of start
+	 */
+	protected ArrayList<Task> getOverlapping(long from, long to) {
+		ArrayList<Node> found = new ArrayList<Node>();
+		collect(root, from, to, found);
+
+		ArrayList<Task> tasks = new ArrayList<Task>(found.size());
+		for (int i = 0; i < found.size(); i++) {
+			tasks.add(found.get(i).task);
+		}
+		return tasks;
+	}
+
+	/**
+	 * Finds the first stretch of at least the given length within [from, to)
+	 * that no interval overlaps
+	 * @param from
+	 * @param to
+	 * @param length
+	 * @return the start and end of the whole free stretch, or null if there is none
+	 */
+	protected long[] findFreeSlot(long from, long to, long length) {
+		ArrayList<Node> busy = new ArrayList<Node>();
+		collect(root, from, to, busy);
+
+		long free = from;
+		for (int i = 0; i < busy.size(); i++) {
+			Node node = busy.get(i);
+			if (node.start - free >= length) {
+				return new long[] {free, node.start};
+			}
+			free = Math.max(free, node.end);
+		}
+
+		if (to - free >= length) {
+			return new long[] {free, to};
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the nodes below the given one that overlap [from, to) in order of start
+	 */
+	private static void collect(Node node, long from, long to, ArrayList<Node> found) {
+		if (node == null || node.maxEnd <= from) {
+			return;
+		}
+
+		collect(node.left, from, to, found);
+		if (node.start >= to) {
+			return;
+		}
+		if (node.end > from) {
+			found.add(node);
+		}
+		collect(node.right, from, to, found);
+	}
+
+	private static Node insert(Node subtree, Node node) {
+		if (subtree == null) {
+			return node;
+		}
+
+		if (isBefore(node, subtree)) {
+			subtree.left = insert(subtree.left, node);
+			if (subtree.left.priority > subtree.priority) {
+				return rotateRight(subtree);
+			}
+		} else {
+			subtree.right = insert(subtree.right, node);
+			if (subtree.right.priority > subtree.priority) {
+				return rotateLeft(subtree);
+			}
+		}
+		update(subtree);
+		return subtree;
+	}
+
+	private static Node delete(Node subtree, Node node) {
+		if (subtree == null) {
+			return null;
+		} else if (subtree == node) {
+			return merge(node.left, node.right);
+		}
+
+		if (isBefore(node, subtree)) {
+			subtree.left = delete(subtree.left, node);
+		} else {
+			subtree.right = delete(subtree.right, node);
+		}
+		update(subtree);
+		return subtree;
+	}
+
+	/**
+	 * Joins two subtrees where every node of the first comes before every node of the second
+	 */
+	private static Node merge(Node first, Node second) {
+		if (first == null) {
+			return second;
+		} else if (second == null) {
+			return first;
+		}
+
+		if (first.priority > second.priority) {
+			first.right = merge(first.right, second);
+			update(first);
+			return first;
+		} else {
+			second.left = merge(first, second.left);
+			update(second);
+			return second;
+		}
+	}
+
+	private static Node rotateRight(Node node) {
+		Node left = node.left;
+		node.left = left.right;
+		left.right = node;
+		update(node);
+		update(left);
+		return left;
+	}
+
+	private static Node rotateLeft(Node node) {
+		Node right = node.right;
+		node.right = right.left;
+		right.left = node;
+		update(node);
+		update(right);
+		return right;
+	}
+
+	private static void update(Node node) {
+		long maxEnd = node.end;
+		if (node.left != null) {
+			maxEnd = Math.max(maxEnd, node.left.maxEnd);
+		}
+		if (node.right != null) {
+			maxEnd = Math.max(maxEnd, node.right.maxEnd);
+		}
+		node.maxEnd = maxEnd;
+	}
+
+	/**
+	 * Orders nodes by start, and nodes with the same start by task handle
+	 */
+	private static boolean isBefore(Node a, Node b) {
+		if (a.start != b.start) {
+			return a.start < b.start;
+		}
+		return a.task.getHandle() < b.task.getHandle();
+	}
+}
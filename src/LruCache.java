@@ -0,0 +1,136 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded map that drops the least recently used entry once it is full.
+ * An entry may also be given a time after which it is stale; a stale entry
+ * is dropped the next time it is looked up and the lookup counts as a miss.
+ * Every method is synchronized so that the cache can be shared by threads.
+ */
+class LruCache<K, V> {
+	protected static final long NEVER = Long.MAX_VALUE;
+
+	private final LinkedHashMap<K, CachedValue<V>> entries;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long expirations = 0;
+
+	private static class CachedValue<V> {
+		private final V value;
+		private final long expiry;
+
+		private CachedValue(V value, long expiry) {
+			this.value = value;
+			this.expiry = expiry;
+		}
+	}
+
+	/**
+	 * The counts of a cache at one moment
+	 */
+	protected static class Statistics {
+		private final long hits;
+		private final long misses;
+		private final long evictions;
+		private final long expirations;
+		private final int size;
+
+		private Statistics(long hits, long misses, long evictions, long expirations, int size) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.expirations = expirations;
+			this.size = size;
+		}
+
+		protected long getHits() {
+			return hits;
+		}
+
+		protected long getMisses() {
+			return misses;
+		}
+
+		protected long getEvictions() {
+			return evictions;
+		}
+
+		protected long getExpirations() {
+			return expirations;
+		}
+
+		protected int getSize() {
+			return size;
+		}
+
+		/**
+		 * @return the fraction of lookups that were hits, or 0 if there were none
+		 */
+		protected double getHitRate() {
+			long lookups = hits + misses;
+			return (lookups == 0) ? 0 : (double) hits / lookups;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d hits, %d misses (%.1f%% hit rate), %d evicted, %d expired, %d cached",
+					hits, misses, getHitRate() * 100, evictions, expirations, size);
+		}
+	}
+
+	/**
+	 * @param capacity the most entries the cache holds
+	 */
+	protected LruCache(final int capacity) {
+		entries = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+				if (size() > capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param key
+	 * @param now the current time in milliseconds
+	 * @return the value cached for the key, or null if there is none or it has gone stale
+	 */
+	protected synchronized V get(K key, long now) {
+		CachedValue<V> entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		} else if (now >= entry.expiry) {
+			entries.remove(key);
+			expirations++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @param expiry the time in milliseconds from which the value is stale, or NEVER
+	 */
+	protected synchronized void put(K key, V value, long expiry) {
+		entries.put(key, new CachedValue<V>(value, expiry));
+	}
+
+	protected synchronized void clear() {
+		entries.clear();
+	}
+
+	protected synchronized Statistics getStatistics() {
+		return new Statistics(hits, misses, evictions, expirations, entries.size());
+	}
+}
@@ -1,198 +1,291 @@
-public class MainLogic{
-	private static final String MESSAGE_EXIT = "exit";
-	private static final String MESSAGE_INVALID = "Invalid command! Please try again.\n";
-	
-	private static final String DEFAULT_ADD = "add";
-	private static final String DEFAULT_UPDATE = "update";
-	private static final String DEFAULT_DELETE = "delete";
-	private static final String DEFAULT_LIST = "list";
-	private static final String DEFAULT_UNDO = "undo";
-	private static final String DEFAULT_REDO = "redo";
-	private static final String DEFAULT_CUSTOM = "custom";
-	private static final String DEFAULT_DELETE_CUSTOM = "dcustom";
-	private static final String DEFAULT_MARK = "mark";
-	private static final String DEFAULT_HELP = "help";
-	private static final String DEFAULT_SEARCH = "search";
-	private static final String DEFAULT_EXIT = "exit";
-	
-	private enum CommandType {
-		ADD, DELETE, UPDATE, LIST, UNDO, REDO, SEARCH, CUSTOM, DELETE_CUSTOM, MARK, HELP, EXIT, INVALID;
-	}	
-
-	/**
-	 * Get the CommandType from the user input
-	 * @param com
-	 * @return a CommandType enum indicating the command type
-	 */
-	private static CommandType getCommandType(String com) {
-		
-		if (com.equalsIgnoreCase(DEFAULT_ADD) || CustomCommandHandler.isCustomCommand(com, CustomCommandHandler.HEADER_ADD)) {
-			return CommandType.ADD;
-		} else if (com.equalsIgnoreCase(DEFAULT_LIST) || CustomCommandHandler.isCustomCommand(com, CustomCommandHandler.HEADER_READ)) {
-			return CommandType.LIST;
-		} else if (com.equalsIgnoreCase(DEFAULT_UPDATE) || CustomCommandHandler.isCustomCommand(com, CustomCommandHandler.HEADER_UPDATE)) {
-			return CommandType.UPDATE;
-		} else if (com.equalsIgnoreCase(DEFAULT_DELETE) || CustomCommandHandler.isCustomCommand(com, CustomCommandHandler.HEADER_DELETE)) {
-			return CommandType.DELETE;
-		} else if (com.equalsIgnoreCase(DEFAULT_UNDO) || CustomCommandHandler.isCustomCommand(com, CustomCommandHandler.HEADER_UNDO)) {
-			return CommandType.UNDO;
-		} else if (com.equalsIgnoreCase(DEFAULT_REDO) || CustomCommandHandler.isCustomCommand(com, CustomCommandHandler.HEADER_REDO)) {
-			return CommandType.REDO;
-		} else if (com.equalsIgnoreCase(DEFAULT_CUSTOM) || CustomCommandHandler.isCustomCommand(com, CustomCommandHandler.HEADER_CUSTOM)) {
-			return CommandType.CUSTOM;
-		} else if (com.equalsIgnoreCase(DEFAULT_DELETE_CUSTOM) || CustomCommandHandler.isCustomCommand(com, CustomCommandHandler.HEADER_DELETE_CUSTOM)) {
-			return CommandType.DELETE_CUSTOM;
-		} else if (com.equalsIgnoreCase(DEFAULT_HELP) || CustomCommandHandler.isCustomCommand(com, CustomCommandHandler.HEADER_HELP)) {
-			return CommandType.HELP;
-		} else if (com.equalsIgnoreCase(DEFAULT_EXIT) || CustomCommandHandler.isCustomCommand(com, CustomCommandHandler.HEADER_EXIT)) {
-			return CommandType.EXIT;
-		} else if (com.equalsIgnoreCase(DEFAULT_SEARCH) || CustomCommandHandler.isCustomCommand(com, CustomCommandHandler.HEADER_SEARCH)) {
-			return CommandType.SEARCH;
-		} else if (com.equalsIgnoreCase(DEFAULT_MARK) || CustomCommandHandler.isCustomCommand(com, CustomCommandHandler.HEADER_MARK)) {
-			return CommandType.MARK;
-		} else {
-			return CommandType.INVALID;
-		}
-	} 
-
-	/**
-	 * Takes in the user input and executes the relevant methods in the TaskHandler/CustomCommandHandler/HistoryHandler
-	 * @param userInput
-	 * @return a Feedback object containing a String to be shown to the user
-	 */
-	protected static Feedback runLogic(String userInput) {
-		String command = CommandParser.getUserCommandType(userInput);
-		String commandDesc = CommandParser.getUserCommandDesc(userInput);
-		
-		CommandType commandType = getCommandType(command);
-		
-		switch (commandType) {
-			case ADD:
-				return TaskHandler.addTask(commandDesc);
-				
-			case LIST:
-				return TaskHandler.listTasks(commandDesc);
-				
-			case UPDATE:
-				return TaskHandler.updateTask(commandDesc);	
-				
-			case DELETE:
-				return TaskHandler.deleteTask(commandDesc);
-			
-			case HELP:
-				//System.out.println("Help");
-				//
-				
-			case CUSTOM:
-				if (!CommandParser.isInputValid(commandDesc, 2)) {
-					return new Feedback("Invalid custom command format");
-				}
-				
-				String type = getCustomHeader(commandDesc);
-				
-				if (type == null) {
-					return new Feedback("Invalid custom command format");
-				}
-				String customToBeAdded = CommandParser.getUserCommandDesc(commandDesc);
-				return CustomCommandHandler.addCustomCommand(customToBeAdded, type);
-				
-			case DELETE_CUSTOM:	
-				return CustomCommandHandler.deleteCustomCommand(commandDesc);
-				
-			case UNDO:
-				return HistoryHandler.undoCommand();
-			
-			case REDO:
-				return HistoryHandler.redoCommand();
-				
-			case SEARCH:
-				//System.out.println("Search");
-				//
-			
-			case MARK:
-				return TaskHandler.markTask(commandDesc);
-				
-			case EXIT:
-				return new Feedback(MESSAGE_EXIT, true);
-				
-			default:
-				return new Feedback(MESSAGE_INVALID);
-		}
-	}
-	
-	/**
-	 * Get the header for the custom command from the user input
-	 * @param userInput
-	 * @return a string containing the custom command header
-	 */
-	private static String getCustomHeader(String userInput) {
-		String command = CommandParser.getUserCommandType(userInput);
-		
-		CommandType commandType = getCommandType(command);
-		
-		switch (commandType) {
-			case ADD:
-				return CustomCommandHandler.HEADER_ADD;
-				
-			case LIST:
-				return CustomCommandHandler.HEADER_READ;
-				
-			case UPDATE:
-				return CustomCommandHandler.HEADER_UPDATE;
-				
-			case DELETE:
-				return CustomCommandHandler.HEADER_DELETE;
-			
-			case HELP:
-				return CustomCommandHandler.HEADER_HELP;
-				
-			case CUSTOM:
-				return CustomCommandHandler.HEADER_CUSTOM;
-				
-			case DELETE_CUSTOM:	
-				return CustomCommandHandler.HEADER_DELETE_CUSTOM;
-				
-			case UNDO:
-				return CustomCommandHandler.HEADER_UNDO;
-				
-			case SEARCH:
-				return CustomCommandHandler.HEADER_SEARCH;
-			
-			case MARK:
-				return CustomCommandHandler.HEADER_MARK;
-				
-			case EXIT:
-				return CustomCommandHandler.HEADER_EXIT;
-				
-			default:
-				return null;
-		}
-	}
-	
-	protected static boolean isDefaultCommand(String s) {
-		String[] defaultCommandList = {
-				DEFAULT_ADD,
-				DEFAULT_UPDATE,
-				DEFAULT_DELETE,
-				DEFAULT_LIST,
-				DEFAULT_UNDO,
-				DEFAULT_REDO,
-				DEFAULT_CUSTOM,
-				DEFAULT_DELETE_CUSTOM,  
-				DEFAULT_SEARCH,
-				DEFAULT_MARK,
-				DEFAULT_HELP, 
-				DEFAULT_EXIT
-		};
-		
-		for (int i = 0; i < defaultCommandList.length; i++) {
-			if (s.equals(defaultCommandList[i])) {
-				return true;
-			}
-		}
-		
-		return false;
-	}
-}
-
-
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+public class MainLogic{
+	private static final String MESSAGE_EXIT = "exit";
+	private static final String MESSAGE_INVALID = "Invalid command! Please try again.\n";
+	private static final String MESSAGE_TASKS_UNAVAILABLE = "Your tasks could not be loaded, so nothing will be changed or saved. Please check the task files and try again.\n";
+	
+	private static final String DEFAULT_ADD = "add";
+	private static final String DEFAULT_UPDATE = "update";
+	private static final String DEFAULT_DELETE = "delete";
+	private static final String DEFAULT_LIST = "list";
+	private static final String DEFAULT_UNDO = "undo";
+	private static final String DEFAULT_REDO = "redo";
+	private static final String DEFAULT_CUSTOM = "custom";
+	private static final String DEFAULT_DELETE_CUSTOM = "dcustom";
+	private static final String DEFAULT_MARK = "mark";
+	private static final String DEFAULT_HELP = "help";
+	private static final String DEFAULT_SEARCH = "search";
+	private static final String DEFAULT_FREE = "free";
+	private static final String DEFAULT_EXIT = "exit";
+	
+	private enum CommandType {
+		ADD, DELETE, UPDATE, LIST, UNDO, REDO, SEARCH, FREE, CUSTOM, DELETE_CUSTOM, MARK, HELP, EXIT, INVALID;
+	}	
+
+	// The custom command headers, in the order a keyword under two of them is resolved
+	private static final String[] CUSTOM_HEADERS = {
+		CustomCommandHandler.HEADER_ADD, CustomCommandHandler.HEADER_READ, CustomCommandHandler.HEADER_UPDATE,
+		CustomCommandHandler.HEADER_DELETE, CustomCommandHandler.HEADER_UNDO, CustomCommandHandler.HEADER_REDO,
+		CustomCommandHandler.HEADER_CUSTOM, CustomCommandHandler.HEADER_DELETE_CUSTOM, CustomCommandHandler.HEADER_HELP,
+		CustomCommandHandler.HEADER_EXIT, CustomCommandHandler.HEADER_SEARCH, CustomCommandHandler.HEADER_MARK,
+		CustomCommandHandler.HEADER_FREE
+	};
+	private static final CommandType[] CUSTOM_TYPES = {
+		CommandType.ADD, CommandType.LIST, CommandType.UPDATE,
+		CommandType.DELETE, CommandType.UNDO, CommandType.REDO,
+		CommandType.CUSTOM, CommandType.DELETE_CUSTOM, CommandType.HELP,
+		CommandType.EXIT, CommandType.SEARCH, CommandType.MARK,
+		CommandType.FREE
+	};
+	
+	private static final HashMap<String, CommandType> DEFAULT_COMMANDS = createDefaultCommands();
+	
+	// Every keyword, default or custom, in lower case. It is replaced whole, never changed.
+	private static volatile HashMap<String, CommandType> commandTypes = null;
+
+	/**
+	 * Get the CommandType from the user input. The default keywords are checked
+	 * first so that they never have to wait for the custom commands to load.
+	 * @param com
+	 * @return a CommandType enum indicating the command type
+	 */
+	private static CommandType getCommandType(String com) {
+		String keyword = com.toLowerCase(Locale.ENGLISH);
+		HashMap<String, CommandType> commands = commandTypes;
+		
+		if (commands == null) {
+			CommandType defaultType = DEFAULT_COMMANDS.get(keyword);
+			if (defaultType != null) {
+				return defaultType;
+			}
+			commands = getCommandTypes();
+		}
+		
+		CommandType commandType = commands.get(keyword);
+		if (commandType == null) {
+			return CommandType.INVALID;
+		}
+		return commandType;
+	} 
+	
+	private static HashMap<String, CommandType> createDefaultCommands() {
+		HashMap<String, CommandType> commands = new HashMap<String, CommandType>();
+		commands.put(DEFAULT_ADD, CommandType.ADD);
+		commands.put(DEFAULT_LIST, CommandType.LIST);
+		commands.put(DEFAULT_UPDATE, CommandType.UPDATE);
+		commands.put(DEFAULT_DELETE, CommandType.DELETE);
+		commands.put(DEFAULT_UNDO, CommandType.UNDO);
+		commands.put(DEFAULT_REDO, CommandType.REDO);
+		commands.put(DEFAULT_CUSTOM, CommandType.CUSTOM);
+		commands.put(DEFAULT_DELETE_CUSTOM, CommandType.DELETE_CUSTOM);
+		commands.put(DEFAULT_HELP, CommandType.HELP);
+		commands.put(DEFAULT_EXIT, CommandType.EXIT);
+		commands.put(DEFAULT_SEARCH, CommandType.SEARCH);
+		commands.put(DEFAULT_MARK, CommandType.MARK);
+		commands.put(DEFAULT_FREE, CommandType.FREE);
+		return commands;
+	}
+	
+	private static HashMap<String, CommandType> getCommandTypes() {
+		HashMap<String, CommandType> commands = commandTypes;
+		if (commands == null) {
+			rebuildCommandTypes();
+			commands = commandTypes;
+		}
+		return commands;
+	}
+	
+	/**
+	 * Builds the table of keywords from the defaults and the custom commands,
+	 * then swaps it in whole so that a lookup never sees it half built.
+	 * Called whenever a custom command is added or deleted.
+	 */
+	protected static synchronized void rebuildCommandTypes() {
+		HashMap<String, CommandType> commands = new HashMap<String, CommandType>(DEFAULT_COMMANDS);
+		ArrayList<ArrayList<String>> customCommands = CustomCommandHandler.getCustomCommandList();
+		
+		for (int i = 0; i < CUSTOM_HEADERS.length; i++) {
+			ArrayList<String> keywords = getCustomKeywords(customCommands, CUSTOM_HEADERS[i]);
+			for (int j = 1; j < keywords.size(); j++) {
+				String keyword = keywords.get(j).toLowerCase(Locale.ENGLISH);
+				if (!keyword.isEmpty() && !commands.containsKey(keyword)) {
+					commands.put(keyword, CUSTOM_TYPES[i]);
+				}
+			}
+		}
+		
+		commandTypes = commands;
+	}
+	
+	/**
+	 * @return the first entry of custom commands with the header, or an empty list if there is none
+	 */
+	private static ArrayList<String> getCustomKeywords(ArrayList<ArrayList<String>> customCommands, String header) {
+		for (int i = 0; i < customCommands.size(); i++) {
+			if (customCommands.get(i).get(0).equals(header)) {
+				return customCommands.get(i);
+			}
+		}
+		return new ArrayList<String>();
+	}
+
+	/**
+	 * Takes in the user input and executes the relevant methods in the TaskHandler/CustomCommandHandler/HistoryHandler
+	 * @param userInput
+	 * @return a Feedback object containing a String to be shown to the user
+	 */
+	protected static Feedback runLogic(String userInput) {
+		synchronized (WriteBehindPersister.STORE_LOCK) {
+			return executeCommand(userInput);
+		}
+	}
+	
+	private static Feedback executeCommand(String userInput) {
+		CommandTokens tokens = CommandParser.tokenize(userInput);
+		String command = CommandParser.getUserCommandType(tokens);
+		String commandDesc = CommandParser.getUserCommandDesc(tokens);
+		
+		CommandType commandType = getCommandType(command);
+		
+		if (isTaskCommand(commandType) && !Task.retryLoad()) {
+			return new Feedback(MESSAGE_TASKS_UNAVAILABLE);
+		}
+		
+		switch (commandType) {
+			case ADD:
+				return TaskHandler.addTask(commandDesc);
+				
+			case LIST:
+				return TaskHandler.listTasks(commandDesc);
+				
+			case UPDATE:
+				return TaskHandler.updateTask(commandDesc);	
+				
+			case DELETE:
+				return TaskHandler.deleteTask(tokens);
+			
+			case HELP:
+				//System.out.println("Help");
+				//
+				
+			case CUSTOM:
+				if (!CommandParser.isInputValid(commandDesc, 2)) {
+					return new Feedback("Invalid custom command format");
+				}
+				
+				String type = getCustomHeader(commandDesc);
+				
+				if (type == null) {
+					return new Feedback("Invalid custom command format");
+				}
+				String customToBeAdded = CommandParser.getUserCommandDesc(commandDesc);
+				return CustomCommandHandler.addCustomCommand(customToBeAdded, type);
+				
+			case DELETE_CUSTOM:	
+				return CustomCommandHandler.deleteCustomCommand(commandDesc);
+				
+			case UNDO:
+				return HistoryHandler.undoCommand();
+			
+			case REDO:
+				return HistoryHandler.redoCommand();
+				
+			case SEARCH:
+				return TaskHandler.searchTasks(commandDesc);
+			
+			case MARK:
+				return TaskHandler.markTask(tokens);
+				
+			case FREE:
+				return TaskHandler.findFreeTime(commandDesc);
+				
+			case EXIT:
+				WriteBehindPersister.flush();
+				return new Feedback(MESSAGE_EXIT, true);
+				
+			default:
+				return new Feedback(MESSAGE_INVALID);
+		}
+	}
+	
+	/**
+	 * @param commandType
+	 * @return true if the command reads or changes the task list
+	 */
+	private static boolean isTaskCommand(CommandType commandType) {
+		switch (commandType) {
+			case ADD:
+			case LIST:
+			case UPDATE:
+			case DELETE:
+			case UNDO:
+			case REDO:
+			case SEARCH:
+			case MARK:
+			case FREE:
+				return true;
+				
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Get the header for the custom command from the user input
+	 * @param userInput
+	 * @return a string containing the custom command header
+	 */
+	private static String getCustomHeader(String userInput) {
+		String command = CommandParser.getUserCommandType(userInput);
+		
+		CommandType commandType = getCommandType(command);
+		
+		switch (commandType) {
+			case ADD:
+				return CustomCommandHandler.HEADER_ADD;
+				
+			case LIST:
+				return CustomCommandHandler.HEADER_READ;
+				
+			case UPDATE:
+				return CustomCommandHandler.HEADER_UPDATE;
+				
+			case DELETE:
+				return CustomCommandHandler.HEADER_DELETE;
+			
+			case HELP:
+				return CustomCommandHandler.HEADER_HELP;
+				
+			case CUSTOM:
+				return CustomCommandHandler.HEADER_CUSTOM;
+				
+			case DELETE_CUSTOM:	
+				return CustomCommandHandler.HEADER_DELETE_CUSTOM;
+				
+			case UNDO:
+				return CustomCommandHandler.HEADER_UNDO;
+				
+			case SEARCH:
+				return CustomCommandHandler.HEADER_SEARCH;
+			
+			case MARK:
+				return CustomCommandHandler.HEADER_MARK;
+				
+			case FREE:
+				return CustomCommandHandler.HEADER_FREE;
+				
+			case EXIT:
+				return CustomCommandHandler.HEADER_EXIT;
+				
+			default:
+				return null;
+		}
+	}
+	
+	protected static boolean isDefaultCommand(String s) {
+		return DEFAULT_COMMANDS.containsKey(s.toLowerCase(Locale.ENGLISH));
+	}
+}
@@ -0,0 +1,272 @@
+/**
+ * Immutable map from long keys to values, stored as a hash array mapped trie.
+ * Each level of the trie uses five bits of the key, so a lookup or update
+ * visits at most thirteen nodes, and only as many as it takes to tell the key
+ * apart from its neighbours. An update copies only the nodes on the path to
+ * the key and shares every other node with the old map, so keeping every old
+ * version costs memory in proportion to the changes between them.
+ *
+ * Two versions are compared by walking both tries together and skipping any
+ * subtree they share, so a diff costs time in proportion to the difference.
+ */
+class PersistentLongMap<V> {
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	private static final PersistentLongMap<Object> EMPTY = new PersistentLongMap<Object>(new Node(0, new Object[0]), 0);
+
+	private final Node root;
+	private final int size;
+
+	/**
+	 * Receives the differences found by diff
+	 */
+	protected interface DiffHandler<V> {
+		void removed(long key, V value);
+		void added(long key, V value);
+		void changed(long key, V from, V to);
+	}
+
+	private static class Leaf {
+		private final long key;
+		private final Object value;
+
+		private Leaf(long key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * A node holds a child for every bit set in its bitmap, in bit order.
+	 * A child is either a Leaf or another Node.
+	 */
+	private static class Node {
+		private final int bitmap;
+		private final Object[] children;
+
+		private Node(int bitmap, Object[] children) {
+			this.bitmap = bitmap;
+			this.children = children;
+		}
+
+		private int indexOf(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		private Object childAt(int bit) {
+			return ((bitmap & bit) == 0) ? null : children[indexOf(bit)];
+		}
+	}
+
+	private PersistentLongMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static <V> PersistentLongMap<V> empty() {
+		return (PersistentLongMap<V>) EMPTY;
+	}
+
+	protected int size() {
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected V get(long key) {
+		Node node = root;
+		for (int shift = 0; ; shift += BITS) {
+			Object child = node.childAt(bitFor(key, shift));
+			if (child == null) {
+				return null;
+			} else if (child instanceof Leaf) {
+				Leaf leaf = (Leaf) child;
+				return (leaf.key == key) ? (V) leaf.value : null;
+			}
+			node = (Node) child;
+		}
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @return a map with the key set to the value, sharing all other entries with this one
+	 */
+	protected PersistentLongMap<V> put(long key, V value) {
+		boolean[] added = new boolean[1];
+		Node newRoot = put(root, key, value, 0, added);
+		return new PersistentLongMap<V>(newRoot, added[0] ? size + 1 : size);
+	}
+
+	/**
+	 * @param key
+	 * @return a map without the key, sharing all other entries with this one
+	 */
+	protected PersistentLongMap<V> remove(long key) {
+		if (get(key) == null) {
+			return this;
+		}
+		Node newRoot = remove(root, key, 0);
+		return new PersistentLongMap<V>((newRoot == null) ? empty().root : newRoot, size - 1);
+	}
+
+	private static Node put(Node node, long key, Object value, int shift, boolean[] added) {
+		int bit = bitFor(key, shift);
+		int index = node.indexOf(bit);
+		Object child = node.childAt(bit);
+
+		if (child == null) {
+			added[0] = true;
+			Object[] children = new Object[node.children.length + 1];
+			System.arraycopy(node.children, 0, children, 0, index);
+			children[index] = new Leaf(key, value);
+			System.arraycopy(node.children, index, children, index + 1, node.children.length - index);
+			return new Node(node.bitmap | bit, children);
+		}
+
+		Object newChild;
+		if (child instanceof Leaf) {
+			Leaf leaf = (Leaf) child;
+			if (leaf.key == key) {
+				newChild = new Leaf(key, value);
+			} else {
+				added[0] = true;
+				Node split = put(new Node(0, new Object[0]), leaf.key, leaf.value, shift + BITS, new boolean[1]);
+				newChild = put(split, key, value, shift + BITS, new boolean[1]);
+			}
+		} else {
+			newChild = put((Node) child, key, value, shift + BITS, added);
+		}
+
+		Object[] children = node.children.clone();
+		children[index] = newChild;
+		return new Node(node.bitmap, children);
+	}
+
+	/**
+	 * @return the node without the key, or null if the node is left empty
+	 */
+	private static Node remove(Node node, long key, int shift) {
+		int bit = bitFor(key, shift);
+		int index = node.indexOf(bit);
+		Object child = node.childAt(bit);
+
+		Object newChild = null;
+		if (child instanceof Node) {
+			newChild = remove((Node) child, key, shift + BITS);
+		}
+
+		if (newChild != null) {
+			Object[] children = node.children.clone();
+			children[index] = newChild;
+			return new Node(node.bitmap, children);
+		}
+
+		if (node.children.length == 1) {
+			return null;
+		}
+		Object[] children = new Object[node.children.length - 1];
+		System.arraycopy(node.children, 0, children, 0, index);
+		System.arraycopy(node.children, index + 1, children, index, children.length - index);
+		return new Node(node.bitmap & ~bit, children);
+	}
+
+	/**
+	 * Reports every key that is only in this map as removed, every key only in
+	 * the other map as added, and every key whose value is a different object
+	 * as changed
+	 * @param other
+	 * @param handler
+	 */
+	protected void diff(PersistentLongMap<V> other, DiffHandler<V> handler) {
+		diffChildren(root, other.root, handler);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void diffChildren(Object from, Object to, DiffHandler<V> handler) {
+		if (from == to) {
+			return;
+		} else if (from == null) {
+			forEachLeaf(to, handler, false);
+		} else if (to == null) {
+			forEachLeaf(from, handler, true);
+		} else if (from instanceof Node && to instanceof Node) {
+			Node fromNode = (Node) from;
+			Node toNode = (Node) to;
+			int bits = fromNode.bitmap | toNode.bitmap;
+			while (bits != 0) {
+				int bit = Integer.lowestOneBit(bits);
+				diffChildren(fromNode.childAt(bit), toNode.childAt(bit), handler);
+				bits &= ~bit;
+			}
+		} else if (from instanceof Leaf && to instanceof Leaf && ((Leaf) from).key == ((Leaf) to).key) {
+			Leaf fromLeaf = (Leaf) from;
+			if (fromLeaf.value != ((Leaf) to).value) {
+				handler.changed(fromLeaf.key, (V) fromLeaf.value, (V) ((Leaf) to).value);
+			}
+		} else if (from instanceof Leaf) {
+			diffLeaf((Leaf) from, to, handler, true);
+		} else {
+			diffLeaf((Leaf) to, from, handler, false);
+		}
+	}
+
+	/**
+	 * Compares a single leaf against a subtree in the same position. The leaf
+	 * is the side the diff starts from if leafIsFrom is set.
+	 */
+	@SuppressWarnings("unchecked")
+	private void diffLeaf(final Leaf leaf, Object subtree, final DiffHandler<V> handler, final boolean leafIsFrom) {
+		final boolean[] found = new boolean[1];
+		forEachLeaf(subtree, new DiffHandler<V>() {
+			public void removed(long key, V value) {
+			}
+			public void added(long key, V value) {
+				if (key != leaf.key) {
+					report(handler, key, value, !leafIsFrom);
+					return;
+				}
+				found[0] = true;
+				if (value != leaf.value) {
+					if (leafIsFrom) {
+						handler.changed(key, (V) leaf.value, value);
+					} else {
+						handler.changed(key, value, (V) leaf.value);
+					}
+				}
+			}
+			public void changed(long key, V from, V to) {
+			}
+		}, false);
+
+		if (!found[0]) {
+			report(handler, leaf.key, (V) leaf.value, leafIsFrom);
+		}
+	}
+
+	private void report(DiffHandler<V> handler, long key, V value, boolean removed) {
+		if (removed) {
+			handler.removed(key, value);
+		} else {
+			handler.added(key, value);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void forEachLeaf(Object child, DiffHandler<V> handler, boolean removed) {
+		if (child instanceof Leaf) {
+			report(handler, ((Leaf) child).key, (V) ((Leaf) child).value, removed);
+			return;
+		}
+
+		Object[] children = ((Node) child).children;
+		for (int i = 0; i < children.length; i++) {
+			forEachLeaf(children[i], handler, removed);
+		}
+	}
+
+	private static int bitFor(long key, int shift) {
+		return 1 << (int) ((key >>> shift) & MASK);
+	}
+}
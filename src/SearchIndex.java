@@ -0,0 +1,403 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Inverted index from the words of task descriptions and aliases to the
+ * slots of the tasks using them. Words are lowercased runs of letters and
+ * digits. The words are kept sorted, so a prefix query such as "meet*" is a
+ * range of them, and the tasks for a word are a SlotBitmap, so a query of
+ * several words is the and of their bitmaps.
+ *
+ * Matches are ranked by tf-idf: every matching word of a task scores more
+ * the fewer tasks use it, and the sum is divided by the square root of the
+ * number of words in the task so short descriptions rank first.
+ *
+ * For misspelt queries every distinct word is also indexed by its
+ * trigrams. A fuzzy query looks up the words sharing enough trigrams with
+ * each query word, which depends on the number of distinct words rather
+ * than tasks, and only those are compared by edit distance. A word then
+ * matches with a similarity below 1 that scales its score.
+ */
+class SearchIndex {
+	private static final char PREFIX_MARK = '*';
+	private static final String WORD_START = "$$";
+	private static final String WORD_END = "$";
+	// an edit changes at most this many trigrams, counting a swap of two letters as one edit
+	private static final int TRIGRAMS_PER_EDIT = 4;
+
+	private final TreeMap<String, SlotBitmap> slotsByWord = new TreeMap<String, SlotBitmap>();
+	private final HashMap<String, HashSet<String>> wordsByTrigram = new HashMap<String, HashSet<String>>();
+	private String[][] wordsBySlot = new String[16][];
+	private int count = 0;
+
+	/**
+	 * The words of a query, each matched exactly or as a prefix, or for a
+	 * fuzzy query by the indexed words close to it
+	 */
+	protected static class Query {
+		private final String[] words;
+		private final boolean[] isPrefix;
+		// for each word, the indexed words close to it and their similarity from 0 to 1
+		private final ArrayList<HashMap<String, Double>> closeWords;
+
+		private Query(String[] words, boolean[] isPrefix, ArrayList<HashMap<String, Double>> closeWords) {
+			this.words = words;
+			this.isPrefix = isPrefix;
+			this.closeWords = closeWords;
+		}
+
+		protected boolean isEmpty() {
+			return words.length == 0;
+		}
+	}
+
+	/**
+	 * Indexes the description and alias of the task in the slot
+	 * @param slot
+	 * @param task
+	 */
+	protected void add(int slot, Task task) {
+		if (slot >= wordsBySlot.length) {
+			wordsBySlot = Arrays.copyOf(wordsBySlot, Math.max(slot + 1, wordsBySlot.length * 2));
+		}
+
+		String[] words = getWords(task.getDescription());
+		if (task.getAlias() != null) {
+			String[] aliasWords = getWords(task.getAlias());
+			words = Arrays.copyOf(words, words.length + aliasWords.length);
+			System.arraycopy(aliasWords, 0, words, words.length - aliasWords.length, aliasWords.length);
+		}
+
+		wordsBySlot[slot] = words;
+		count++;
+		for (int i = 0; i < words.length; i++) {
+			SlotBitmap slots = slotsByWord.get(words[i]);
+			if (slots == null) {
+				slots = new SlotBitmap();
+				slotsByWord.put(words[i], slots);
+				addTrigrams(words[i]);
+			}
+			slots.add(slot);
+		}
+	}
+
+	protected void remove(int slot) {
+		if (slot >= wordsBySlot.length || wordsBySlot[slot] == null) {
+			return;
+		}
+
+		String[] words = wordsBySlot[slot];
+		wordsBySlot[slot] = null;
+		count--;
+		for (int i = 0; i < words.length; i++) {
+			SlotBitmap slots = slotsByWord.get(words[i]);
+			if (slots != null && slots.remove(slot) && slots.isEmpty()) {
+				slotsByWord.remove(words[i]);
+				removeTrigrams(words[i]);
+			}
+		}
+	}
+
+	protected void clear() {
+		slotsByWord.clear();
+		wordsByTrigram.clear();
+		wordsBySlot = new String[16][];
+		count = 0;
+	}
+
+	/**
+	 * @param query words separated by spaces, where a word ending in * matches every word it starts
+	 * @return the parsed query
+	 */
+	protected static Query parse(String query) {
+		ArrayList<String> words = new ArrayList<String>();
+		ArrayList<Boolean> isPrefix = new ArrayList<Boolean>();
+
+		for (String part : query.trim().split("\\s+")) {
+			String[] partWords = getWords(part);
+			for (int i = 0; i < partWords.length; i++) {
+				words.add(partWords[i]);
+				isPrefix.add(i == partWords.length - 1 && part.charAt(part.length() - 1) == PREFIX_MARK);
+			}
+		}
+
+		boolean[] prefixes = new boolean[isPrefix.size()];
+		for (int i = 0; i < prefixes.length; i++) {
+			prefixes[i] = isPrefix.get(i);
+		}
+		return new Query(words.toArray(new String[words.size()]), prefixes, null);
+	}
+
+	/**
+	 * Finds the indexed words close to each word of the query that is not a
+	 * prefix. Words of up to two letters must match exactly, words of up to
+	 * five may be one edit away and longer words two.
+	 * @param query
+	 * @return a fuzzy query matching the close words
+	 */
+	protected Query fuzzy(Query query) {
+		ArrayList<HashMap<String, Double>> closeWords = new ArrayList<HashMap<String, Double>>();
+		for (int i = 0; i < query.words.length; i++) {
+			closeWords.add(query.isPrefix[i] ? new HashMap<String, Double>() : getCloseWords(query.words[i]));
+		}
+		return new Query(query.words, query.isPrefix, closeWords);
+	}
+
+	/**
+	 * @param query
+	 * @return the slots of the tasks matching every word of the query, which must not be changed
+	 */
+	protected SlotBitmap match(Query query) {
+		if (query.isEmpty()) {
+			return new SlotBitmap();
+		}
+
+		SlotBitmap matches = null;
+		for (int i = 0; i < query.words.length; i++) {
+			SlotBitmap wordMatches;
+			if (query.closeWords != null && !query.isPrefix[i]) {
+				wordMatches = getSlots(query.closeWords.get(i).keySet());
+			} else {
+				wordMatches = getSlots(query.words[i], query.isPrefix[i]);
+			}
+			matches = (matches == null) ? wordMatches : SlotBitmap.and(matches, wordMatches);
+			if (matches.isEmpty()) {
+				break;
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * @param slot a slot that matches the query
+	 * @param query
+	 * @param weights the weight of each word seen so far, shared between calls for the same query
+	 * @return the score of the task in the slot, higher for a better match
+	 */
+	protected double score(int slot, Query query, HashMap<String, Double> weights) {
+		String[] words = wordsBySlot[slot];
+		if (words == null || words.length == 0) {
+			return 0;
+		}
+
+		double score = 0;
+		for (int i = 0; i < words.length; i++) {
+			double similarity = getSimilarity(words[i], query);
+			if (similarity > 0) {
+				score += similarity * getWeight(words[i], weights);
+			}
+		}
+		return score / Math.sqrt(words.length);
+	}
+
+	/**
+	 * @param text
+	 * @return the lowercased runs of letters and digits in the text
+	 */
+	protected static String[] getWords(String text) {
+		ArrayList<String> words = new ArrayList<String>();
+		if (text == null) {
+			return new String[0];
+		}
+
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (inWord && start < 0) {
+				start = i;
+			} else if (!inWord && start >= 0) {
+				words.add(text.substring(start, i).toLowerCase(Locale.ENGLISH));
+				start = -1;
+			}
+		}
+		return words.toArray(new String[words.size()]);
+	}
+
+	private SlotBitmap getSlots(String word, boolean isPrefix) {
+		if (!isPrefix) {
+			SlotBitmap slots = slotsByWord.get(word);
+			return (slots == null) ? new SlotBitmap() : slots;
+		}
+
+		SlotBitmap slots = new SlotBitmap();
+		for (SlotBitmap wordSlots : slotsByWord.subMap(word, true, word + Character.MAX_VALUE, false).values()) {
+			for (int slot = wordSlots.nextSetBit(0); slot >= 0; slot = wordSlots.nextSetBit(slot + 1)) {
+				slots.add(slot);
+			}
+		}
+		return slots;
+	}
+
+	private SlotBitmap getSlots(Collection<String> words) {
+		SlotBitmap slots = new SlotBitmap();
+		for (String word : words) {
+			SlotBitmap wordSlots = slotsByWord.get(word);
+			if (wordSlots == null) {
+				continue;
+			}
+			for (int slot = wordSlots.nextSetBit(0); slot >= 0; slot = wordSlots.nextSetBit(slot + 1)) {
+				slots.add(slot);
+			}
+		}
+		return slots;
+	}
+
+	/**
+	 * @return how well the word matches the best matching word of the query, from 0 for not at all to 1
+	 */
+	private static double getSimilarity(String word, Query query) {
+		double best = 0;
+		for (int i = 0; i < query.words.length; i++) {
+			if (query.isPrefix[i]) {
+				if (word.startsWith(query.words[i])) {
+					return 1;
+				}
+			} else if (query.closeWords != null) {
+				Double similarity = query.closeWords.get(i).get(word);
+				if (similarity != null && similarity > best) {
+					best = similarity;
+				}
+			} else if (word.equals(query.words[i])) {
+				return 1;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Counts the trigrams each indexed word shares with the word, then
+	 * compares by edit distance only those sharing enough to be close. A
+	 * word too short to keep a trigram through its edits is compared with
+	 * every indexed word instead.
+	 * @return the close words and their similarity, 1 less the edits over the length of the longer word
+	 */
+	private HashMap<String, Double> getCloseWords(String word) {
+		HashMap<String, Double> closeWords = new HashMap<String, Double>();
+		int maxEdits = (word.length() <= 2) ? 0 : ((word.length() <= 5) ? 1 : 2);
+		if (maxEdits == 0) {
+			if (slotsByWord.containsKey(word)) {
+				closeWords.put(word, 1.0);
+			}
+			return closeWords;
+		}
+
+		HashSet<String> trigrams = getTrigrams(word);
+		int needed = trigrams.size() - TRIGRAMS_PER_EDIT * maxEdits;
+		HashMap<String, Integer> shared = new HashMap<String, Integer>();
+		if (needed < 1) {
+			for (String candidate : slotsByWord.keySet()) {
+				shared.put(candidate, 0);
+			}
+			needed = 0;
+		}
+
+		for (String trigram : trigrams) {
+			HashSet<String> candidates = wordsByTrigram.get(trigram);
+			if (candidates == null) {
+				continue;
+			}
+			for (String candidate : candidates) {
+				Integer count = shared.get(candidate);
+				shared.put(candidate, (count == null) ? 1 : count + 1);
+			}
+		}
+
+		for (Map.Entry<String, Integer> entry : shared.entrySet()) {
+			String candidate = entry.getKey();
+			if (entry.getValue() < needed || Math.abs(candidate.length() - word.length()) > maxEdits) {
+				continue;
+			}
+			int edits = getEditDistance(word, candidate, maxEdits);
+			if (edits <= maxEdits) {
+				closeWords.put(candidate, 1 - (double) edits / Math.max(word.length(), candidate.length()));
+			}
+		}
+		return closeWords;
+	}
+
+	/**
+	 * Counts the insertions, deletions, substitutions and swaps of two
+	 * neighbouring letters that turn one word into the other
+	 * @return the number of edits, or more than limit once it is sure to exceed it
+	 */
+	private static int getEditDistance(String a, String b, int limit) {
+		int[] twoBack = new int[b.length() + 1];
+		int[] previous = new int[b.length() + 1];
+		int[] current = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); j++) {
+			previous[j] = j;
+		}
+
+		for (int i = 1; i <= a.length(); i++) {
+			current[0] = i;
+			int rowMinimum = current[0];
+			for (int j = 1; j <= b.length(); j++) {
+				int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+				int edits = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+				if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+					edits = Math.min(edits, twoBack[j - 2] + 1);
+				}
+				current[j] = edits;
+				rowMinimum = Math.min(rowMinimum, edits);
+			}
+			if (rowMinimum > limit) {
+				return limit + 1;
+			}
+
+			int[] spare = twoBack;
+			twoBack = previous;
+			previous = current;
+			current = spare;
+		}
+		return previous[b.length()];
+	}
+
+	private static HashSet<String> getTrigrams(String word) {
+		String padded = WORD_START + word + WORD_END;
+		HashSet<String> trigrams = new HashSet<String>();
+		for (int i = 0; i + 3 <= padded.length(); i++) {
+			trigrams.add(padded.substring(i, i + 3));
+		}
+		return trigrams;
+	}
+
+	private void addTrigrams(String word) {
+		for (String trigram : getTrigrams(word)) {
+			HashSet<String> words = wordsByTrigram.get(trigram);
+			if (words == null) {
+				words = new HashSet<String>();
+				wordsByTrigram.put(trigram, words);
+			}
+			words.add(word);
+		}
+	}
+
+	private void removeTrigrams(String word) {
+		for (String trigram : getTrigrams(word)) {
+			HashSet<String> words = wordsByTrigram.get(trigram);
+			if (words != null && words.remove(word) && words.isEmpty()) {
+				wordsByTrigram.remove(trigram);
+			}
+		}
+	}
+
+	/**
+	 * @return the inverse document frequency of the word, log(1 + n / tasks using it)
+	 */
+	private double getWeight(String word, HashMap<String, Double> weights) {
+		Double weight = weights.get(word);
+		if (weight == null) {
+			SlotBitmap slots = slotsByWord.get(word);
+			int using = (slots == null) ? 1 : Math.max(1, slots.cardinality());
+			weight = Math.log(1 + (double) count / using);
+			weights.put(word, weight);
+		}
+		return weight;
+	}
+}
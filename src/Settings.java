@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Reads the user's settings from settings.txt and applies them. Each line
+ * holds one setting as "key = value"; blank lines and lines starting with #
+ * are ignored, as are unknown keys and values, which are logged.
+ *
+ *   undo.engine = delta | snapshot
+ *   write.mode = durable | fast
+ *   write.sync.directory = true | false
+ *   snapshot.format = text | binary
+ *   write.behind = true | false
+ *   write.behind.window = milliseconds
+ *   storage.mode = journal | slotted | snapshot
+ *   undo.heap.budget = bytes
+ *   undo.disk.budget = bytes
+ *
+ * The settings are applied before the stores start loading, so a setting
+ * that picks how a store is kept only has to convert the files on disk.
+ */
+class Settings {
+	protected static final String FILE_SETTINGS = "settings.txt";
+
+	protected static final String UNDO_ENGINE = "undo.engine";
+	protected static final String WRITE_MODE = "write.mode";
+	protected static final String WRITE_SYNC_DIRECTORY = "write.sync.directory";
+	protected static final String SNAPSHOT_FORMAT = "snapshot.format";
+	protected static final String WRITE_BEHIND = "write.behind";
+	protected static final String WRITE_BEHIND_WINDOW = "write.behind.window";
+	protected static final String STORAGE_MODE = "storage.mode";
+	protected static final String UNDO_HEAP_BUDGET = "undo.heap.budget";
+	protected static final String UNDO_DISK_BUDGET = "undo.disk.budget";
+
+	private static final String SEPARATOR = "=";
+	private static final String COMMENT = "#";
+
+	private static Logger LOGGER = Logger.getLogger(Settings.class.getName());
+
+	/**
+	 * Applies every setting in the settings file, if there is one
+	 */
+	protected static void load() {
+		ArrayList<String> lines = FileManager.readFromFile(FILE_SETTINGS);
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith(COMMENT)) {
+				continue;
+			}
+
+			int separator = line.indexOf(SEPARATOR);
+			if (separator < 0 || !apply(line.substring(0, separator).trim(), line.substring(separator + 1).trim())) {
+				LOGGER.info("Ignoring setting " + line);
+			}
+		}
+	}
+
+	/**
+	 * Applies a single setting
+	 * @param key
+	 * @param value
+	 * @return false if the key is unknown or the value is not valid for it
+	 */
+	protected static boolean apply(String key, String value) {
+		try {
+			if (key.equalsIgnoreCase(UNDO_ENGINE)) {
+				HistoryHandler.setEngine(toEnum(HistoryHandler.Engine.class, value));
+			} else if (key.equalsIgnoreCase(WRITE_MODE)) {
+				FileManager.setWriteMode(toEnum(FileManager.WriteMode.class, value));
+			} else if (key.equalsIgnoreCase(WRITE_SYNC_DIRECTORY)) {
+				FileManager.setSyncDirectory(toBoolean(value));
+			} else if (key.equalsIgnoreCase(SNAPSHOT_FORMAT)) {
+				TaskJournal.setSnapshotFormat(toEnum(TaskSnapshot.Format.class, value));
+			} else if (key.equalsIgnoreCase(WRITE_BEHIND)) {
+				WriteBehindPersister.setEnabled(toBoolean(value));
+			} else if (key.equalsIgnoreCase(WRITE_BEHIND_WINDOW)) {
+				WriteBehindPersister.setCoalesceWindow(Long.parseLong(value));
+			} else if (key.equalsIgnoreCase(STORAGE_MODE)) {
+				Task.setStorageMode(toEnum(Task.StorageMode.class, value));
+			} else if (key.equalsIgnoreCase(UNDO_HEAP_BUDGET)) {
+				HistoryHandler.setMemoryBudget(toBytes(value), HistoryHandler.getDiskBudget());
+			} else if (key.equalsIgnoreCase(UNDO_DISK_BUDGET)) {
+				HistoryHandler.setMemoryBudget(HistoryHandler.getHeapBudget(), toBytes(value));
+			} else {
+				return false;
+			}
+		} catch (IllegalArgumentException e) {	// also the NumberFormatException of a bad number
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the value names none of the constants
+	 */
+	private static <E extends Enum<E>> E toEnum(Class<E> type, String value) {
+		return Enum.valueOf(type, value.toUpperCase(Locale.ENGLISH));
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the value is not a number of bytes
+	 */
+	private static long toBytes(String value) {
+		long bytes = Long.parseLong(value);
+		if (bytes < 0) {
+			throw new IllegalArgumentException(value);
+		}
+		return bytes;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the value is neither true nor false
+	 */
+	private static boolean toBoolean(String value) {
+		if (value.equalsIgnoreCase("true")) {
+			return true;
+		} else if (value.equalsIgnoreCase("false")) {
+			return false;
+		}
+		throw new IllegalArgumentException(value);
+	}
+}
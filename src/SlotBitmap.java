@@ -0,0 +1,414 @@
+import java.util.Arrays;
+
+/**
+ * A set of non-negative ints, compressed the way roaring bitmaps are. The
+ * ints are split by their high 16 bits into chunks, kept in a sorted array,
+ * and each chunk holds its low 16 bits either as a sorted array while it has
+ * up to 4096 of them or as a 65536 bit bitmap once it has more. Sparse sets
+ * then cost two bytes an int and dense ones one bit, and sets are combined
+ * with and, or and andNot a chunk at a time without boxing any ints.
+ *
+ * Iterate the way BitSet is iterated:
+ * for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1))
+ */
+class SlotBitmap {
+	private static final int ARRAY_LIMIT = 4096;
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+	private static final int WORDS = (1 << CHUNK_BITS) / 64;
+
+	private char[] keys = new char[4];
+	private Chunk[] chunks = new Chunk[4];
+	private int size = 0;
+
+	/**
+	 * The low 16 bits of the ints in one chunk, as a sorted array of at most
+	 * ARRAY_LIMIT values or as a bitmap
+	 */
+	private static class Chunk {
+		private char[] values = new char[4];
+		private long[] words = null;
+		private int cardinality = 0;
+
+		private boolean contains(int low) {
+			if (words != null) {
+				return (words[low >>> 6] & (1L << low)) != 0;
+			}
+			return Arrays.binarySearch(values, 0, cardinality, (char) low) >= 0;
+		}
+
+		private boolean add(int low) {
+			if (words != null) {
+				long bit = 1L << low;
+				if ((words[low >>> 6] & bit) != 0) {
+					return false;
+				}
+				words[low >>> 6] |= bit;
+				cardinality++;
+				return true;
+			}
+
+			int index = Arrays.binarySearch(values, 0, cardinality, (char) low);
+			if (index >= 0) {
+				return false;
+			}
+			if (cardinality == ARRAY_LIMIT) {
+				toWords();
+				return add(low);
+			}
+
+			index = -index - 1;
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, cardinality * 2));
+			}
+			System.arraycopy(values, index, values, index + 1, cardinality - index);
+			values[index] = (char) low;
+			cardinality++;
+			return true;
+		}
+
+		/**
+		 * Removes the value, turning a bitmap back into an array once it has
+		 * half as many values as an array may hold so that a chunk on the
+		 * limit does not flip between the two
+		 */
+		private boolean remove(int low) {
+			if (words != null) {
+				long bit = 1L << low;
+				if ((words[low >>> 6] & bit) == 0) {
+					return false;
+				}
+				words[low >>> 6] &= ~bit;
+				cardinality--;
+				if (cardinality <= ARRAY_LIMIT / 2) {
+					toValues();
+				}
+				return true;
+			}
+
+			int index = Arrays.binarySearch(values, 0, cardinality, (char) low);
+			if (index < 0) {
+				return false;
+			}
+			System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+			cardinality--;
+			return true;
+		}
+
+		/**
+		 * @param from a value from 0 to 65535
+		 * @return the least value in the chunk that is at least from, or -1 if there is none
+		 */
+		private int next(int from) {
+			if (words != null) {
+				int word = from >>> 6;
+				long bits = words[word] & (-1L << from);
+				while (bits == 0) {
+					if (++word == WORDS) {
+						return -1;
+					}
+					bits = words[word];
+				}
+				return word * 64 + Long.numberOfTrailingZeros(bits);
+			}
+
+			int index = Arrays.binarySearch(values, 0, cardinality, (char) from);
+			if (index < 0) {
+				index = -index - 1;
+			}
+			return (index < cardinality) ? values[index] : -1;
+		}
+
+		private void toWords() {
+			long[] bits = new long[WORDS];
+			for (int i = 0; i < cardinality; i++) {
+				bits[values[i] >>> 6] |= 1L << values[i];
+			}
+			words = bits;
+			values = null;
+		}
+
+		private void toValues() {
+			char[] sorted = new char[Math.max(4, cardinality)];
+			int count = 0;
+			for (int word = 0; word < WORDS; word++) {
+				long bits = words[word];
+				while (bits != 0) {
+					sorted[count++] = (char) (word * 64 + Long.numberOfTrailingZeros(bits));
+					bits &= bits - 1;
+				}
+			}
+			values = sorted;
+			words = null;
+		}
+
+		/**
+		 * @return the chunk as a bitmap, which must not be changed
+		 */
+		private long[] asWords() {
+			if (words != null) {
+				return words;
+			}
+			long[] bits = new long[WORDS];
+			for (int i = 0; i < cardinality; i++) {
+				bits[values[i] >>> 6] |= 1L << values[i];
+			}
+			return bits;
+		}
+
+		private Chunk copy() {
+			Chunk copy = new Chunk();
+			copy.cardinality = cardinality;
+			if (words != null) {
+				copy.values = null;
+				copy.words = words.clone();
+			} else {
+				copy.values = Arrays.copyOf(values, Math.max(4, cardinality));
+			}
+			return copy;
+		}
+
+		/**
+		 * @return a chunk holding the given bits, as an array if there are few enough
+		 */
+		private static Chunk fromWords(long[] bits) {
+			Chunk chunk = new Chunk();
+			chunk.values = null;
+			chunk.words = bits;
+			for (int word = 0; word < WORDS; word++) {
+				chunk.cardinality += Long.bitCount(bits[word]);
+			}
+			if (chunk.cardinality <= ARRAY_LIMIT) {
+				chunk.toValues();
+			}
+			return chunk;
+		}
+
+		/**
+		 * @return a chunk holding the values of the array chunk that the other chunk has, or lacks if wanted is false
+		 */
+		private static Chunk filter(Chunk array, Chunk other, boolean wanted) {
+			Chunk chunk = new Chunk();
+			chunk.values = new char[Math.max(4, array.cardinality)];
+			for (int i = 0; i < array.cardinality; i++) {
+				if (other.contains(array.values[i]) == wanted) {
+					chunk.values[chunk.cardinality++] = array.values[i];
+				}
+			}
+			return chunk;
+		}
+
+		private static Chunk and(Chunk a, Chunk b) {
+			if (a.words == null) {
+				return filter(a, b, true);
+			} else if (b.words == null) {
+				return filter(b, a, true);
+			}
+
+			long[] bits = new long[WORDS];
+			for (int word = 0; word < WORDS; word++) {
+				bits[word] = a.words[word] & b.words[word];
+			}
+			return fromWords(bits);
+		}
+
+		private static Chunk or(Chunk a, Chunk b) {
+			long[] bits = a.asWords().clone();
+			long[] other = b.asWords();
+			for (int word = 0; word < WORDS; word++) {
+				bits[word] |= other[word];
+			}
+			return fromWords(bits);
+		}
+
+		private static Chunk andNot(Chunk a, Chunk b) {
+			if (a.words == null) {
+				return filter(a, b, false);
+			}
+
+			long[] bits = a.words.clone();
+			long[] other = b.asWords();
+			for (int word = 0; word < WORDS; word++) {
+				bits[word] &= ~other[word];
+			}
+			return fromWords(bits);
+		}
+	}
+
+	/**
+	 * @param value a non-negative int
+	 * @return true if the value was not in the set
+	 */
+	protected boolean add(int value) {
+		int index = indexOfChunk(value >>> CHUNK_BITS);
+		if (index < 0) {
+			index = -index - 1;
+			insertChunk(index, (char) (value >>> CHUNK_BITS), new Chunk());
+		}
+		return chunks[index].add(value & CHUNK_MASK);
+	}
+
+	/**
+	 * @param value
+	 * @return true if the value was in the set
+	 */
+	protected boolean remove(int value) {
+		int index = indexOfChunk(value >>> CHUNK_BITS);
+		if (index < 0 || !chunks[index].remove(value & CHUNK_MASK)) {
+			return false;
+		}
+
+		if (chunks[index].cardinality == 0) {
+			System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+			System.arraycopy(chunks, index + 1, chunks, index, size - index - 1);
+			size--;
+			chunks[size] = null;
+		}
+		return true;
+	}
+
+	protected boolean contains(int value) {
+		int index = indexOfChunk(value >>> CHUNK_BITS);
+		return index >= 0 && chunks[index].contains(value & CHUNK_MASK);
+	}
+
+	/**
+	 * @param from
+	 * @return the least value in the set that is at least from, or -1 if there is none
+	 */
+	protected int nextSetBit(int from) {
+		if (from < 0) {
+			from = 0;
+		}
+
+		int index = indexOfChunk(from >>> CHUNK_BITS);
+		if (index >= 0) {
+			int low = chunks[index].next(from & CHUNK_MASK);
+			if (low >= 0) {
+				return (keys[index] << CHUNK_BITS) | low;
+			}
+			index++;
+		} else {
+			index = -index - 1;
+		}
+
+		if (index < size) {
+			return (keys[index] << CHUNK_BITS) | chunks[index].next(0);
+		}
+		return -1;
+	}
+
+	protected int cardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < size; i++) {
+			cardinality += chunks[i].cardinality;
+		}
+		return cardinality;
+	}
+
+	protected boolean isEmpty() {
+		return size == 0;
+	}
+
+	protected void clear() {
+		keys = new char[4];
+		chunks = new Chunk[4];
+		size = 0;
+	}
+
+	protected SlotBitmap copy() {
+		SlotBitmap copy = new SlotBitmap();
+		for (int i = 0; i < size; i++) {
+			copy.appendChunk(keys[i], chunks[i].copy());
+		}
+		return copy;
+	}
+
+	/**
+	 * @return a new set of the values in both sets
+	 */
+	protected static SlotBitmap and(SlotBitmap a, SlotBitmap b) {
+		SlotBitmap result = new SlotBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < a.size && j < b.size) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				result.appendChunk(a.keys[i], Chunk.and(a.chunks[i], b.chunks[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a new set of the values in either set
+	 */
+	protected static SlotBitmap or(SlotBitmap a, SlotBitmap b) {
+		SlotBitmap result = new SlotBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < a.size || j < b.size) {
+			if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+				result.appendChunk(a.keys[i], a.chunks[i].copy());
+				i++;
+			} else if (i == a.size || a.keys[i] > b.keys[j]) {
+				result.appendChunk(b.keys[j], b.chunks[j].copy());
+				j++;
+			} else {
+				result.appendChunk(a.keys[i], Chunk.or(a.chunks[i], b.chunks[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a new set of the values in the first set but not the second
+	 */
+	protected static SlotBitmap andNot(SlotBitmap a, SlotBitmap b) {
+		SlotBitmap result = new SlotBitmap();
+		int j = 0;
+		for (int i = 0; i < a.size; i++) {
+			while (j < b.size && b.keys[j] < a.keys[i]) {
+				j++;
+			}
+			if (j < b.size && b.keys[j] == a.keys[i]) {
+				result.appendChunk(a.keys[i], Chunk.andNot(a.chunks[i], b.chunks[j]));
+			} else {
+				result.appendChunk(a.keys[i], a.chunks[i].copy());
+			}
+		}
+		return result;
+	}
+
+	private int indexOfChunk(int key) {
+		return Arrays.binarySearch(keys, 0, size, (char) key);
+	}
+
+	private void insertChunk(int index, char key, Chunk chunk) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			chunks = Arrays.copyOf(chunks, size * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(chunks, index, chunks, index + 1, size - index);
+		keys[index] = key;
+		chunks[index] = chunk;
+		size++;
+	}
+
+	/**
+	 * Adds a chunk after every other chunk, unless it is empty
+	 */
+	private void appendChunk(char key, Chunk chunk) {
+		if (chunk.cardinality > 0) {
+			insertChunk(size, key, chunk);
+		}
+	}
+}
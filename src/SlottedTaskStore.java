@@ -0,0 +1,551 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Task file that is updated one record at a time. Every task lives in its own
+ * slot, found through an index from the task to the slot offset, so saving a
+ * single edited task is a couple of positional writes no matter how long the
+ * list is.
+ *
+ * A slot holds its capacity, a state byte, a generation, the record length,
+ * a CRC of the generation and the record, and the record itself in the layout
+ * of BinaryTaskFile. A record is never overwritten in place: an edited task is
+ * written to a free or new slot, and its old slot is only freed once the new
+ * copy is on disk, so a crash in between leaves a duplicate rather than a lost
+ * task. Every slot written gets a higher generation than the ones before it,
+ * so loading keeps the newest copy of a task wherever it lies in the file and
+ * frees the others. Files of version 1, whose slots have no generation, keep
+ * the first copy and are rewritten in the current version. Slots are sized with some headroom so a
+ * freed slot fits a slightly longer record, and once more than half the file
+ * is free it is rewritten. Only the used part of a slot is ever written, so
+ * the last slot may end past the end of the file.
+ */
+class SlottedTaskStore {
+	protected static final String FILE_SLOTS = "tasks.slots";
+
+	private static final int MAGIC = 0x44545354;
+	private static final short VERSION = 2;
+	private static final short VERSION_WITHOUT_GENERATION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int SLOT_HEADER_SIZE = 4 + 1 + 8 + 4 + 4;
+	private static final int SLOT_HEADER_SIZE_WITHOUT_GENERATION = 4 + 1 + 4 + 4;
+	private static final int STATE_OFFSET = 4;
+	private static final int SLOT_ALIGNMENT = 64;
+	private static final long MIN_REWRITE_SIZE = 64 * 1024;
+
+	private static final byte STATE_FREE = 0;
+	private static final byte STATE_LIVE = 1;
+
+	private static Logger LOGGER = Logger.getLogger(SlottedTaskStore.class.getName());
+
+	private static final IdentityHashMap<Task, Slot> slots = new IdentityHashMap<Task, Slot>();
+	private static final TreeMap<Integer, ArrayDeque<Long>> freeSlots = new TreeMap<Integer, ArrayDeque<Long>>();
+	private static final Set<Task> changed = Collections.newSetFromMap(new IdentityHashMap<Task, Boolean>());
+	private static final Set<Task> removed = Collections.newSetFromMap(new IdentityHashMap<Task, Boolean>());
+	private static final IdentityHashMap<Task, Task> replaced = new IdentityHashMap<Task, Task>();
+	private static final ArrayList<Slot> replacedSlots = new ArrayList<Slot>();
+
+	private static FileChannel channel = null;
+	private static long fileEnd = HEADER_SIZE;
+	private static long freeBytes = 0;
+	private static long lastGeneration = 0;
+	private static boolean cleared = false;
+	private static boolean syncRequested = false;
+
+	private static class Slot {
+		private final long offset;
+		private final int capacity;
+
+		private Slot(long offset, int capacity) {
+			this.offset = offset;
+			this.capacity = capacity;
+		}
+	}
+
+	protected static boolean exists() {
+		return FileManager.fileExists(FILE_SLOTS);
+	}
+
+	/**
+	 * Reads every live record and indexes the slot of each. Records whose CRC
+	 * does not match, and a slot cut short at the end of the file, are skipped.
+	 * The file is read into the heap rather than mapped, so nothing keeps it
+	 * open once the channel is closed and rewrite can replace it.
+	 * @return the list of tasks
+	 * @throws IllegalStateException if the file cannot be read or is not a slotted task file
+	 */
+	protected static synchronized ArrayList<Task> load() {
+		reset();
+		ArrayList<Task> tasks = new ArrayList<Task>();
+
+		try {
+			channel = FileManager.openForUpdate(FILE_SLOTS);
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				writeHeader();
+				return tasks;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			FileManager.readAt(channel, 0, buffer);
+			short version = buffer.getShort(4);
+			if (buffer.getInt(0) != MAGIC || (version != VERSION && version != VERSION_WITHOUT_GENERATION)) {
+				closeChannel();
+				throw new IllegalStateException("Not a slotted task file " + FILE_SLOTS);
+			}
+
+			readSlots(buffer, size, version == VERSION, tasks);
+			if (version == VERSION) {
+				freeReplacedSlots();
+			} else {
+				rewrite(tasks);
+			}
+		} catch (IOException e) {
+			closeChannel();
+			throw new IllegalStateException("Error reading from file " + FILE_SLOTS, e);
+		}
+
+		Collections.sort(tasks);
+		return tasks;
+	}
+
+	/**
+	 * Decodes the slots into the list. Of the copies of a task left by a crash
+	 * before the old slot was freed, the one with the highest generation is
+	 * kept and the others are set aside to be freed.
+	 */
+	private static void readSlots(ByteBuffer buffer, long size, boolean hasGeneration, ArrayList<Task> tasks) {
+		BinaryTaskFile.RecordDecoder decoder = new BinaryTaskFile.RecordDecoder();
+		HashMap<Long, Integer> indexes = new HashMap<Long, Integer>();
+		HashMap<Long, Long> generations = new HashMap<Long, Long>();
+		int slotHeaderSize = hasGeneration ? SLOT_HEADER_SIZE : SLOT_HEADER_SIZE_WITHOUT_GENERATION;
+		byte[] record = new byte[256];
+		long offset = HEADER_SIZE;
+
+		while (offset + slotHeaderSize <= size) {
+			buffer.position((int) offset);
+			int capacity = buffer.getInt();
+			byte state = buffer.get();
+			long generation = hasGeneration ? buffer.getLong() : 0;
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (capacity < slotHeaderSize || (state == STATE_LIVE && offset + slotHeaderSize + length > size)) {
+				LOGGER.info("Ignoring truncated slot at " + offset);
+				break;
+			}
+
+			Task task = null;
+			if (state == STATE_LIVE && length >= 0 && length <= capacity - slotHeaderSize) {
+				if (length > record.length) {
+					record = new byte[Math.max(length, record.length * 2)];
+				}
+				buffer.get(record, 0, length);
+				if (getChecksum(hasGeneration, generation, record, length) == checksum) {
+					task = decoder.decode(ByteBuffer.wrap(record, 0, length));
+				} else {
+					LOGGER.info("Skipping corrupted record at " + offset);
+				}
+			}
+
+			Slot slot = new Slot(offset, capacity);
+			Integer index = (task == null) ? null : indexes.get(task.getId());
+			if (task == null) {
+				addFreeSlot(offset, capacity);
+			} else if (index == null) {
+				task.clearDirty();
+				indexes.put(task.getId(), tasks.size());
+				generations.put(task.getId(), generation);
+				tasks.add(task);
+				slots.put(task, slot);
+			} else if (generation > generations.get(task.getId())) {
+				LOGGER.info("Freeing older duplicate record at " + slots.get(tasks.get(index)).offset);
+				task.clearDirty();
+				generations.put(task.getId(), generation);
+				replacedSlots.add(slots.remove(tasks.set(index, task)));
+				slots.put(task, slot);
+			} else {
+				LOGGER.info("Freeing older duplicate record at " + offset);
+				replacedSlots.add(slot);
+			}
+			lastGeneration = Math.max(lastGeneration, generation);
+			offset += capacity;
+		}
+
+		fileEnd = offset;
+	}
+
+	/**
+	 * Notes that the task was added or changed
+	 * @param task
+	 */
+	protected static synchronized void recordChanged(Task task) {
+		removed.remove(task);
+		changed.add(task);
+	}
+
+	/**
+	 * Notes that the task was removed from the list
+	 * @param task
+	 */
+	protected static synchronized void recordRemoved(Task task) {
+		changed.remove(task);
+		replaced.remove(task);
+		removed.add(task);
+	}
+
+	/**
+	 * Notes that the task took the place of another. The slot of the other
+	 * task is only freed once the task is on disk, like an edited task's.
+	 * @param original the task that was replaced
+	 * @param task
+	 */
+	protected static synchronized void recordReplaced(Task original, Task task) {
+		removed.remove(task);
+		changed.add(task);
+		replaced.put(task, original);
+	}
+
+	protected static synchronized void recordsCleared() {
+		changed.clear();
+		removed.clear();
+		replaced.clear();
+		cleared = true;
+	}
+
+	/**
+	 * Asks for the next flush to compare the whole list against the file,
+	 * for changes that were not recorded one task at a time
+	 */
+	protected static synchronized void requestSync() {
+		syncRequested = true;
+	}
+
+	/**
+	 * Writes the recorded changes to the file, or every task that differs
+	 * from the file if a sync was requested.
+	 * @param tasks the current task list
+	 */
+	protected static synchronized void flush(List<Task> tasks) {
+		if (channel == null || isMostlyFree() || (syncRequested && countUnsaved(tasks) > tasks.size() / 2)) {
+			rewrite(tasks);
+			return;
+		}
+
+		try {
+			if (syncRequested) {
+				sync(tasks);
+			} else {
+				flushRecorded();
+			}
+			freeReplacedSlots();
+			FileManager.force(channel);
+		} catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "Error writing to file " + FILE_SLOTS, e);
+			closeChannel();
+		}
+
+		clearRecorded();
+	}
+
+	private static void flushRecorded() throws IOException {
+		if (cleared) {
+			ArrayList<Slot> all = new ArrayList<Slot>(slots.values());
+			slots.clear();
+			for (int i = 0; i < all.size(); i++) {
+				freeSlot(all.get(i));
+			}
+		}
+
+		for (Task task : removed) {
+			Slot slot = slots.remove(task);
+			if (slot != null) {
+				freeSlot(slot);
+			}
+		}
+
+		for (Task task : changed) {
+			if (task.isDirty() || !slots.containsKey(task)) {
+				writeTask(task);
+			}
+		}
+	}
+
+	private static boolean isMostlyFree() {
+		return freeBytes > fileEnd / 2 && fileEnd > MIN_REWRITE_SIZE;
+	}
+
+	/**
+	 * Counts the tasks that are new or dirty. Once most of the list is, a
+	 * single rewrite is cheaper than writing them one slot at a time.
+	 */
+	private static int countUnsaved(List<Task> tasks) {
+		int count = 0;
+		for (int i = 0; i < tasks.size(); i++) {
+			if (tasks.get(i).isDirty() || !slots.containsKey(tasks.get(i))) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Frees the slot of every indexed task that is no longer in the list and
+	 * writes every task that is new or dirty
+	 */
+	private static void sync(List<Task> tasks) throws IOException {
+		Set<Task> live = Collections.newSetFromMap(new IdentityHashMap<Task, Boolean>(tasks.size()));
+		live.addAll(tasks);
+
+		Iterator<Map.Entry<Task, Slot>> entries = slots.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<Task, Slot> entry = entries.next();
+			if (!live.contains(entry.getKey())) {
+				freeSlot(entry.getValue());
+				entries.remove();
+			}
+		}
+
+		for (int i = 0; i < tasks.size(); i++) {
+			Task task = tasks.get(i);
+			if (task.isDirty() || !slots.containsKey(task)) {
+				writeTask(task);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the file with one holding only the given tasks, packed. If the
+	 * file cannot be written the store is left closed, so the next flush
+	 * tries the rewrite again.
+	 * @param tasks
+	 * @return true if the file was replaced
+	 */
+	protected static synchronized boolean rewrite(List<Task> tasks) {
+		reset();
+
+		byte[][] records = new byte[tasks.size()][];
+		int[] capacities = new int[tasks.size()];
+		long size = HEADER_SIZE;
+		for (int i = 0; i < tasks.size(); i++) {
+			records[i] = BinaryTaskFile.encodeRecord(tasks.get(i));
+			capacities[i] = getSlotCapacity(records[i].length);
+			size += capacities[i];
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) size);
+		putHeader(buffer);
+		long offset = HEADER_SIZE;
+		for (int i = 0; i < tasks.size(); i++) {
+			buffer.position((int) offset);
+			putSlot(buffer, capacities[i], records[i]);
+			slots.put(tasks.get(i), new Slot(offset, capacities[i]));
+			tasks.get(i).clearDirty();
+			offset += capacities[i];
+		}
+		buffer.position(0);
+		fileEnd = offset;
+
+		if (!FileManager.writeToFile(FILE_SLOTS, buffer)) {
+			reset();
+			return false;
+		}
+		try {
+			channel = FileManager.openForUpdate(FILE_SLOTS);
+		} catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "Error opening file " + FILE_SLOTS, e);
+			reset();
+		}
+		return true;
+	}
+
+	/**
+	 * Closes and removes the file, once the task list is kept elsewhere
+	 */
+	protected static synchronized void delete() {
+		reset();
+		FileManager.deleteFile(FILE_SLOTS);
+	}
+
+	/**
+	 * @return the number of bytes in slots that are free for reuse
+	 */
+	protected static synchronized long getFreeBytes() {
+		return freeBytes;
+	}
+
+	/**
+	 * Writes the task into a free or new slot. Its old slot, or the slot of
+	 * the task it replaced, is freed by freeReplacedSlots once the new copy is
+	 * on disk.
+	 */
+	private static void writeTask(Task task) throws IOException {
+		byte[] record = BinaryTaskFile.encodeRecord(task);
+		Slot slot = allocateSlot(record.length);
+		writeSlot(slot, record);
+
+		Slot previous = slots.put(task, slot);
+		if (previous != null) {
+			replacedSlots.add(previous);
+		}
+		Task original = replaced.remove(task);
+		if (original != null && slots.containsKey(original)) {
+			replacedSlots.add(slots.remove(original));
+		}
+		task.clearDirty();
+	}
+
+	/**
+	 * Forces the new copies of the rewritten tasks to the disk and only then
+	 * frees the slots that held their old copies
+	 */
+	private static void freeReplacedSlots() throws IOException {
+		if (replacedSlots.isEmpty()) {
+			return;
+		}
+
+		FileManager.force(channel);
+		for (int i = 0; i < replacedSlots.size(); i++) {
+			freeSlot(replacedSlots.get(i));
+		}
+		replacedSlots.clear();
+		FileManager.force(channel);
+	}
+
+	private static void writeSlot(Slot slot, byte[] record) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(SLOT_HEADER_SIZE + record.length);
+		putSlot(buffer, slot.capacity, record);
+		buffer.flip();
+		FileManager.writeAt(channel, slot.offset, buffer);
+	}
+
+	private static void freeSlot(Slot slot) throws IOException {
+		ByteBuffer state = ByteBuffer.allocate(1);
+		state.put(STATE_FREE);
+		state.flip();
+		FileManager.writeAt(channel, slot.offset + STATE_OFFSET, state);
+		addFreeSlot(slot.offset, slot.capacity);
+	}
+
+	/**
+	 * Takes the smallest free slot the record fits in, or appends a new slot
+	 */
+	private static Slot allocateSlot(int recordLength) {
+		int needed = SLOT_HEADER_SIZE + recordLength;
+		Map.Entry<Integer, ArrayDeque<Long>> free = freeSlots.ceilingEntry(needed);
+		if (free != null) {
+			long offset = free.getValue().poll();
+			if (free.getValue().isEmpty()) {
+				freeSlots.remove(free.getKey());
+			}
+			freeBytes -= free.getKey();
+			return new Slot(offset, free.getKey());
+		}
+
+		int capacity = getSlotCapacity(recordLength);
+		Slot slot = new Slot(fileEnd, capacity);
+		fileEnd += capacity;
+		return slot;
+	}
+
+	private static void addFreeSlot(long offset, int capacity) {
+		ArrayDeque<Long> offsets = freeSlots.get(capacity);
+		if (offsets == null) {
+			offsets = new ArrayDeque<Long>();
+			freeSlots.put(capacity, offsets);
+		}
+		offsets.add(offset);
+		freeBytes += capacity;
+	}
+
+	/**
+	 * Leaves a quarter again as much room as the record needs, so small edits
+	 * fit in place, rounded up to the slot alignment
+	 */
+	private static int getSlotCapacity(int recordLength) {
+		int needed = SLOT_HEADER_SIZE + recordLength;
+		int padded = needed + needed / 4;
+		return (padded + SLOT_ALIGNMENT - 1) / SLOT_ALIGNMENT * SLOT_ALIGNMENT;
+	}
+
+	private static void putHeader(ByteBuffer buffer) {
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putShort((short) 0);
+		buffer.putLong(0);
+	}
+
+	private static void putSlot(ByteBuffer buffer, int capacity, byte[] record) {
+		long generation = ++lastGeneration;
+		buffer.putInt(capacity);
+		buffer.put(STATE_LIVE);
+		buffer.putLong(generation);
+		buffer.putInt(record.length);
+		buffer.putInt(getChecksum(true, generation, record, record.length));
+		buffer.put(record);
+	}
+
+	/**
+	 * @return the CRC of the generation, if the slot has one, and the record
+	 */
+	private static int getChecksum(boolean hasGeneration, long generation, byte[] record, int length) {
+		CRC32 crc = new CRC32();
+		if (hasGeneration) {
+			crc.update(ByteBuffer.allocate(8).putLong(generation).array());
+		}
+		crc.update(record, 0, length);
+		return (int) crc.getValue();
+	}
+
+	private static void writeHeader() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+		putHeader(buffer);
+		buffer.flip();
+		FileManager.writeAt(channel, 0, buffer);
+		FileManager.force(channel);
+		fileEnd = HEADER_SIZE;
+	}
+
+	private static void clearRecorded() {
+		changed.clear();
+		removed.clear();
+		replaced.clear();
+		cleared = false;
+		syncRequested = false;
+	}
+
+	private static void reset() {
+		closeChannel();
+		slots.clear();
+		freeSlots.clear();
+		replacedSlots.clear();
+		clearRecorded();
+		fileEnd = HEADER_SIZE;
+		freeBytes = 0;
+	}
+
+	private static void closeChannel() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOGGER.info("Error closing file " + FILE_SLOTS);
+		}
+		channel = null;
+	}
+}
@@ -0,0 +1,204 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Undo history that keeps a version of the whole task list for every step.
+ * The versions are persistent maps from task ID to a frozen copy of the
+ * task, so a new version shares all but the changed entries with the one
+ * before it and taking a snapshot is a pointer copy. Undo and redo diff the
+ * current version against the target one and apply only the differences,
+ * finding each task in the list by its ID.
+ *
+ * Because versions hold copies, later edits to a task never leak into older
+ * versions. The history lasts for the session; it is not saved to disk.
+ * It is used instead of the delta history when the undo.engine setting is
+ * snapshot, see Settings.
+ */
+class SnapshotHistory {
+	private static final int MAXIMUM_UNDO_STEPS = 1000;
+
+	private static Version current = null;
+	private static ArrayDeque<Version> undoVersions = new ArrayDeque<Version>();
+	private static ArrayDeque<Version> redoVersions = new ArrayDeque<Version>();
+
+	/**
+	 * A task as it was in one version: the live task and a frozen copy of its fields
+	 */
+	private static class TaskVersion {
+		private final Task task;
+		private final Task fields;
+
+		private TaskVersion(Task task, Task fields) {
+			this.task = task;
+			this.fields = fields;
+		}
+	}
+
+	private static class Version {
+		private final PersistentLongMap<TaskVersion> tasks;
+		private final UndoDelta commands;
+
+		/**
+		 * @param tasks
+		 * @param commands the custom command changes that led to this version, or null
+		 */
+		private Version(PersistentLongMap<TaskVersion> tasks, UndoDelta commands) {
+			this.tasks = tasks;
+			this.commands = commands;
+		}
+	}
+
+	/**
+	 * Records a new version with the change applied
+	 * @param delta the change made by a command
+	 */
+	protected static synchronized void push(UndoDelta delta) {
+		if (current == null) {
+			current = new Version(getVersionBefore(delta), null);
+		}
+
+		PersistentLongMap<TaskVersion> tasks = current.tasks;
+		for (Task task : delta.getRemoved()) {
+			tasks = tasks.remove(task.getId());
+		}
+		for (Task task : delta.getInserted()) {
+			tasks = tasks.put(task.getId(), new TaskVersion(task, task.copy()));
+		}
+		for (Task task : delta.getChanged()) {
+			tasks = tasks.put(task.getId(), new TaskVersion(task, task.copy()));
+		}
+
+		undoVersions.add(current);
+		while (undoVersions.size() > MAXIMUM_UNDO_STEPS) {
+			undoVersions.pollFirst();
+		}
+		current = new Version(tasks, delta.getCommandChanges());
+	}
+
+	/**
+	 * Builds the first version from the task list as it was before the change
+	 */
+	private static PersistentLongMap<TaskVersion> getVersionBefore(UndoDelta delta) {
+		PersistentLongMap<TaskVersion> tasks = PersistentLongMap.empty();
+		TaskList taskList = Task.getList();
+		for (int i = 0; i < taskList.size(); i++) {
+			Task task = taskList.get(i);
+			tasks = tasks.put(task.getId(), new TaskVersion(task, task.copy()));
+		}
+
+		for (Task task : delta.getInserted()) {
+			tasks = tasks.remove(task.getId());
+		}
+		for (Task task : delta.getRemoved()) {
+			tasks = tasks.put(task.getId(), new TaskVersion(task, task.copy()));
+		}
+		for (int i = 0; i < delta.getChanged().size(); i++) {
+			Task task = delta.getChanged().get(i);
+			tasks = tasks.put(task.getId(), new TaskVersion(task, delta.getImages().get(i)));
+		}
+		return tasks;
+	}
+
+	/**
+	 * @return true if there was a version to go back to
+	 */
+	protected static synchronized boolean undo() {
+		Version target = undoVersions.pollLast();
+		if (target == null) {
+			return false;
+		}
+
+		restore(current.tasks, target.tasks);
+		if (current.commands != null) {
+			current.commands.revert();
+		}
+		redoVersions.add(current);
+		current = target;
+		return true;
+	}
+
+	/**
+	 * @return true if there was a version to go forward to
+	 */
+	protected static synchronized boolean redo() {
+		Version target = redoVersions.pollLast();
+		if (target == null) {
+			return false;
+		}
+
+		restore(current.tasks, target.tasks);
+		if (target.commands != null) {
+			target.commands.revert();
+		}
+		undoVersions.add(current);
+		current = target;
+		return true;
+	}
+
+	protected static synchronized void purgeRedo() {
+		redoVersions.clear();
+	}
+
+	protected static synchronized void clear() {
+		current = null;
+		undoVersions.clear();
+		redoVersions.clear();
+	}
+
+	/**
+	 * Brings the task list from one version to another and saves the tasks
+	 * that differ. A task is looked up in the list by its ID, so it is found
+	 * even if the list holds another object for it than the version does.
+	 */
+	private static void restore(PersistentLongMap<TaskVersion> from, PersistentLongMap<TaskVersion> to) {
+		final ArrayList<Long> removedIds = new ArrayList<Long>();
+		final ArrayList<TaskVersion> targets = new ArrayList<TaskVersion>();
+
+		from.diff(to, new PersistentLongMap.DiffHandler<TaskVersion>() {
+			public void removed(long key, TaskVersion version) {
+				removedIds.add(key);
+			}
+			public void added(long key, TaskVersion version) {
+				targets.add(version);
+			}
+			public void changed(long key, TaskVersion from, TaskVersion to) {
+				targets.add(to);
+			}
+		});
+
+		TaskList taskList = Task.getList();
+		ArrayList<Task> removed = new ArrayList<Task>();
+		for (int i = 0; i < removedIds.size(); i++) {
+			Task task = taskList.getById(removedIds.get(i));
+			if (task != null) {
+				taskList.remove(task);
+				removed.add(task);
+			}
+		}
+
+		ArrayList<Task> added = new ArrayList<Task>();
+		ArrayList<Task> changed = new ArrayList<Task>();
+		ArrayList<String> previous = new ArrayList<String>();
+		for (int i = 0; i < targets.size(); i++) {
+			TaskVersion version = targets.get(i);
+			Task task = taskList.getById(version.fields.getId());
+			if (task == null) {
+				version.task.setFields(version.fields);
+				taskList.add(version.task);
+				added.add(version.task);
+			} else {
+				previous.add(task.toString());
+				task.setFields(version.fields);
+				changed.add(task);
+			}
+		}
+
+		Task.saveTasksDeleted(removed);
+		for (int i = 0; i < added.size(); i++) {
+			Task.saveTaskAdded(added.get(i));
+		}
+		for (int i = 0; i < changed.size(); i++) {
+			Task.saveTaskUpdated(previous.get(i), changed.get(i), changed.get(i));
+		}
+	}
+}
@@ -1,224 +1,753 @@
-import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import org.joda.time.DateTime;
-
-class Task implements Comparable<Task>{
-	private static final String FILE_TASK = "tasks.txt";
-	
-	protected static final int START_DATE = 0;
-	protected static final int START_TIME = 1;
-	protected static final int END_DATE = 2;
-	protected static final int END_TIME = 3;
-	protected static final int TASK_FIELD_SIZE = 4;
-	
-	private static final String DELIMITER = " ~~ ";
-	private static final String NULL_START = "NO_START_TIME";
-	private static final String NULL_END = "NO_END_TIME";
-	private static final String NULL_ALIAS = "NO_ALIAS";
-	private static final String STRING_FORMAT = "%s%s%s%s %s";
-	
-	private static ArrayList<Task> taskList = loadTasks();
-	
-	private DateTime startDateTime;
-	private DateTime endDateTime;
-	private String description;
-	private boolean status;
-	private String alias;
-	
-	protected Task(String desc) {
-		description = desc;
-		status = false;
-	}
-	
-	protected Task(String desc, DateTime start, DateTime end, String name) {
-		startDateTime = start;
-		endDateTime = end;
-		status = false;
-		description = desc;
-		alias = name;
-	}
-	
-	protected Task(String desc, DateTime start, DateTime end, String name, boolean stat) {
-		startDateTime = start;
-		endDateTime = end;
-		status = stat;
-		description = desc;
-		alias = name;
-	}
-	
-	protected void setDescription(String desc) {
-		description = desc;
-	}
-	
-	protected void setStartDateTime(DateTime start) {
-		startDateTime = start;
-	}
-	
-	protected void setEndDateTime(DateTime end) {
-		endDateTime = end; 
-	}
-	
-	protected void toggleStatus() {
-		status = !status;
-	}
-	
-	protected void setAlias(String alias) {	
-		this.alias = alias;
-	}
-	
-	protected String getDescription() {
-		return description;
-	}
-	
-	protected DateTime getStartDateTime() {
-		return startDateTime;
-	}
-	
-	protected DateTime getEndDateTime() {
-		return endDateTime;
-	}
-	
-	protected boolean getStatus() {
-		return status;
-	}
-	
-	protected String getAlias() {
-		return alias;
-	}
-	
-	protected static ArrayList<Task> getList() {
-		return taskList;
-	}
-	
-	protected static void setList(ArrayList<Task> list) {
-		taskList = list;
-	}
-	
-	protected static void sortList() {
-		Collections.sort(taskList);
-	}	
-	
-	protected static Task parseTaskFromString(String line) {
-		String[] tokens = line.split(DELIMITER);
-		DateTime start = (tokens[0].equals(NULL_START)) ? null : new DateTime(tokens[0]);
-		DateTime end = (tokens[1].equals(NULL_END)) ? null : new DateTime(tokens[1]);
-		String name = (tokens[2].equals(NULL_ALIAS)) ? null : tokens[2]; 
-		boolean stat = (tokens[3].equals("true")) ? true : false;
-		String desc = tokens[3];
-		
-		return new Task(desc, start, end, name , stat);
-	}
-	
-	@Override
-	public String toString() {
-		String start = (startDateTime == null) ? NULL_START : startDateTime.toString();
-		String end = (endDateTime == null) ? NULL_END : endDateTime.toString();
-		String taskAlias = (alias == null) ? NULL_ALIAS : alias;
-		
-		return start + DELIMITER + end + DELIMITER + taskAlias + DELIMITER + status + DELIMITER + description;
-	}
-	
-	public String toDisplayString() {
-		String start = (startDateTime != null) ? getDateString(startDateTime) : "";
-		String end = (endDateTime != null) ? getDateString(endDateTime) : "";
-		String stat = (status == true) ? "[completed]" : "[incomplete]";
-		String name = (alias != null) ? "[name:" + alias + "]" : "";
-		
-		return String.format(STRING_FORMAT, start, end, stat, name, description);
-	}
-	
-	private String getDateString(DateTime date) {
-		DecimalFormat df = new DecimalFormat("00");
-		
-		String time = df.format(date.getHourOfDay()) + ":" + df.format(date.getMinuteOfHour());
-		String dt = date.toString("dd/MMM/YYYY");
-		
-		return "[" + time + "|" + dt + "]";
-	}
-	
-	@Override
-	public int compareTo(Task task) {
-		if (this.startDateTime != null && task.startDateTime != null) {
-			return this.startDateTime.compareTo(task.startDateTime);
-			
-		} else if (this.startDateTime == null && task.startDateTime != null) {
-			if(this.endDateTime != null) {
-				return this.endDateTime.compareTo(task.startDateTime);
-			}
-			return 1;
-			
-		} else if (this.startDateTime != null && task.startDateTime == null) {
-			if(task.endDateTime != null) {
-				return this.startDateTime.compareTo(task.endDateTime);
-			}
-			return -1;
-			
-		} else {
-			if (this.endDateTime == null && task.endDateTime == null) {
-				return this.description.compareToIgnoreCase(task.description);
-			} else if (this.endDateTime != null && task.endDateTime == null) {
-				return -1;
-			} else if (this.endDateTime == null && task.endDateTime != null) {
-				return 1;
-			} else {
-				return this.endDateTime.compareTo(task.endDateTime);
-			}
-		}
-	}
-	
-	protected static boolean isAliasValid(String alias) {
-		if (alias == null || alias.length() == 0 || alias.equals("")) {
-			return false;
-		}
-		
-		if (getTaskIndexFromAlias(alias) < 0) {
-			return false;
-		}
-		if (alias.equalsIgnoreCase("completed") || alias.equalsIgnoreCase("all")) {
-			return false;
-		}
-		
-		
-		return true;
-	}
-	
-	protected static int getTaskIndexFromAlias(String alias) {
-		for (int i = 0; i < taskList.size(); i++) {
-			if (taskList.get(i).getAlias() == null) {
-				continue;
-			}
-			if (alias.equals(taskList.get(i).getAlias())) {
-				return i;
-			}
-		}
-		
-		return -1;
-	}
-	
-	protected static void saveTasks() {
-		ArrayList<String> listToSave = new ArrayList<String>();
-		for (int i = 0; i < taskList.size(); i++) {
-			String taskStringForm = taskList.get(i).toString();
-			listToSave.add(taskStringForm);
-		}
-		
-		FileManager.writeToFile(FILE_TASK, listToSave);
-	}
-	
-	protected static ArrayList<Task> loadTasks() {
-		ArrayList<Task> listOfTasks = new ArrayList<Task>();
-		ArrayList<String> list = FileManager.readFromFile(FILE_TASK);
-		
-		for (int i = 0; i < list.size(); i++) {
-			String line = list.get(i);
-			listOfTasks.add(parseTaskFromString(line));
-		}
-		
-		return listOfTasks;
-	}
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.ISODateTimeFormat;
+
+class Task implements Comparable<Task>{
+	protected static final String FILE_TASK = "tasks.txt";
+	
+	protected static final int START_DATE = 0;
+	protected static final int START_TIME = 1;
+	protected static final int END_DATE = 2;
+	protected static final int END_TIME = 3;
+	protected static final int TASK_FIELD_SIZE = 4;
+	
+	private static final String DELIMITER = " ~~ ";
+	private static final String NULL_START = "NO_START_TIME";
+	private static final String NULL_END = "NO_END_TIME";
+	private static final String NULL_ALIAS = "NO_ALIAS";
+	private static final String ID_PREFIX = "#";
+	private static final String STRING_FORMAT = "%s%s%s%s %s";
+	private static final long NO_ID = 0;
+	
+	/**
+	 * JOURNAL logs each mutation and checkpoints the whole list from time to time.
+	 * SLOTTED rewrites only the records that changed, in place in tasks.slots.
+	 * SNAPSHOT rewrites the whole task file on every save.
+	 */
+	protected enum StorageMode {
+		JOURNAL, SLOTTED, SNAPSHOT;
+	}
+	
+	private static Logger LOGGER = Logger.getLogger(Task.class.getName());
+	
+	private static volatile StorageMode storageMode = StorageMode.JOURNAL;
+	private static final AtomicInteger nextHandle = new AtomicInteger();
+	private static final AtomicLong lastId = new AtomicLong();
+	
+	private static volatile TaskList taskList;
+	private static Future<TaskList> pendingLoad;
+	private static volatile boolean readOnly = false;
+	
+	private static final Runnable CHECKPOINT = new Runnable() {
+		public void run() {
+			if (!isReadOnly()) {
+				TaskJournal.checkpoint(getList());
+			}
+		}
+	};
+	
+	private static final Runnable FLUSH_SLOTS = new Runnable() {
+		public void run() {
+			if (!isReadOnly()) {
+				SlottedTaskStore.flush(getList());
+			}
+		}
+	};
+	
+	private DateTime startDateTime;
+	private DateTime endDateTime;
+	private String description;
+	private boolean status;
+	private String alias;
+	private boolean dirty = true;
+	private final int handle = nextHandle.incrementAndGet();
+	private long id;
+	private TaskList owner;
+	
+	protected Task(String desc) {
+		this(desc, null, null, null, false);
+	}
+	
+	protected Task(String desc, DateTime start, DateTime end, String name) {
+		this(desc, start, end, name, false);
+	}
+	
+	/**
+	 * Creates a task without an ID. It is given one when it is added to the
+	 * task list, by which time every ID on disk has been read.
+	 */
+	protected Task(String desc, DateTime start, DateTime end, String name, boolean stat) {
+		this(NO_ID, desc, start, end, name, stat);
+	}
+	
+	/**
+	 * Creates a task with an ID it already has, such as one read from a file
+	 */
+	protected Task(long taskId, String desc, DateTime start, DateTime end, String name, boolean stat) {
+		id = taskId;
+		startDateTime = start;
+		endDateTime = end;
+		status = stat;
+		description = desc;
+		alias = name;
+		reserveId(taskId);
+	}
+	
+	/**
+	 * Makes sure new tasks are given IDs above the given one
+	 */
+	private static void reserveId(long taskId) {
+		long last = lastId.get();
+		while (taskId > last && !lastId.compareAndSet(last, taskId)) {
+			last = lastId.get();
+		}
+	}
+	
+	protected void setDescription(String desc) {
+		description = desc;
+		dirty = true;
+		orderChanged();
+	}
+	
+	protected void setStartDateTime(DateTime start) {
+		startDateTime = start;
+		dirty = true;
+		orderChanged();
+	}
+	
+	protected void setEndDateTime(DateTime end) {
+		endDateTime = end; 
+		dirty = true;
+		orderChanged();
+	}
+	
+	protected void toggleStatus() {
+		status = !status;
+		dirty = true;
+		statusChanged();
+	}
+	
+	protected void setAlias(String alias) {	
+		String previous = this.alias;
+		this.alias = alias;
+		dirty = true;
+		aliasChanged(previous);
+	}
+	
+	protected String getDescription() {
+		return description;
+	}
+	
+	protected DateTime getStartDateTime() {
+		return startDateTime;
+	}
+	
+	protected DateTime getEndDateTime() {
+		return endDateTime;
+	}
+	
+	protected boolean getStatus() {
+		return status;
+	}
+	
+	protected String getAlias() {
+		return alias;
+	}
+	
+	/**
+	 * @return a new task with the same fields as this one
+	 */
+	protected Task copy() {
+		return new Task(id, description, startDateTime, endDateTime, alias, status);
+	}
+	
+	/**
+	 * Sets every field of this task to those of the other task
+	 * @param other
+	 */
+	protected void setFields(Task other) {
+		startDateTime = other.startDateTime;
+		endDateTime = other.endDateTime;
+		description = other.description;
+		status = other.status;
+		String previous = alias;
+		alias = other.alias;
+		dirty = true;
+		aliasChanged(previous);
+		orderChanged();
+	}
+	
+	/**
+	 * @return the ID of the task, which stays the same across edits and restarts
+	 * and is shared by copies of the task
+	 */
+	protected long getId() {
+		return id;
+	}
+	
+	/**
+	 * Gives the task a new ID if it does not have one yet
+	 */
+	protected void assignId() {
+		if (id == NO_ID) {
+			id = lastId.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Gives a new ID to every task that has none, such as one read from a file
+	 * written before tasks had IDs, and to every task after the first that
+	 * shares an ID with another
+	 * @param tasks
+	 * @return true if any task was given a new ID
+	 */
+	protected static boolean assignIds(List<Task> tasks) {
+		HashSet<Long> seen = new HashSet<Long>();
+		boolean assigned = false;
+		for (int i = 0; i < tasks.size(); i++) {
+			Task task = tasks.get(i);
+			if (task.id == NO_ID || !seen.add(task.id)) {
+				task.id = lastId.incrementAndGet();
+				seen.add(task.id);
+				assigned = true;
+			}
+		}
+		return assigned;
+	}
+	
+	/**
+	 * @return a number that identifies this task object for as long as the program runs
+	 */
+	protected int getHandle() {
+		return handle;
+	}
+	
+	/**
+	 * Exchanges every field of this task with those of the other task
+	 * @param other
+	 */
+	protected void swapFields(Task other) {
+		DateTime start = startDateTime;
+		DateTime end = endDateTime;
+		String desc = description;
+		boolean stat = status;
+		String name = alias;
+		
+		startDateTime = other.startDateTime;
+		endDateTime = other.endDateTime;
+		description = other.description;
+		status = other.status;
+		alias = other.alias;
+		dirty = true;
+		
+		other.startDateTime = start;
+		other.endDateTime = end;
+		other.description = desc;
+		other.status = stat;
+		other.alias = name;
+		other.dirty = true;
+		
+		aliasChanged(name);
+		other.aliasChanged(alias);
+		orderChanged();
+		other.orderChanged();
+	}
+	
+	/**
+	 * @return the list this task is in, or null if it is in none
+	 */
+	protected TaskList getOwner() {
+		return owner;
+	}
+	
+	protected void setOwner(TaskList list) {
+		owner = list;
+	}
+	
+	private void aliasChanged(String previous) {
+		if (owner != null) {
+			owner.aliasChanged(this, previous);
+		}
+	}
+	
+	private void orderChanged() {
+		if (owner != null) {
+			owner.orderChanged(this);
+		}
+	}
+	
+	private void statusChanged() {
+		if (owner != null) {
+			owner.statusChanged(this);
+		}
+	}
+	
+	/**
+	 * @return true if the task has changed since it was last written to the slotted store
+	 */
+	protected boolean isDirty() {
+		return dirty;
+	}
+	
+	protected void clearDirty() {
+		dirty = false;
+	}
+	
+	protected static StorageMode getStorageMode() {
+		return storageMode;
+	}
+	
+	/**
+	 * Switches how the task list is persisted. The list is written out in the
+	 * new mode straight away and the files of the old mode are removed, so the
+	 * two never disagree. Set the mode before loading to avoid the rewrite.
+	 * If the list could not be loaded, only the mode is changed and the files
+	 * are left for the next load to convert.
+	 * @param mode
+	 */
+	protected static void setStorageMode(StorageMode mode) {
+		synchronized (WriteBehindPersister.STORE_LOCK) {
+			if (mode == storageMode) {
+				return;
+			}
+			
+			WriteBehindPersister.flush();
+			boolean loaded = (taskList != null || pendingLoad != null);
+			if (loaded && isReadOnly()) {
+				loaded = false;
+			}
+			storageMode = mode;
+			if (!loaded) {
+				return;
+			}
+			
+			if (mode == StorageMode.SLOTTED) {
+				if (SlottedTaskStore.rewrite(getList())) {
+					TaskJournal.discard();
+				}
+			} else if (TaskJournal.checkpoint(getList())) {
+				SlottedTaskStore.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Starts loading the task list in the background if it has not been loaded yet
+	 */
+	protected static synchronized void startLoading() {
+		if (taskList != null || pendingLoad != null) {
+			return;
+		}
+		
+		pendingLoad = BackgroundLoader.submit(new Callable<TaskList>() {
+			public TaskList call() {
+				return new TaskList(loadTasks());
+			}
+		});
+	}
+	
+	/**
+	 * Returns the task list, waiting for it to finish loading if needed
+	 * @return the task list
+	 */
+	protected static TaskList getList() {
+		if (taskList == null) {
+			awaitLoad();
+		}
+		return taskList;
+	}
+	
+	private static synchronized void awaitLoad() {
+		if (taskList != null) {
+			return;
+		}
+		
+		startLoading();
+		TaskList loaded = BackgroundLoader.await(pendingLoad, null, FILE_TASK);
+		pendingLoad = null;
+		readOnly = (loaded == null);
+		taskList = (loaded == null) ? new TaskList() : loaded;
+	}
+	
+	/**
+	 * @return true if the task list could not be loaded. The list is then
+	 * empty and nothing is saved, so the files on disk are left as they are.
+	 */
+	protected static boolean isReadOnly() {
+		getList();
+		return readOnly;
+	}
+	
+	/**
+	 * Loads the task list again if the last load failed
+	 * @return true if the task list is loaded
+	 */
+	protected static synchronized boolean retryLoad() {
+		if (!isReadOnly()) {
+			return true;
+		}
+		
+		try {
+			taskList = new TaskList(loadTasks());
+			readOnly = false;
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Error loading " + FILE_TASK, e);
+		}
+		return !readOnly;
+	}
+	
+	protected static void setList(TaskList list) {
+		taskList = list;
+	}
+	
+	/**
+	 * @param taskId
+	 * @return the task in the list with the ID, or null if there is none
+	 */
+	protected static Task getTaskById(long taskId) {
+		return getList().getById(taskId);
+	}	
+	
+	/**
+	 * Parses a task from its string form. Lines written before tasks had IDs
+	 * are accepted too, and the task is given an ID when it is added to the list.
+	 * @param line
+	 * @return the task
+	 * @throws IllegalArgumentException if the line is not a valid task
+	 */
+	protected static Task parseTaskFromString(String line) {
+		long taskId = parseId(line);
+		String content = removeId(line);
+		
+		String[] tokens = content.split(DELIMITER, 5);
+		if (tokens.length < 5) {
+			throw new IllegalArgumentException("Malformed task: " + line);
+		}
+		
+		DateTime start = (tokens[0].equals(NULL_START)) ? null : parseDateTime(tokens[0]);
+		DateTime end = (tokens[1].equals(NULL_END)) ? null : parseDateTime(tokens[1]);
+		String name = (tokens[2].equals(NULL_ALIAS)) ? null : tokens[2]; 
+		boolean stat = (tokens[3].equals("true")) ? true : false;
+		String desc = tokens[4];
+		
+		if (taskId <= 0) {
+			return new Task(desc, start, end, name , stat);
+		}
+		return new Task(taskId, desc, start, end, name, stat);
+	}
+	
+	/**
+	 * Parses a date in the form written by DateTime.toString, keeping the
+	 * offset written with it
+	 * @throws IllegalArgumentException if the date is not valid
+	 */
+	private static DateTime parseDateTime(String s) {
+		DateTime parsed = ISODateTimeFormat.dateTimeParser().withOffsetParsed().parseDateTime(s);
+		return toDateTime(parsed.getMillis(), parsed.getZone().getOffset(parsed));
+	}
+	
+	/**
+	 * Gives the instant in the default zone if that zone has the offset at the
+	 * time, and otherwise in a zone fixed at the offset, so that a date saved
+	 * in another zone still reads the same local time once it is loaded
+	 * @param millis
+	 * @param offsetMillis the offset the date had when it was saved
+	 * @return the date
+	 */
+	protected static DateTime toDateTime(long millis, int offsetMillis) {
+		DateTimeZone zone = DateTimeZone.getDefault();
+		if (zone.getOffset(millis) != offsetMillis) {
+			zone = DateTimeZone.forOffsetMillis(offsetMillis);
+		}
+		return new DateTime(millis, zone);
+	}
+	
+	/**
+	 * @param line the string form of a task
+	 * @return the ID in the line, or 0 if it has none
+	 */
+	protected static long parseId(String line) {
+		int end = line.indexOf(DELIMITER);
+		if (!line.startsWith(ID_PREFIX) || end < 0) {
+			return 0;
+		}
+		
+		try {
+			return Long.parseLong(line.substring(ID_PREFIX.length(), end));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * @param line the string form of a task
+	 * @return the line without its ID, which is the form used before tasks had IDs
+	 */
+	protected static String removeId(String line) {
+		if (parseId(line) <= 0) {
+			return line;
+		}
+		return line.substring(line.indexOf(DELIMITER) + DELIMITER.length());
+	}
+	
+	/**
+	 * @return the string form of the task, led by its ID unless it has not been given one yet
+	 */
+	@Override
+	public String toString() {
+		if (id == NO_ID) {
+			return toContentString();
+		}
+		return ID_PREFIX + id + DELIMITER + toContentString();
+	}
+	
+	/**
+	 * @return the string form of the task without its ID
+	 */
+	protected String toContentString() {
+		String start = (startDateTime == null) ? NULL_START : startDateTime.toString();
+		String end = (endDateTime == null) ? NULL_END : endDateTime.toString();
+		String taskAlias = (alias == null) ? NULL_ALIAS : alias;
+		
+		return start + DELIMITER + end + DELIMITER + taskAlias + DELIMITER + status + DELIMITER + description;
+	}
+	
+	public String toDisplayString() {
+		String start = (startDateTime != null) ? getDateString(startDateTime) : "";
+		String end = (endDateTime != null) ? getDateString(endDateTime) : "";
+		String stat = (status == true) ? "[completed]" : "[incomplete]";
+		String name = (alias != null) ? "[name:" + alias + "]" : "";
+		
+		return String.format(STRING_FORMAT, start, end, stat, name, description);
+	}
+	
+	private String getDateString(DateTime date) {
+		DecimalFormat df = new DecimalFormat("00");
+		
+		String time = df.format(date.getHourOfDay()) + ":" + df.format(date.getMinuteOfHour());
+		String dt = date.toString("dd/MMM/YYYY");
+		
+		return "[" + time + "|" + dt + "]";
+	}
+	
+	@Override
+	public int compareTo(Task task) {
+		if (this.startDateTime != null && task.startDateTime != null) {
+			return this.startDateTime.compareTo(task.startDateTime);
+			
+		} else if (this.startDateTime == null && task.startDateTime != null) {
+			if(this.endDateTime != null) {
+				return this.endDateTime.compareTo(task.startDateTime);
+			}
+			return 1;
+			
+		} else if (this.startDateTime != null && task.startDateTime == null) {
+			if(task.endDateTime != null) {
+				return this.startDateTime.compareTo(task.endDateTime);
+			}
+			return -1;
+			
+		} else {
+			if (this.endDateTime == null && task.endDateTime == null) {
+				return this.description.compareToIgnoreCase(task.description);
+			} else if (this.endDateTime != null && task.endDateTime == null) {
+				return -1;
+			} else if (this.endDateTime == null && task.endDateTime != null) {
+				return 1;
+			} else {
+				return this.endDateTime.compareTo(task.endDateTime);
+			}
+		}
+	}
+	
+	protected static boolean isAliasValid(String alias) {
+		if (alias == null || alias.length() == 0 || alias.equals("")) {
+			return false;
+		}
+		
+		if (getTaskIndexFromAlias(alias) < 0) {
+			return false;
+		}
+		if (alias.equalsIgnoreCase("completed") || alias.equalsIgnoreCase("all")) {
+			return false;
+		}
+		
+		
+		return true;
+	}
+	
+	protected static int getTaskIndexFromAlias(String alias) {
+		return getList().indexOfAlias(alias);
+	}
+	
+	/**
+	 * Rewrites the whole task file. This also acts as a checkpoint,
+	 * so the mutation log is emptied afterwards. In SLOTTED mode only the
+	 * records that differ from the file are written. With write-behind on,
+	 * the write happens on the next flush. Nothing is saved while the list
+	 * is read-only.
+	 */
+	protected static void saveTasks() {
+		if (readOnly) {
+			return;
+		}
+		if (storageMode == StorageMode.SLOTTED) {
+			SlottedTaskStore.requestSync();
+			WriteBehindPersister.markDirty(SlottedTaskStore.FILE_SLOTS, FLUSH_SLOTS);
+		} else {
+			WriteBehindPersister.markDirty(FILE_TASK, CHECKPOINT);
+		}
+	}
+	
+	protected static void saveTaskAdded(Task task) {
+		if (readOnly) {
+			return;
+		}
+		if (storageMode == StorageMode.JOURNAL) {
+			TaskJournal.logAdd(task);
+		} else if (storageMode == StorageMode.SLOTTED) {
+			SlottedTaskStore.recordChanged(task);
+			WriteBehindPersister.markDirty(SlottedTaskStore.FILE_SLOTS, FLUSH_SLOTS);
+		} else {
+			saveTasks();
+		}
+	}
+	
+	/**
+	 * Persists a change to a single task
+	 * @param previous the string form of the task before it was changed
+	 * @param original the task before the change, which is the task itself unless the update replaced it
+	 * @param task
+	 */
+	protected static void saveTaskUpdated(String previous, Task original, Task task) {
+		if (readOnly) {
+			return;
+		}
+		if (storageMode == StorageMode.JOURNAL) {
+			TaskJournal.logUpdate(previous, task);
+		} else if (storageMode == StorageMode.SLOTTED) {
+			if (original != task) {
+				SlottedTaskStore.recordReplaced(original, task);
+			} else {
+				SlottedTaskStore.recordChanged(task);
+			}
+			WriteBehindPersister.markDirty(SlottedTaskStore.FILE_SLOTS, FLUSH_SLOTS);
+		} else {
+			saveTasks();
+		}
+	}
+	
+	/**
+	 * Persists a toggle of the status of each of the tasks
+	 * @param tasks the marked tasks
+	 * @param previous the string forms of the tasks before they were marked
+	 */
+	protected static void saveTasksMarked(ArrayList<Task> tasks, ArrayList<String> previous) {
+		if (readOnly) {
+			return;
+		}
+		if (storageMode == StorageMode.JOURNAL) {
+			for (int i = 0; i < previous.size(); i++) {
+				TaskJournal.logMark(previous.get(i));
+			}
+		} else if (storageMode == StorageMode.SLOTTED) {
+			for (int i = 0; i < tasks.size(); i++) {
+				SlottedTaskStore.recordChanged(tasks.get(i));
+			}
+			WriteBehindPersister.markDirty(SlottedTaskStore.FILE_SLOTS, FLUSH_SLOTS);
+		} else {
+			saveTasks();
+		}
+	}
+	
+	protected static void saveTasksDeleted(ArrayList<Task> tasks) {
+		if (readOnly) {
+			return;
+		}
+		if (storageMode == StorageMode.JOURNAL) {
+			for (int i = 0; i < tasks.size(); i++) {
+				TaskJournal.logDelete(tasks.get(i));
+			}
+		} else if (storageMode == StorageMode.SLOTTED) {
+			for (int i = 0; i < tasks.size(); i++) {
+				SlottedTaskStore.recordRemoved(tasks.get(i));
+			}
+			WriteBehindPersister.markDirty(SlottedTaskStore.FILE_SLOTS, FLUSH_SLOTS);
+		} else {
+			saveTasks();
+		}
+	}
+	
+	protected static void saveAllTasksDeleted() {
+		if (readOnly) {
+			return;
+		}
+		if (storageMode == StorageMode.JOURNAL) {
+			TaskJournal.logClear();
+		} else if (storageMode == StorageMode.SLOTTED) {
+			SlottedTaskStore.recordsCleared();
+			WriteBehindPersister.markDirty(SlottedTaskStore.FILE_SLOTS, FLUSH_SLOTS);
+		} else {
+			saveTasks();
+		}
+	}
+	
+	/**
+	 * Reads the task list in the current storage mode. Tasks read without an
+	 * ID or with the ID of another task are given new ones, and the list is
+	 * written straight back so the IDs on disk match those in memory.
+	 * @return the list of tasks
+	 */
+	protected static ArrayList<Task> loadTasks() {
+		ArrayList<Task> tasks = readTasks();
+		if (assignIds(tasks)) {
+			if (storageMode == StorageMode.SLOTTED) {
+				SlottedTaskStore.rewrite(tasks);
+			} else {
+				TaskJournal.checkpoint(tasks);
+			}
+		}
+		return tasks;
+	}
+	
+	/**
+	 * Reads the task list in the current storage mode. Files left behind by
+	 * the other mode are read instead if they exist, and converted.
+	 * @return the list of tasks
+	 */
+	private static ArrayList<Task> readTasks() {
+		if (storageMode == StorageMode.SLOTTED) {
+			if (SlottedTaskStore.exists()) {
+				return SlottedTaskStore.load();
+			}
+			ArrayList<Task> tasks = TaskJournal.load();
+			if (SlottedTaskStore.rewrite(tasks)) {
+				TaskJournal.discard();
+			}
+			return tasks;
+		}
+		
+		if (SlottedTaskStore.exists()) {
+			ArrayList<Task> tasks = SlottedTaskStore.load();
+			if (TaskJournal.checkpoint(tasks)) {
+				SlottedTaskStore.delete();
+			}
+			return tasks;
+		}
+		return TaskJournal.load();
+	}
 }
\ No newline at end of file
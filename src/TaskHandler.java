@@ -1,479 +1,700 @@
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.Stack;
-
-import org.joda.time.DateTime;
-
-class TaskHandler {
-	private static final String MESSAGE_ADD_EMPTY = "Error, please add a task description.\n";
-	private static final String MESSAGE_ADDED_TASK = "Added \"%s\".\n";
-	private static final String MESSAGE_EMPTY_TASKS = "You have no tasks scheduled.\n";
-	private static final String MESSAGE_UPDATE_TASK = "Task has been updated.\n";
-	private static final String MESSAGE_UPDATE_NO_SUCH_TASK = "Error, please enter a valid task number to update.\n";
-	private static final String MESSAGE_UPDATE_ARGUMENT_ERROR = "Error, incorrect update format.\n";
-	private static final String MESSAGE_LIST_NUMBER = "%d. %s\n";
-	private static final String MESSAGE_DELETE_EMPTY = "Error, please indicate a task number or alias to delete.\n";
-	private static final String MESSAGE_DELETE_ARGUMENT_ERROR = "Error, incorrect delete format.\n";
-	private static final String MESSAGE_TASK_DELETED = "\"%s\" has been deleted from the task list.\n";
-	private static final String MESSAGE_TASK_DELETED_ALL = "All tasks have been deleted from the task list.\n";
-	private static final String MESSAGE_INVALID_DELETE = "No such task, please enter a valid number to delete.\n";
-	
-	private static final String MINUTE_LAST = "23:59";
-	private static final String MINUTE_FIRST = "00:00";
-	
-	
-	//////////ADD Functionality//////////
-	
-	/**
-	 * Add a task using the user input
-	 * @param userInput
-	 * @return a Feedback object to be shown to the user
-	 */
-	protected static Feedback addTask(String userInput) {
-		if (!CommandParser.isInputValid(userInput, 1)) {
-			return new Feedback(MESSAGE_ADD_EMPTY);
-		}
-		
-		Task newTask = createTask(userInput);
-		
-		HistoryHandler.pushUndoStack();
-		Task.getList().add(newTask);
-		Task.sortList();
-		Task.saveTasks();
-		HistoryHandler.purgeRedoStack();
-		return new Feedback(String.format(MESSAGE_ADDED_TASK, userInput));
-	}
-	
-	
-	protected static Task createTask(String userInput) {
-		String[] inputTokens = userInput.split("\\s+");
-		ArrayList<String> input = new ArrayList<String>(Arrays.asList(inputTokens));
-		
-		String alias = CommandParser.getAliasFromDescription(userInput);		
-		alias = (Task.isAliasValid(alias) || isInteger(alias)) ? null : alias;
-		userInput = CommandParser.removeDateTimeFromString(userInput);
-		userInput = CommandParser.removeAliasFromDescription(userInput);
-		
-		String[] fields = CommandParser.getTaskFields(input);
-		Task newTask = createTaskFromFields(fields, userInput, alias);
-		
-		return newTask;
-	}
-	
-	/**
-	 * Reads the user input and time fields and creates a Task object
-	 * @param fields
-	 * @param input
-	 * @return Task object	
-	 */
-	private static Task createTaskFromFields(String[] fields, String input, String alias) {
-		DateTime start = null;
-		DateTime end = null;
-	
-		if (fields[Task.START_DATE] == null) {
-			if (fields[Task.START_TIME] != null) {
-				start = DateParser.setDate();
-				start = TimeParser.setTime(start, fields[Task.START_TIME]);
-				
-				// If null, "Deadline" Task with today's date
-				// Else, Timed Task with today's date
-				if (fields[Task.END_TIME] != null) {
-					end = DateParser.setDate();
-					end = TimeParser.setTime(start, fields[Task.END_TIME]);
-				} 
-			}
-		} else {
-			start = DateParser.setDate(fields[Task.START_DATE]);
-			
-			if (fields[Task.START_TIME] == null) {
-				if (fields[Task.END_DATE] == null) {
-					// "Deadline" Task with only start date
-					start = TimeParser.setTime(start, MINUTE_LAST);
-				} else {
-					// Timed Task with start and end dates but no time
-					start = TimeParser.setTime(start, MINUTE_FIRST);
-					end = DateParser.setDate(fields[Task.END_DATE]);
-					end = TimeParser.setTime(end, MINUTE_LAST);
-				}
-				
-			} else {
-				start = TimeParser.setTime(start, fields[Task.START_TIME]);
-				
-				if (fields[Task.END_DATE] == null) {
-					if (fields[Task.END_TIME] != null) {
-						// Timed Task with start and end times within one specific date
-						end = DateParser.setDate(fields[Task.START_DATE]);
-						end = TimeParser.setTime(end, fields[Task.END_TIME]);
-					}
-				} else {
-					end = DateParser.setDate(fields[Task.END_DATE]);
-					
-					if (fields[Task.END_TIME] == null) {
-						// Timed Task with start time, start and end dates, but no end time
-						end = TimeParser.setTime(end, MINUTE_LAST);
-					} else {
-						// Timed Task with start and end time/dates
-						end = TimeParser.setTime(end, fields[Task.END_TIME]);
-					}
-				}
-			}
-		}
-
-		return new Task(input, start, end, alias);
-	}
-	
-	
-	//////////UPDATE Functionality//////////
-	
-	/**
-	 * Updates a task in the specified field
-	 * Input format is "[task number/alias][field to update][update]
-	 * @param update
-	 * @return a Feedback object to be shown to the user
-	 */
-	protected static Feedback updateTask(String update) {	
-		if (!CommandParser.isInputValid(update, 2)) {
-			return new Feedback(MESSAGE_UPDATE_ARGUMENT_ERROR);
-		}
-		
-		String taskID = CommandParser.getUserCommandType(update);
-		String updateStringWithoutID = CommandParser.getUserCommandDesc(update);
-		String updateField = CommandParser.getUserCommandType(updateStringWithoutID);
-		String updateDesc = CommandParser.getUserCommandDesc(updateStringWithoutID);
-		
-		Task taskToUpdate = getTaskToUpdate(taskID);
-		
-		if (taskToUpdate == null) {
-			return new Feedback(MESSAGE_UPDATE_NO_SUCH_TASK);
-		}
-		
-		if (updateField.equalsIgnoreCase("start") || updateField.equalsIgnoreCase("end") || updateField.equalsIgnoreCase("time")) {
-			if (!CommandParser.isInputValid(updateDesc, 1)) {
-				return new Feedback(MESSAGE_UPDATE_ARGUMENT_ERROR);
-			}
-			taskToUpdate = updateTaskTime(taskToUpdate, updateField, updateDesc);
-			
-		} else if (updateField.equals("alias")) {
-			String[] tokens = updateDesc.split("\\s+");
-			if (tokens.length <= 0) {
-				// since the task is previously removed, it needs to be put back in in the event of an error
-				Task.getList().add(taskToUpdate);
-				return new Feedback("Invalid alias");
-			}
-			
-			String alias = tokens[0];	
-			if (Task.isAliasValid(alias) || isInteger(alias)) {
-				Task.getList().add(taskToUpdate);
-				return new Feedback("Alias is already in use");
-			
-			} else {
-				taskToUpdate.setAlias(alias);
-			}
-			
-		} else if (updateField.equals("desc") || updateField.equals("description")) {
-			if (!CommandParser.isInputValid(updateDesc, 1)) {
-				return new Feedback(MESSAGE_UPDATE_ARGUMENT_ERROR);
-			}
-			
-			taskToUpdate.setDescription(updateDesc);
-		} else {
-			taskToUpdate = createTask(updateStringWithoutID);
-		}
-		
-		Task.getList().add(taskToUpdate);
-		Task.sortList();
-		Task.saveTasks();
-		return new Feedback(MESSAGE_UPDATE_TASK);
-	}
-	
-	protected static Feedback markTask(String taskID) {
-		ArrayList<Integer> listToMark = getTaskIdFromString(taskID);
-		
-		if(listToMark.size() == 0) {
-			return new Feedback("Nothing to mark.\n");
-		}
-		
-		for (int i = 0; i < listToMark.size(); i++) {
-			Task.getList().get((int)listToMark.get(i)).toggleStatus();
-		}
-		
-		return new Feedback("Tasks have been marked.\n");
-	}
-	
-	private static Task updateTaskTime(Task task, String field, String update) {
-		ArrayList<String> updateTokens = new ArrayList<String>(Arrays.asList(update.split("\\s+")));
-		String[] timeFields = CommandParser.getTaskFields(updateTokens);
-		
-		if (field.equalsIgnoreCase("time")) {
-			Task tempTask = createTask(update);
-			task.setStartDateTime(tempTask.getStartDateTime());
-			task.setEndDateTime(tempTask.getEndDateTime());
-		} else {
-			DateTime date = task.getStartDateTime();
-			if (timeFields[Task.START_DATE] == null && timeFields[Task.START_TIME] == null) {
-				return task;
-			} else if (timeFields[Task.START_DATE] == null) {
-				date = TimeParser.setTime(date, timeFields[Task.START_TIME]);
-			} else if (timeFields[Task.START_TIME] == null) {
-				date = DateParser.setDate(timeFields[Task.START_DATE]);
-				date = TimeParser.setTime(date, MINUTE_LAST);
-			}
-			
-			if (field.equalsIgnoreCase("start")) {
-				task.setStartDateTime(date);
-			} else {
-				task.setEndDateTime(date);
-			}
-		}
-		
-		return task;
-	}
-	
-	private static Task getTaskToUpdate(String taskID) {
-		Task taskToUpdate = null;
-		int index = -1;
-		
-		if (isInteger(taskID)) {
-			index = Integer.parseInt(taskID) - 1;
-		} else if (Task.isAliasValid(taskID)) {
-			index = Task.getTaskIndexFromAlias(taskID);
-		}
-		
-		if (index < 0 || index >= Task.getList().size()) {
-			return null;
-		}
-		
-		
-		taskToUpdate = Task.getList().get(index);
-		Task.getList().remove(index);
-		
-		return taskToUpdate;
-	}
-	
-	
-	//////////READ Functionality//////////
-	
-	protected static Feedback listTasks(String userInput) {
-		Task.sortList();
-		ArrayList<Task> taskList = Task.getList();
-		ArrayList<Integer> numberList;
-		
-		if (userInput == null) {
-			numberList = getListOfAllTasks();
-		} else {
-			if (userInput.equals("incomplete")) {
-				numberList = getListOfTaskWithStatus(false);
-			} else if (userInput.equals("completed")) {
-				numberList = getListOfTaskWithStatus(true);
-			} else if (userInput.equals("overdue")) {
-				numberList = getListOfOverdueTask();
-			} else if (DateParser.isDate(userInput)) {
-				numberList = getListOfTaskWithDate(userInput);
-			} else {
-				numberList = getListOfAllTasks();
-			}
-		}
-		
-		if (numberList.size() == 0) {
-			return new Feedback(MESSAGE_EMPTY_TASKS);
-		}
-		
-		String feedback = "";
-		for (int i = 0; i < numberList.size(); i++) {
-			int index = (int) numberList.get(i);
-			feedback = feedback + String.format(MESSAGE_LIST_NUMBER, index + 1, taskList.get(i).toDisplayString());
-		}
-		return new Feedback(feedback);
-	}
-	
-	/**
-	 * Displays all the tasks in order of date
-	 * @return a Feedback Object to be shown to the user
-	 */
-	private static ArrayList<Integer> getListOfAllTasks() {
-		ArrayList<Integer> numberList = new ArrayList<Integer>();
-		if (!Task.getList().isEmpty()) {
-			for (int i = 0; i < Task.getList().size(); i++) {
-				numberList.add(i);
-			}
-		}
-		return numberList;
-	}
-	
-	private static ArrayList<Integer> getListOfTaskWithStatus(boolean completed) {
-		ArrayList<Task> list = Task.loadTasks();
-		ArrayList<Integer> numberList = new ArrayList<Integer>();
-		
-		for (int i = 0; i < list.size(); i++) {
-			if (list.get(i).getStatus() == completed) {
-				numberList.add(i);
-			}
-		}
-		
-		return numberList;
-	}
-	
-	private static ArrayList<Integer> getListOfOverdueTask() {
-		ArrayList<Task> list = Task.loadTasks();
-		ArrayList<Integer> numberList = new ArrayList<Integer>();
-		
-		for (int i = 0; i < list.size(); i++) {
-			DateTime start = list.get(i).getStartDateTime();
-			DateTime end = list.get(i).getEndDateTime();
-			
-			if (start != null && end != null) { 
-				if (start.isBeforeNow() || end.isBeforeNow() && list.get(i).getStatus() == false) {
-					numberList.add(i);
-				} 
-			} else if (start != null && start.isBeforeNow() && list.get(i).getStatus() == false) {
-					numberList.add(i);
-			} else if (end != null && end.isBeforeNow() && list.get(i).getStatus() == false) {
-					numberList.add(i);
-			}
-		}
-		
-		return numberList;
-	}
-	
-	private static ArrayList<Integer> getListOfTaskWithDate(String input) {
-		DateTime date = DateParser.setDate(input);
-		
-		ArrayList<Task> list = Task.loadTasks();
-		ArrayList<Integer> numberList = new ArrayList<Integer>();
-		
-		for (int i = 0; i < list.size(); i++) {
-			DateTime start = list.get(i).getStartDateTime();
-			DateTime end = list.get(i).getEndDateTime();
-			
-			if (start != null && end != null) { 
-				if (DateParser.isSameDate(start, date) || DateParser.isSameDate(end, date)) {
-					numberList.add(i);
-				} 
-			} else if (start != null) {
-				if (DateParser.isSameDate(start, date)) {
-					numberList.add(i);
-				}
-			} else if (end != null) {
-				if (DateParser.isSameDate(end, date)) {
-					numberList.add(i);
-				}
-			}
-			
-		}
-		
-		return numberList;
-	}
-	
-	//////////DELETE Functionality//////////
-	
-	/**
-	 * Removes a task from the taskList
-	 * @param taskID
-	 * @return a Feedback object to be shown to the user
-	 */
-	protected static Feedback deleteTask(String taskID) {
-		if (!CommandParser.isInputValid(taskID, 1)) {
-			return new Feedback(MESSAGE_DELETE_ARGUMENT_ERROR);
-		}
-		
-		if (taskID.equalsIgnoreCase("completed")) {
-			HistoryHandler.pushUndoStack();
-			deleteCompleted();
-			Task.saveTasks();
-			HistoryHandler.purgeRedoStack();
-			return new Feedback("All completed tasks have been deleted.\n");
-			
-		} else if (taskID.equalsIgnoreCase("all")) {
-			HistoryHandler.pushUndoStack();
-			deleteAll();
-			Task.saveTasks();
-			HistoryHandler.purgeRedoStack();
-			return new Feedback("All tasks have been deleted.\n");
-		} else {
-			ArrayList<Integer> listToDelete = getTaskIdFromString(taskID);
-			
-			if (listToDelete.size() == 0) {
-				return new Feedback("No such tasks.\n");
-			}
-			
-			HistoryHandler.pushUndoStack();
-			deleteList(listToDelete);
-			Task.saveTasks();
-			HistoryHandler.purgeRedoStack();
-			return new Feedback("All specified tasks have been deleted.\n");
-		}
-		
-	}
-	
-	private static void deleteList(ArrayList<Integer> list) {
-		ArrayList<Task> taskList = Task.getList();
-		for (int i = 0; i < list.size(); i++) {
-			taskList.remove((int)list.get(i));
-		}
-		Task.setList(taskList);
-	}
-	
-	private static void deleteCompleted() {
-		ArrayList<Task> taskList = Task.getList();
-		
-		for (int i = 0; i < taskList.size(); i++) {
-			if (taskList.get(i).getStatus()) {
-				taskList.remove(i);
-				i--;
-			}
-		}
-	}
-	
-	private static void deleteAll() {
-		Task.setList(new ArrayList<Task>());
-	}
-	
-	private static boolean isOutOfDeleteRange(int index) {
-		if (index >= 0 && index < Task.getList().size()) {
-			return false;
-		} else {
-			return true;
-		}
-	}
-	
-	private static ArrayList<Integer> getTaskIdFromString(String list) {
-		String[] tempList = list.split("\\s+");
-		Set<Integer> deleteList = new HashSet<Integer>();
-		
-		for (int i = 0; i < tempList.length; i++) {
-			int index = -1;
-			
-			if (isInteger(tempList[i])) {
-				index = Integer.parseInt(tempList[i]) - 1;
-			} else if (Task.isAliasValid(tempList[i])) {
-				index = Task.getTaskIndexFromAlias(tempList[i]);
-			} 
-			
-			if (!isOutOfDeleteRange(index)) {
-				deleteList.add(index);
-			}
-			
-		}
-		
-		ArrayList<Integer> dList = new ArrayList<Integer>(deleteList);
-		Collections.sort(dList);
-		Collections.reverse(dList);
-		
-		return dList;
-	}
-	
-	private static boolean isInteger(String str) {
-		try {
-			Integer.parseInt(str);
-			return true;
-		} catch (NumberFormatException e) {
-			return false;
-		}
-	}
-	
-	//search
-		
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Stack;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.LocalDate;
+
+class TaskHandler {
+	private static final String MESSAGE_ADD_EMPTY = "Error, please add a task description.\n";
+	private static final String MESSAGE_ADDED_TASK = "Added \"%s\".\n";
+	private static final String MESSAGE_EMPTY_TASKS = "You have no tasks scheduled.\n";
+	private static final String MESSAGE_UPDATE_TASK = "Task has been updated.\n";
+	private static final String MESSAGE_UPDATE_NO_SUCH_TASK = "Error, please enter a valid task number to update.\n";
+	private static final String MESSAGE_UPDATE_ARGUMENT_ERROR = "Error, incorrect update format.\n";
+	private static final String MESSAGE_LIST_NUMBER = "%d. %s\n";
+	private static final String MESSAGE_DELETE_EMPTY = "Error, please indicate a task number or alias to delete.\n";
+	private static final String MESSAGE_DELETE_ARGUMENT_ERROR = "Error, incorrect delete format.\n";
+	private static final String MESSAGE_TASK_DELETED = "\"%s\" has been deleted from the task list.\n";
+	private static final String MESSAGE_TASK_DELETED_ALL = "All tasks have been deleted from the task list.\n";
+	private static final String MESSAGE_INVALID_DELETE = "No such task, please enter a valid number to delete.\n";
+	private static final String MESSAGE_SEARCH_EMPTY = "Error, please enter words to search for.\n";
+	private static final String MESSAGE_SEARCH_NOT_FOUND = "No tasks match your search.\n";
+	private static final String MESSAGE_SEARCH_CLOSE = "No exact matches, showing the closest ones:\n";
+	private static final String MESSAGE_CLASH = "Warning, this clashes with:\n";
+	private static final String MESSAGE_CLASH_TASK = "  %s\n";
+	private static final String MESSAGE_FREE_ARGUMENT_ERROR = "Error, please enter a length of time such as 2h, 90m or 1h30m.\n";
+	private static final String MESSAGE_FREE_SLOT = "You are free from %s to %s.\n";
+	private static final String MESSAGE_FREE_NONE = "There is no free time of that length.\n";
+	private static final String MESSAGE_FREE_TOO_LONG = "Error, please enter a length of time no longer than a month.\n";
+	
+	private static final String LIST_WEEK = "week";
+	private static final String LIST_MONTH = "month";
+	private static final String FORMAT_FREE_TIME = "HH:mm dd/MMM/YYYY";
+	private static final Pattern DURATION = Pattern.compile("(?:(\\d+)h)?(?:(\\d+)m)?");
+	private static final long MAX_FREE_MINUTES = 31 * 24 * 60;
+	
+	// IDs of the tasks in the order the last list command numbered them
+	private static ArrayList<Long> shownTaskIds = null;
+	
+	
+	//////////ADD Functionality//////////
+	
+	/**
+	 * Add a task using the user input
+	 * @param userInput
+	 * @return a Feedback object to be shown to the user
+	 */
+	protected static Feedback addTask(String userInput) {
+		if (!CommandParser.isInputValid(userInput, 1)) {
+			return new Feedback(MESSAGE_ADD_EMPTY);
+		}
+		
+		Task newTask = createTask(userInput);
+		
+		Task.getList().add(newTask);
+		Task.saveTaskAdded(newTask);
+		HistoryHandler.pushUndoStack(new UndoDelta().addInserted(newTask));
+		HistoryHandler.purgeRedoStack();
+		return new Feedback(String.format(MESSAGE_ADDED_TASK, userInput) + getClashWarning(newTask));
+	}
+	
+	
+	protected static Task createTask(String userInput) {
+		return createTask(userInput, null);
+	}
+	
+	/**
+	 * @param userInput
+	 * @param updating the task whose fields the new one will replace, which may keep its own alias
+	 * @return the task described by the input
+	 */
+	private static Task createTask(String userInput, Task updating) {
+		CommandTokens tokens = CommandParser.tokenize(userInput);
+		
+		String alias = CommandParser.getAliasFromDescription(tokens);		
+		alias = (isAliasTaken(alias, updating) || isInteger(alias)) ? null : alias;
+		userInput = CommandParser.getDescription(tokens);
+		
+		String[] fields = CommandParser.getTaskFields(tokens);
+		Task newTask = createTaskFromFields(fields, userInput, alias);
+		
+		return newTask;
+	}
+	
+	/**
+	 * Reads the user input and time fields and creates a Task object
+	 * @param fields
+	 * @param input
+	 * @return Task object	
+	 */
+	private static Task createTaskFromFields(String[] fields, String input, String alias) {
+		DateTime start = null;
+		DateTime end = null;
+	
+		if (fields[Task.START_DATE] == null) {
+			if (fields[Task.START_TIME] != null) {
+				LocalDate today = new LocalDate();
+				start = TimeParser.setTime(today, TimeParser.getMinuteOfDay(fields[Task.START_TIME]));
+				
+				// If null, "Deadline" Task with today's date
+				// Else, Timed Task with today's date
+				if (fields[Task.END_TIME] != null) {
+					end = TimeParser.setTime(today, TimeParser.getMinuteOfDay(fields[Task.END_TIME]));
+				} 
+			}
+		} else {
+			LocalDate startDate = DateParser.getDate(fields[Task.START_DATE]);
+			
+			if (fields[Task.START_TIME] == null) {
+				if (fields[Task.END_DATE] == null) {
+					// "Deadline" Task with only start date
+					start = TimeParser.setTime(startDate, TimeParser.MINUTE_LAST);
+				} else {
+					// Timed Task with start and end dates but no time
+					start = TimeParser.setTime(startDate, TimeParser.MINUTE_FIRST);
+					end = TimeParser.setTime(DateParser.getDate(fields[Task.END_DATE]), TimeParser.MINUTE_LAST);
+				}
+				
+			} else {
+				start = TimeParser.setTime(startDate, TimeParser.getMinuteOfDay(fields[Task.START_TIME]));
+				
+				if (fields[Task.END_DATE] == null) {
+					if (fields[Task.END_TIME] != null) {
+						// Timed Task with start and end times within one specific date
+						end = TimeParser.setTime(startDate, TimeParser.getMinuteOfDay(fields[Task.END_TIME]));
+					}
+				} else {
+					LocalDate endDate = DateParser.getDate(fields[Task.END_DATE]);
+					
+					if (fields[Task.END_TIME] == null) {
+						// Timed Task with start time, start and end dates, but no end time
+						end = TimeParser.setTime(endDate, TimeParser.MINUTE_LAST);
+					} else {
+						// Timed Task with start and end time/dates
+						end = TimeParser.setTime(endDate, TimeParser.getMinuteOfDay(fields[Task.END_TIME]));
+					}
+				}
+			}
+		}
+
+		return new Task(input, start, end, alias);
+	}
+	
+	
+	//////////UPDATE Functionality//////////
+	
+	/**
+	 * Updates a task in the specified field
+	 * Input format is "[task number/alias][field to update][update]
+	 * @param update
+	 * @return a Feedback object to be shown to the user
+	 */
+	protected static Feedback updateTask(String update) {	
+		if (update == null || update.isEmpty()) {
+			return new Feedback(MESSAGE_UPDATE_ARGUMENT_ERROR);
+		}
+		
+		CommandTokens tokens = CommandParser.tokenize(update);
+		if (tokens.size() < 2) {
+			return new Feedback(MESSAGE_UPDATE_ARGUMENT_ERROR);
+		}
+		
+		String taskID = CommandParser.getToken(tokens, 0);
+		String updateField = CommandParser.getToken(tokens, 1);
+		String updateDesc = tokens.getRest(2);
+		
+		Task taskToUpdate = getTaskFromString(taskID);
+		
+		if (taskToUpdate == null) {
+			return new Feedback(MESSAGE_UPDATE_NO_SUCH_TASK);
+		}
+		
+		Task before = taskToUpdate.copy();
+		String previous = taskToUpdate.toString();
+		
+		if (updateField.equalsIgnoreCase("start") || updateField.equalsIgnoreCase("end") || updateField.equalsIgnoreCase("time")) {
+			if (!CommandParser.isInputValid(updateDesc, 1)) {
+				return new Feedback(MESSAGE_UPDATE_ARGUMENT_ERROR);
+			}
+			taskToUpdate = updateTaskTime(taskToUpdate, updateField, updateDesc);
+			
+		} else if (updateField.equals("alias")) {
+			if (tokens.size() <= 2) {
+				return new Feedback("Invalid alias");
+			}
+			
+			String alias = CommandParser.getToken(tokens, 2);	
+			if (isAliasTaken(alias, taskToUpdate) || isInteger(alias)) {
+				return new Feedback("Alias is already in use");
+			
+			} else {
+				taskToUpdate.setAlias(alias);
+			}
+			
+		} else if (updateField.equals("desc") || updateField.equals("description")) {
+			if (!CommandParser.isInputValid(updateDesc, 1)) {
+				return new Feedback(MESSAGE_UPDATE_ARGUMENT_ERROR);
+			}
+			
+			taskToUpdate.setDescription(updateDesc);
+		} else {
+			taskToUpdate.setFields(createTask(tokens.getRest(1), taskToUpdate));
+		}
+		
+		Task.saveTaskUpdated(previous, taskToUpdate, taskToUpdate);
+		HistoryHandler.pushUndoStack(new UndoDelta().addChanged(taskToUpdate, before));
+		HistoryHandler.purgeRedoStack();
+		return new Feedback(MESSAGE_UPDATE_TASK + getClashWarning(taskToUpdate));
+	}
+	
+	/**
+	 * Toggles the status of every task named after the command word
+	 * @param tokens the tokens of the whole command
+	 * @return a Feedback object to be shown to the user
+	 */
+	protected static Feedback markTask(CommandTokens tokens) {
+		ArrayList<Task> listToMark = getTasksFromTokens(tokens, 1);
+		
+		if(listToMark.size() == 0) {
+			return new Feedback("Nothing to mark.\n");
+		}
+		
+		ArrayList<Task> marked = new ArrayList<Task>();
+		ArrayList<String> previous = new ArrayList<String>();
+		UndoDelta delta = new UndoDelta();
+		for (int i = 0; i < listToMark.size(); i++) {
+			Task task = listToMark.get(i);
+			Task before = task.copy();
+			previous.add(task.toString());
+			task.toggleStatus();
+			delta.addChanged(task, before);
+			marked.add(task);
+		}
+		Task.saveTasksMarked(marked, previous);
+		HistoryHandler.pushUndoStack(delta);
+		HistoryHandler.purgeRedoStack();
+		
+		return new Feedback("Tasks have been marked.\n");
+	}
+	
+	private static Task updateTaskTime(Task task, String field, String update) {
+		String[] timeFields = CommandParser.getTaskFields(CommandParser.tokenize(update));
+		
+		if (field.equalsIgnoreCase("time")) {
+			Task tempTask = createTask(update);
+			task.setStartDateTime(tempTask.getStartDateTime());
+			task.setEndDateTime(tempTask.getEndDateTime());
+		} else {
+			DateTime date = task.getStartDateTime();
+			if (timeFields[Task.START_DATE] == null && timeFields[Task.START_TIME] == null) {
+				return task;
+			} else if (timeFields[Task.START_DATE] == null) {
+				date = TimeParser.setTime(date, timeFields[Task.START_TIME]);
+			} else if (timeFields[Task.START_TIME] == null) {
+				date = TimeParser.setTime(DateParser.getDate(timeFields[Task.START_DATE]), TimeParser.MINUTE_LAST);
+			}
+			
+			if (field.equalsIgnoreCase("start")) {
+				task.setStartDateTime(date);
+			} else {
+				task.setEndDateTime(date);
+			}
+		}
+		
+		return task;
+	}
+	
+	/**
+	 * Finds the task named by a number shown by the last list command or by an alias
+	 * @param taskID
+	 * @return the task, or null if there is no such task
+	 */
+	private static Task getTaskFromString(String taskID) {
+		if (isInteger(taskID)) {
+			return getTaskFromNumber(Integer.parseInt(taskID));
+		} else if (Task.isAliasValid(taskID)) {
+			return Task.getList().get(Task.getTaskIndexFromAlias(taskID));
+		}
+		return null;
+	}
+	
+	/**
+	 * Finds the task the last list command showed with the number, even if
+	 * the list has changed since. Before anything has been listed, the number
+	 * is the position of the task in the sorted list.
+	 * @param number
+	 * @return the task, or null if there is no such task
+	 */
+	private static Task getTaskFromNumber(int number) {
+		if (shownTaskIds == null) {
+			if (number < 1 || number > Task.getList().size()) {
+				return null;
+			}
+			return Task.getList().get(number - 1);
+		}
+		
+		if (number < 1 || number > shownTaskIds.size()) {
+			return null;
+		}
+		return Task.getTaskById(shownTaskIds.get(number - 1));
+	}
+	
+	/**
+	 * @param alias
+	 * @param task
+	 * @return true if a task other than the given one holds the alias
+	 */
+	private static boolean isAliasTaken(String alias, Task task) {
+		if (!Task.isAliasValid(alias)) {
+			return false;
+		}
+		return Task.getList().get(Task.getTaskIndexFromAlias(alias)) != task;
+	}
+	
+	
+	//////////READ Functionality//////////
+	
+	protected static Feedback listTasks(String userInput) {
+		TaskList taskList = Task.getList();
+		SlotBitmap filter = (userInput == null) ? null : getFilter(userInput.trim());
+		int[] numberList = (filter == null) ? getListOfAllTasks() : taskList.indicesOf(filter);
+		
+		ArrayList<Task> tasks = new ArrayList<Task>(numberList.length);
+		for (int i = 0; i < numberList.length; i++) {
+			tasks.add(taskList.get(numberList[i]));
+		}
+		return showTasks(tasks, MESSAGE_EMPTY_TASKS);
+	}
+	
+	/**
+	 * Numbers the tasks from 1 for the user, who can then name them by those numbers
+	 * @param tasks
+	 * @param emptyMessage the message to show if there are no tasks
+	 * @return a Feedback object to be shown to the user
+	 */
+	private static Feedback showTasks(ArrayList<Task> tasks, String emptyMessage) {
+		if (tasks.size() == 0) {
+			shownTaskIds = null;
+			return new Feedback(emptyMessage);
+		}
+		
+		shownTaskIds = new ArrayList<Long>(tasks.size());
+		StringBuilder feedback = new StringBuilder();
+		for (int i = 0; i < tasks.size(); i++) {
+			shownTaskIds.add(tasks.get(i).getId());
+			feedback.append(String.format(MESSAGE_LIST_NUMBER, i + 1, tasks.get(i).toDisplayString()));
+		}
+		return new Feedback(feedback.toString());
+	}
+	
+	/**
+	 * Finds the tasks a list filter picks. A status may be followed by
+	 * another filter to pick the tasks that match both.
+	 * @param userInput
+	 * @return the slots of the tasks picked, or null if every task should be shown
+	 */
+	private static SlotBitmap getFilter(String userInput) {
+		String[] tokens = userInput.split("\\s+", 2);
+		
+		if (tokens[0].equals("incomplete") || tokens[0].equals("completed")) {
+			SlotBitmap status = getListOfTaskWithStatus(tokens[0].equals("completed"));
+			SlotBitmap rest = (tokens.length < 2) ? null : getFilter(tokens[1]);
+			return (rest == null) ? status : SlotBitmap.and(status, rest);
+		} else if (userInput.equals("overdue")) {
+			return getListOfOverdueTask();
+		} else if (DateParser.isDate(userInput)) {
+			return getListOfTaskWithDate(userInput);
+		} else if (isRangeOf(LIST_WEEK, userInput)) {
+			return getListOfTaskInWeek(getDateOfRange(LIST_WEEK, userInput));
+		} else if (isRangeOf(LIST_MONTH, userInput)) {
+			return getListOfTaskInMonth(getDateOfRange(LIST_MONTH, userInput));
+		}
+		return null;
+	}
+	
+	/**
+	 * Displays all the tasks in order of date
+	 * @return a Feedback Object to be shown to the user
+	 */
+	private static int[] getListOfAllTasks() {
+		int[] numberList = new int[Task.getList().size()];
+		for (int i = 0; i < numberList.length; i++) {
+			numberList[i] = i;
+		}
+		return numberList;
+	}
+	
+	private static SlotBitmap getListOfTaskWithStatus(boolean completed) {
+		return Task.getList().slotsWithStatus(completed);
+	}
+	
+	/**
+	 * @return the incomplete tasks whose start or end has passed
+	 */
+	private static SlotBitmap getListOfOverdueTask() {
+		return Task.getList().slotsOverdue(new DateTime());
+	}
+	
+	private static SlotBitmap getListOfTaskWithDate(String input) {
+		LocalDate date = DateParser.getDate(input);
+		return Task.getList().slotsOnDays(date, date);
+	}
+	
+	/**
+	 * @param date
+	 * @return the tasks starting or ending in the week, Monday to Sunday, of the date
+	 */
+	private static SlotBitmap getListOfTaskInWeek(LocalDate date) {
+		LocalDate first = date.withDayOfWeek(DateTimeConstants.MONDAY);
+		LocalDate last = date.withDayOfWeek(DateTimeConstants.SUNDAY);
+		return Task.getList().slotsOnDays(first, last);
+	}
+	
+	/**
+	 * @param date
+	 * @return the tasks starting or ending in the month of the date
+	 */
+	private static SlotBitmap getListOfTaskInMonth(LocalDate date) {
+		LocalDate first = date.withDayOfMonth(1);
+		LocalDate last = date.dayOfMonth().withMaximumValue();
+		return Task.getList().slotsOnDays(first, last);
+	}
+	
+	/**
+	 * @param range "week" or "month"
+	 * @param input
+	 * @return true if the input is the range, alone or followed by a date in it
+	 */
+	private static boolean isRangeOf(String range, String input) {
+		if (input.equalsIgnoreCase(range)) {
+			return true;
+		}
+		String[] tokens = input.split("\\s+", 2);
+		return tokens.length == 2 && tokens[0].equalsIgnoreCase(range) && DateParser.isDate(tokens[1]);
+	}
+	
+	/**
+	 * @param range
+	 * @param input
+	 * @return the date given after the range, or today if there is none
+	 */
+	private static LocalDate getDateOfRange(String range, String input) {
+		String[] tokens = input.split("\\s+", 2);
+		if (tokens.length < 2) {
+			return new LocalDate();
+		}
+		return DateParser.getDate(tokens[1]);
+	}
+	
+	//////////FREE Functionality//////////
+	
+	/**
+	 * Finds the first free stretch of time of at least the given length,
+	 * between now and the end of the week unless another range is given.
+	 * Only timed tasks take up time.
+	 * @param userInput a length such as 2h, 90m or 1h30m, then optionally a date, "week" or "month"
+	 * @return a Feedback object to be shown to the user
+	 */
+	protected static Feedback findFreeTime(String userInput) {
+		if (!CommandParser.isInputValid(userInput, 1)) {
+			return new Feedback(MESSAGE_FREE_ARGUMENT_ERROR);
+		}
+		
+		String[] tokens = userInput.trim().split("\\s+", 2);
+		long minutes = getMinutesFromString(tokens[0]);
+		if (minutes <= 0) {
+			return new Feedback(MESSAGE_FREE_ARGUMENT_ERROR);
+		}
+		if (minutes > MAX_FREE_MINUTES) {
+			return new Feedback(MESSAGE_FREE_TOO_LONG);
+		}
+		
+		DateTime now = new DateTime();
+		DateTime from = now;
+		DateTime to;
+		if (tokens.length < 2 || tokens[1].equalsIgnoreCase(LIST_WEEK)) {
+			to = now.toLocalDate().withDayOfWeek(DateTimeConstants.SUNDAY).plusDays(1).toDateTimeAtStartOfDay();
+		} else if (tokens[1].equalsIgnoreCase(LIST_MONTH)) {
+			to = now.toLocalDate().dayOfMonth().withMaximumValue().plusDays(1).toDateTimeAtStartOfDay();
+		} else if (DateParser.isDate(tokens[1])) {
+			LocalDate day = DateParser.getDate(tokens[1]);
+			from = day.toDateTimeAtStartOfDay();
+			if (from.isBefore(now)) {
+				from = now;
+			}
+			to = day.plusDays(1).toDateTimeAtStartOfDay();
+		} else {
+			return new Feedback(MESSAGE_FREE_ARGUMENT_ERROR);
+		}
+		
+		if (!to.isAfter(from)) {
+			return new Feedback(MESSAGE_FREE_NONE);
+		}
+		
+		DateTime[] slot = Task.getList().findFreeSlot(from, to, minutes);
+		if (slot == null) {
+			return new Feedback(MESSAGE_FREE_NONE);
+		}
+		return new Feedback(String.format(MESSAGE_FREE_SLOT, slot[0].toString(FORMAT_FREE_TIME), slot[1].toString(FORMAT_FREE_TIME)));
+	}
+	
+	/**
+	 * @param duration hours and minutes such as 2h, 90m or 1h30m, or a number of hours
+	 * @return the number of minutes, or -1 if the duration is invalid. Any
+	 *         length over MAX_FREE_MINUTES comes back as MAX_FREE_MINUTES + 1.
+	 */
+	private static long getMinutesFromString(String duration) {
+		if (isInteger(duration)) {
+			return toMinutes(Integer.parseInt(duration), 0);
+		}
+		
+		Matcher matcher = DURATION.matcher(duration.toLowerCase());
+		if (duration.isEmpty() || !matcher.matches()) {
+			return -1;
+		}
+		
+		long hours = (matcher.group(1) == null) ? 0 : parseCount(matcher.group(1));
+		long minutes = (matcher.group(2) == null) ? 0 : parseCount(matcher.group(2));
+		return toMinutes(hours, minutes);
+	}
+	
+	/**
+	 * Adds up the hours and minutes, stopping just past MAX_FREE_MINUTES so
+	 * that no length is large enough to overflow
+	 */
+	private static long toMinutes(long hours, long minutes) {
+		if (hours > MAX_FREE_MINUTES / 60 || minutes > MAX_FREE_MINUTES) {
+			return MAX_FREE_MINUTES + 1;
+		}
+		return hours * 60 + minutes;
+	}
+	
+	/**
+	 * @param digits
+	 * @return the number, or Long.MAX_VALUE if it has too many digits to fit
+	 */
+	private static long parseCount(String digits) {
+		try {
+			return Long.parseLong(digits);
+		} catch (NumberFormatException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+	
+	/**
+	 * @param task
+	 * @return a warning listing the other timed tasks whose time overlaps the task's, or an empty string if there are none
+	 */
+	private static String getClashWarning(Task task) {
+		if (!IntervalTree.isTimed(task)) {
+			return "";
+		}
+		
+		ArrayList<Task> overlapping = Task.getList().getOverlapping(task.getStartDateTime(), task.getEndDateTime());
+		StringBuilder warning = new StringBuilder();
+		for (int i = 0; i < overlapping.size(); i++) {
+			if (overlapping.get(i) != task) {
+				warning.append(String.format(MESSAGE_CLASH_TASK, overlapping.get(i).toDisplayString()));
+			}
+		}
+		return (warning.length() == 0) ? "" : MESSAGE_CLASH + warning.toString();
+	}
+	
+	//////////DELETE Functionality//////////
+	
+	/**
+	 * Removes a task from the taskList
+	 * @param tokens the tokens of the whole command
+	 * @return a Feedback object to be shown to the user
+	 */
+	protected static Feedback deleteTask(CommandTokens tokens) {
+		String taskID = CommandParser.getUserCommandDesc(tokens);
+		if (!CommandParser.isInputValid(taskID, 1)) {
+			return new Feedback(MESSAGE_DELETE_ARGUMENT_ERROR);
+		}
+		
+		if (taskID.equalsIgnoreCase("completed")) {
+			ArrayList<Task> deleted = deleteCompleted();
+			Task.saveTasksDeleted(deleted);
+			HistoryHandler.pushUndoStack(new UndoDelta().addRemoved(deleted));
+			HistoryHandler.purgeRedoStack();
+			return new Feedback("All completed tasks have been deleted.\n");
+			
+		} else if (taskID.equalsIgnoreCase("all")) {
+			ArrayList<Task> deleted = deleteAll();
+			Task.saveAllTasksDeleted();
+			HistoryHandler.pushUndoStack(new UndoDelta().addRemoved(deleted));
+			HistoryHandler.purgeRedoStack();
+			return new Feedback("All tasks have been deleted.\n");
+		} else {
+			ArrayList<Task> listToDelete = getTasksFromTokens(tokens, 1);
+			
+			if (listToDelete.size() == 0) {
+				return new Feedback("No such tasks.\n");
+			}
+			
+			ArrayList<Task> deleted = deleteList(listToDelete);
+			Task.saveTasksDeleted(deleted);
+			HistoryHandler.pushUndoStack(new UndoDelta().addRemoved(deleted));
+			HistoryHandler.purgeRedoStack();
+			return new Feedback("All specified tasks have been deleted.\n");
+		}
+		
+	}
+	
+	/**
+	 * Removes the given tasks from the taskList
+	 * @param list
+	 * @return the removed tasks
+	 */
+	private static ArrayList<Task> deleteList(ArrayList<Task> list) {
+		TaskList taskList = Task.getList();
+		ArrayList<Task> deleted = new ArrayList<Task>();
+		for (int i = 0; i < list.size(); i++) {
+			if (taskList.remove(list.get(i))) {
+				deleted.add(list.get(i));
+			}
+		}
+		return deleted;
+	}
+	
+	private static ArrayList<Task> deleteCompleted() {
+		TaskList taskList = Task.getList();
+		return deleteList(taskList.tasksOf(taskList.slotsWithStatus(true)));
+	}
+	
+	/**
+	 * Replaces the taskList with an empty list
+	 * @return the tasks that were in the list
+	 */
+	private static ArrayList<Task> deleteAll() {
+		ArrayList<Task> deleted = new ArrayList<Task>(Task.getList());
+		Task.setList(new TaskList());
+		return deleted;
+	}
+	
+	/**
+	 * Finds the tasks named by each number or alias from the given token on, each task once
+	 * @param tokens
+	 * @param first the index of the first token that names a task
+	 * @return the tasks in the order they are named
+	 */
+	private static ArrayList<Task> getTasksFromTokens(CommandTokens tokens, int first) {
+		Set<Long> namedIds = new HashSet<Long>();
+		ArrayList<Task> tasks = new ArrayList<Task>();
+		
+		for (int i = first; i < tokens.size(); i++) {
+			String taskID = tokens.getText(i);
+			Task task = null;
+			if (tokens.getKind(i) == CommandTokens.NUMBER) {
+				task = isInteger(taskID) ? getTaskFromNumber(Integer.parseInt(taskID)) : null;
+			} else if (Task.isAliasValid(taskID)) {
+				task = Task.getList().get(Task.getTaskIndexFromAlias(taskID));
+			}
+			if (task != null && namedIds.add(task.getId())) {
+				tasks.add(task);
+			}
+		}
+		
+		return tasks;
+	}
+	
+	private static boolean isInteger(String str) {
+		try {
+			Integer.parseInt(str);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+	
+	//////////SEARCH Functionality//////////
+	
+	/**
+	 * Lists the tasks whose descriptions or aliases have every word searched
+	 * for, best match first. If none do, lists the tasks with words close to
+	 * the ones searched for instead, in case they were misspelt.
+	 * @param userInput words to search for, where a word ending in * matches every word it starts
+	 * @return a Feedback object to be shown to the user
+	 */
+	protected static Feedback searchTasks(String userInput) {
+		if (!CommandParser.isInputValid(userInput, 1)) {
+			return new Feedback(MESSAGE_SEARCH_EMPTY);
+		}
+		
+		ArrayList<Task> found = Task.getList().search(userInput);
+		if (!found.isEmpty()) {
+			return showTasks(found, MESSAGE_SEARCH_NOT_FOUND);
+		}
+		
+		found = Task.getList().searchFuzzy(userInput);
+		Feedback feedback = showTasks(found, MESSAGE_SEARCH_NOT_FOUND);
+		return found.isEmpty() ? feedback : new Feedback(MESSAGE_SEARCH_CLOSE + feedback.getDesc());
+	}
+		
 }
\ No newline at end of file
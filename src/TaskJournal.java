@@ -0,0 +1,468 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * Append-only log of mutations to the task list, kept next to tasks.txt.
+ * Each add/update/delete/mark appends one small record instead of rewriting
+ * the whole task file. The log is replayed over the last snapshot on load.
+ *
+ * Every record carries a sequence number, and every snapshot starts with a
+ * checkpoint header naming the last record folded into it. Once the log
+ * passes the compaction threshold it is renamed aside and folded into a new
+ * snapshot on a background thread, while new records go to a fresh log.
+ *
+ * The tasks in a record are tab-separated fields, escaped with
+ * FileManager.escapeField so that a tab in a description cannot split one.
+ *
+ * With write-behind on, records are buffered and appended together when the
+ * WriteBehindPersister flushes, so a burst of mutations costs a single write.
+ */
+class TaskJournal {
+	private static final String FILE_JOURNAL = "tasks.log";
+	private static final String FILE_COMPACTING = "tasks.log.compacting";
+	private static final String COMPACTED_SUFFIX = ".compacted";
+	private static final String SEPARATOR = "\t";
+
+	private static final String OP_ADD = "ADD";
+	private static final String OP_UPDATE = "UPDATE";
+	private static final String OP_DELETE = "DELETE";
+	private static final String OP_MARK = "MARK";
+	private static final String OP_CLEAR = "CLEAR";
+
+	private static final int DEFAULT_MAX_RECORDS = 1000;
+	private static final long DEFAULT_MAX_BYTES = 256 * 1024;
+
+	private static Logger LOGGER = Logger.getLogger(TaskJournal.class.getName());
+
+	private static final Object lock = new Object();
+	private static final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "journal-compactor");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static int maxRecords = DEFAULT_MAX_RECORDS;
+	private static long maxBytes = DEFAULT_MAX_BYTES;
+
+	private static long lastSequence = 0;
+	private static long checkpointSequence = 0;
+	private static int recordsInLog = 0;
+	private static long bytesInLog = 0;
+	private static Future<?> compaction = null;
+	private static ArrayList<String> pendingRecords = new ArrayList<String>();
+
+	private static final Runnable FLUSH_RECORDS = new Runnable() {
+		public void run() {
+			flushPendingRecords();
+		}
+	};
+
+	/**
+	 * Sets when the log is folded into a new snapshot. Compaction starts once
+	 * the log holds at least maxRecords records or maxBytes bytes, whichever
+	 * comes first. A limit of zero or less is ignored.
+	 * @param records
+	 * @param bytes
+	 */
+	protected static void setCompactionPolicy(int records, long bytes) {
+		synchronized (lock) {
+			maxRecords = records;
+			maxBytes = bytes;
+		}
+	}
+
+	/**
+	 * Sets the format of the snapshot, converting the current snapshot once
+	 * no compaction is running, so a compaction never writes the old format
+	 * over the converted snapshot.
+	 * @param format
+	 */
+	protected static void setSnapshotFormat(TaskSnapshot.Format format) {
+		while (true) {
+			awaitCompaction();
+			synchronized (lock) {
+				if (compaction == null) {
+					TaskSnapshot.setFormat(format);
+					return;
+				}
+			}
+		}
+	}
+
+	protected static void logAdd(Task task) {
+		append(OP_ADD + SEPARATOR + FileManager.escapeField(task.toString()));
+	}
+
+	/**
+	 * Logs a change to a task. The task is identified by the string form it had
+	 * before the change.
+	 * @param previous
+	 * @param task
+	 */
+	protected static void logUpdate(String previous, Task task) {
+		append(OP_UPDATE + SEPARATOR + FileManager.escapeField(previous) + SEPARATOR + FileManager.escapeField(task.toString()));
+	}
+
+	protected static void logMark(String previous) {
+		append(OP_MARK + SEPARATOR + FileManager.escapeField(previous));
+	}
+
+	protected static void logDelete(Task task) {
+		append(OP_DELETE + SEPARATOR + FileManager.escapeField(task.toString()));
+	}
+
+	protected static void logClear() {
+		append(OP_CLEAR);
+	}
+
+	private static void append(String record) {
+		synchronized (lock) {
+			lastSequence++;
+			pendingRecords.add(lastSequence + SEPARATOR + record);
+		}
+		WriteBehindPersister.markDirty(FILE_JOURNAL, FLUSH_RECORDS);
+	}
+
+	/**
+	 * Appends every buffered record to the log in a single write
+	 */
+	private static void flushPendingRecords() {
+		synchronized (lock) {
+			if (pendingRecords.isEmpty()) {
+				return;
+			}
+
+			if (!FileManager.appendToFile(FILE_JOURNAL, pendingRecords)) {
+				// The log may now end in a torn record, so the whole list is
+				// checkpointed instead, which also empties the log
+				pendingRecords = new ArrayList<String>();
+				Task.saveTasks();
+				return;
+			}
+			for (int i = 0; i < pendingRecords.size(); i++) {
+				bytesInLog += pendingRecords.get(i).length() + 1;
+			}
+			recordsInLog += pendingRecords.size();
+			pendingRecords = new ArrayList<String>();
+
+			if (isCompactionDue()) {
+				startCompaction();
+			}
+		}
+	}
+
+	private static boolean isCompactionDue() {
+		return (maxRecords > 0 && recordsInLog >= maxRecords) || (maxBytes > 0 && bytesInLog >= maxBytes);
+	}
+
+	/**
+	 * Writes the tasks as the new snapshot and empties the log.
+	 * Any compaction still in progress is made obsolete by this checkpoint.
+	 * The logs are only touched once the snapshot is on disk; if it cannot be
+	 * written, the buffered records are appended instead so nothing is lost.
+	 * A log that is already empty is not written again.
+	 * @param tasks
+	 * @return true if the snapshot was written
+	 */
+	protected static boolean checkpoint(List<Task> tasks) {
+		synchronized (lock) {
+			if (!TaskSnapshot.write(tasks, lastSequence)) {
+				flushPendingRecords();
+				return false;
+			}
+			pendingRecords = new ArrayList<String>();
+			if (FileManager.getFileSize(FILE_JOURNAL) > 0) {
+				FileManager.writeToFile(FILE_JOURNAL, new ArrayList<String>());
+			}
+			FileManager.deleteFile(FILE_COMPACTING);
+
+			checkpointSequence = lastSequence;
+			recordsInLog = 0;
+			bytesInLog = 0;
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the snapshot and the log, once the task list is kept elsewhere
+	 */
+	protected static void discard() {
+		awaitCompaction();
+		synchronized (lock) {
+			pendingRecords = new ArrayList<String>();
+			FileManager.deleteFile(TaskSnapshot.getFileName(TaskSnapshot.Format.TEXT));
+			FileManager.deleteFile(TaskSnapshot.getFileName(TaskSnapshot.Format.BINARY));
+			FileManager.deleteFile(FILE_JOURNAL);
+			FileManager.deleteFile(FILE_COMPACTING);
+
+			checkpointSequence = lastSequence;
+			recordsInLog = 0;
+			bytesInLog = 0;
+		}
+	}
+
+	/**
+	 * Reads the snapshot and replays the log over it. A log left behind by an
+	 * interrupted compaction is replayed first and then compacted again.
+	 * @return the task list with all logged mutations applied
+	 * @throws IllegalStateException if a file exists but cannot be read
+	 */
+	protected static ArrayList<Task> load() {
+		synchronized (lock) {
+			flushPendingRecords();
+			ArrayList<Task> tasks = new ArrayList<Task>();
+			long sequence = TaskSnapshot.read(tasks);
+			checkpointSequence = sequence;
+
+			ArrayList<String> pending = FileManager.readAllLines(FILE_COMPACTING);
+			long pendingSequence = replay(tasks, pending, checkpointSequence);
+
+			ArrayList<String> records = FileManager.readAllLines(FILE_JOURNAL);
+			sequence = Math.max(pendingSequence, replay(tasks, records, checkpointSequence));
+
+			lastSequence = Math.max(lastSequence, sequence);
+			recordsInLog = records.size();
+			bytesInLog = FileManager.getFileSize(FILE_JOURNAL);
+
+			if (!pending.isEmpty() && compaction == null) {
+				compaction = compactor.submit(new Compaction(pendingSequence));
+			}
+
+			Collections.sort(tasks);
+			return tasks;
+		}
+	}
+
+	/**
+	 * Blocks until the compaction currently running, if any, has finished.
+	 */
+	protected static void awaitCompaction() {
+		Future<?> running;
+		synchronized (lock) {
+			running = compaction;
+		}
+		if (running == null) {
+			return;
+		}
+
+		try {
+			running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			LOGGER.info("Error compacting task journal " + e.getCause());
+		}
+	}
+
+	/**
+	 * Moves the log aside so new records go to a fresh log, and folds the old
+	 * one into a new snapshot on the compactor thread. Must hold the lock.
+	 */
+	private static void startCompaction() {
+		if (compaction != null || FileManager.fileExists(FILE_COMPACTING)) {
+			return;
+		}
+
+		if (!FileManager.replaceFile(FILE_JOURNAL, FILE_COMPACTING)) {
+			return;
+		}
+		recordsInLog = 0;
+		bytesInLog = 0;
+		compaction = compactor.submit(new Compaction(lastSequence));
+	}
+
+	/**
+	 * Folds the moved-aside log into the snapshot using only what is on disk,
+	 * so it never touches the task list the user is working on.
+	 */
+	private static class Compaction implements Runnable {
+		private final long upToSequence;
+
+		private Compaction(long upToSequence) {
+			this.upToSequence = upToSequence;
+		}
+
+		public void run() {
+			try {
+				ArrayList<Task> tasks = new ArrayList<Task>();
+				long sequence = TaskSnapshot.read(tasks);
+				replay(tasks, FileManager.readAllLines(FILE_COMPACTING), sequence);
+				Collections.sort(tasks);
+
+				TaskSnapshot.Format format = TaskSnapshot.getFormat();
+				String snapshotFile = TaskSnapshot.getFileName(format);
+				String compactedFile = snapshotFile + COMPACTED_SUFFIX;
+				boolean written = TaskSnapshot.write(compactedFile, format, tasks, upToSequence);
+
+				synchronized (lock) {
+					if (written && upToSequence > checkpointSequence && FileManager.replaceFile(compactedFile, snapshotFile)) {
+						FileManager.deleteFile(FILE_COMPACTING);
+						TaskSnapshot.deleteOtherFormat(format);
+						checkpointSequence = upToSequence;
+					} else {
+						FileManager.deleteFile(compactedFile);
+					}
+				}
+			} finally {
+				synchronized (lock) {
+					compaction = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies the records in order to the given tasks, skipping those already
+	 * folded into the snapshot and those that no longer match a task.
+	 * @param tasks
+	 * @param records
+	 * @param afterSequence
+	 * @return the highest sequence number seen
+	 */
+	private static long replay(ArrayList<Task> tasks, ArrayList<String> records, long afterSequence) {
+		long sequence = afterSequence;
+		if (records.isEmpty()) {
+			return sequence;
+		}
+
+		TaskKeys tasksByKey = new TaskKeys();
+		for (int i = 0; i < tasks.size(); i++) {
+			tasksByKey.put(tasks.get(i));
+		}
+
+		for (int i = 0; i < records.size(); i++) {
+			String[] tokens = records.get(i).split(SEPARATOR);
+			long recordSequence = parseSequence(tokens[0]);
+			if (recordSequence < 0 || tokens.length < 2) {
+				LOGGER.info("Skipping malformed journal record " + records.get(i));
+				continue;
+			}
+			if (recordSequence <= afterSequence) {
+				continue;
+			}
+			sequence = Math.max(sequence, recordSequence);
+			String op = tokens[1];
+
+			try {
+				applyRecord(tasks, tasksByKey, op, tokens);
+			} catch (IllegalArgumentException e) {
+				LOGGER.info("Skipping malformed journal record " + records.get(i));
+			}
+		}
+
+		return sequence;
+	}
+
+	/**
+	 * Applies a single record to the tasks
+	 * @throws IllegalArgumentException if the record is malformed
+	 */
+	private static void applyRecord(ArrayList<Task> tasks, TaskKeys tasksByKey, String op, String[] tokens) {
+		for (int i = 2; i < tokens.length; i++) {
+			tokens[i] = FileManager.unescapeField(tokens[i]);
+		}
+
+		if (op.equals(OP_CLEAR)) {
+			tasks.clear();
+			tasksByKey.clear();
+		} else if (op.equals(OP_ADD) && tokens.length >= 3) {
+			Task task = Task.parseTaskFromString(tokens[2]);
+			tasks.add(task);
+			tasksByKey.put(task);
+		} else if (op.equals(OP_DELETE) && tokens.length >= 3) {
+			Task task = tasksByKey.take(tokens[2]);
+			if (task != null) {
+				tasks.remove(task);
+			}
+		} else if (op.equals(OP_UPDATE) && tokens.length >= 4) {
+			Task task = tasksByKey.take(tokens[2]);
+			if (task != null) {
+				task.setFields(Task.parseTaskFromString(tokens[3]));
+				tasksByKey.put(task);
+			}
+		} else if (op.equals(OP_MARK) && tokens.length >= 3) {
+			Task task = tasksByKey.take(tokens[2]);
+			if (task != null) {
+				task.toggleStatus();
+				tasksByKey.put(task);
+			}
+		} else {
+			throw new IllegalArgumentException("Unknown journal record " + op);
+		}
+	}
+
+	private static long parseSequence(String s) {
+		try {
+			return Long.parseLong(s);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Finds the task a record names. Records name a task by its string form,
+	 * which starts with its ID; records written before tasks had IDs are
+	 * matched on the rest of the string form instead.
+	 */
+	private static class TaskKeys {
+		private final HashMap<Long, Task> tasksById = new HashMap<Long, Task>();
+		private final HashMap<String, ArrayDeque<Task>> tasksByContent = new HashMap<String, ArrayDeque<Task>>();
+
+		private void put(Task task) {
+			tasksById.put(task.getId(), task);
+
+			String content = task.toContentString();
+			ArrayDeque<Task> tasks = tasksByContent.get(content);
+			if (tasks == null) {
+				tasks = new ArrayDeque<Task>();
+				tasksByContent.put(content, tasks);
+			}
+			tasks.add(task);
+		}
+
+		/**
+		 * Removes the task named by the key
+		 * @param key the string form of the task, with or without its ID
+		 * @return the task, or null if none matches
+		 */
+		private Task take(String key) {
+			long taskId = Task.parseId(key);
+			Task task;
+			if (taskId > 0) {
+				task = tasksById.remove(taskId);
+				if (task == null) {
+					return null;
+				}
+			} else {
+				ArrayDeque<Task> tasks = tasksByContent.get(key);
+				if (tasks == null || tasks.isEmpty()) {
+					return null;
+				}
+				task = tasks.peek();
+				tasksById.remove(task.getId());
+			}
+
+			ArrayDeque<Task> tasks = tasksByContent.get(task.toContentString());
+			if (tasks != null) {
+				tasks.remove(task);
+			}
+			return task;
+		}
+
+		private void clear() {
+			tasksById.clear();
+			tasksByContent.clear();
+		}
+	}
+}
@@ -0,0 +1,801 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+
+/**
+ * The task list, kept in the order of Task.compareTo at all times. The tasks
+ * are held in a treap, a binary search tree balanced by random priorities,
+ * where every node also counts the nodes below it. Adding or removing a task,
+ * finding the task at a position and finding the position of a task all take
+ * O(log n), so there is no need to sort the list after changing it.
+ *
+ * Tasks that compare as equal are ordered by ID, then by handle, which
+ * makes the order total and the same across restarts. A task in the list
+ * tells it when a field it is sorted by changes, and is then moved to its
+ * new place.
+ *
+ * Alongside the tasks the list keeps an index from ID to task, one from
+ * each alias to the tasks holding it, and a calendar from each day to the
+ * tasks starting or ending on it. All are updated whenever a task enters or
+ * leaves the list, the alias index whenever a task in the list changes its
+ * alias, and the calendar whenever it changes its times. The calendar is
+ * sorted, so the tasks on a range of days are found in O(log d + k) for d
+ * days with tasks and k tasks found. The times taken up by timed tasks are
+ * kept the same way in an IntervalTree.
+ *
+ * Incomplete tasks are also kept in order of deadline, the earlier of their
+ * start and end, so the overdue tasks are the ones before now at the front.
+ * Marking a task complete takes it out in O(log n).
+ *
+ * Every task in the list holds a slot, a small number that stays the same
+ * while it is in the list and is reused after it leaves. The completed and
+ * incomplete tasks are kept as SlotBitmaps of their slots, and the filters
+ * on days and deadlines give their results the same way, so filters combine
+ * with SlotBitmap.and and SlotBitmap.or before indicesOf turns the result
+ * into positions. The words of the descriptions and aliases are indexed by
+ * slot in a SearchIndex.
+ *
+ * add(index, task) ignores the index and puts the task in its sorted place,
+ * and set(index, task) does the same for the new task. A task is held at
+ * most once; adding one that is already in the list does nothing. A task
+ * added without an ID is given one first.
+ */
+class TaskList extends AbstractList<Task> {
+	private static final Random priorities = new Random();
+
+	private Node root = null;
+	private final IdentityHashMap<Task, Node> nodes = new IdentityHashMap<Task, Node>();
+	private final HashMap<Long, Task> tasksById = new HashMap<Long, Task>();
+	private final HashMap<String, ArrayList<Task>> tasksByAlias = new HashMap<String, ArrayList<Task>>();
+	private final TreeMap<LocalDate, ArrayList<Task>> tasksByDay = new TreeMap<LocalDate, ArrayList<Task>>();
+	private final IntervalTree intervals = new IntervalTree();
+	private final SlotBitmap completedSlots = new SlotBitmap();
+	private final SlotBitmap incompleteSlots = new SlotBitmap();
+	private final SlotBitmap freeSlots = new SlotBitmap();
+	private final SearchIndex searchIndex = new SearchIndex();
+	private Node[] nodesBySlot = new Node[16];
+	private int slotCount = 0;
+	private final TreeSet<Node> deadlines = new TreeSet<Node>(new Comparator<Node>() {
+		public int compare(Node a, Node b) {
+			if (a.deadline != b.deadline) {
+				return (a.deadline < b.deadline) ? -1 : 1;
+			}
+			return (a.task.getHandle() < b.task.getHandle()) ? -1 : ((a.task.getHandle() == b.task.getHandle()) ? 0 : 1);
+		}
+	});
+
+	/**
+	 * A task found by a search, ordered by score and then by position
+	 */
+	private static class Match implements Comparable<Match> {
+		private final Task task;
+		private final double score;
+		private final int position;
+
+		private Match(Task task, double score, int position) {
+			this.task = task;
+			this.score = score;
+			this.position = position;
+		}
+
+		public int compareTo(Match other) {
+			int order = Double.compare(other.score, score);
+			return (order != 0) ? order : ((position < other.position) ? -1 : ((position == other.position) ? 0 : 1));
+		}
+	}
+
+	private static class Node {
+		private final Task task;
+		private final int priority = priorities.nextInt();
+		private Node left;
+		private Node right;
+		private Node parent;
+		private int size = 1;
+		private int slot;
+
+		// the days the task is filed under in the calendar
+		private LocalDate startDay;
+		private LocalDate endDay;
+
+		// the time the task is filed under in the deadlines, if it is there
+		private long deadline;
+		private boolean hasDeadline = false;
+
+		private Node(Task task) {
+			this.task = task;
+		}
+	}
+
+	protected TaskList() {
+	}
+
+	protected TaskList(Collection<Task> initial) {
+		for (Task task : initial) {
+			add(task);
+		}
+	}
+
+	@Override
+	public Task get(int index) {
+		return nodeAt(index).task;
+	}
+
+	@Override
+	public int size() {
+		return size(root);
+	}
+
+	@Override
+	public Task set(int index, Task task) {
+		Task replaced = remove(index);
+		add(task);
+		return replaced;
+	}
+
+	@Override
+	public void add(int index, Task task) {
+		if (nodes.containsKey(task)) {
+			return;
+		}
+
+		task.assignId();
+		Node node = new Node(task);
+		nodes.put(task, node);
+		insertNode(node);
+		modCount++;
+		index(task);
+		addDays(node);
+		intervals.add(task);
+		addDeadline(node);
+		addSlot(node);
+	}
+
+	@Override
+	public Task remove(int index) {
+		Node node = nodeAt(index);
+		removeTask(node);
+		return node.task;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		Node node = nodes.get(o);
+		if (node == null) {
+			return false;
+		}
+		removeTask(node);
+		return true;
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		Node node = nodes.get(o);
+		return (node == null) ? -1 : rank(node);
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		return indexOf(o);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return nodes.containsKey(o);
+	}
+
+	@Override
+	public void clear() {
+		for (Task task : nodes.keySet()) {
+			task.setOwner(null);
+		}
+		nodes.clear();
+		tasksById.clear();
+		tasksByAlias.clear();
+		tasksByDay.clear();
+		intervals.clear();
+		deadlines.clear();
+		completedSlots.clear();
+		incompleteSlots.clear();
+		freeSlots.clear();
+		searchIndex.clear();
+		nodesBySlot = new Node[16];
+		slotCount = 0;
+		root = null;
+		modCount++;
+	}
+
+	/**
+	 * Walks the tree in order, which costs O(1) per task on average instead
+	 * of the O(log n) of a get for every position
+	 */
+	@Override
+	public Iterator<Task> iterator() {
+		return new Iterator<Task>() {
+			private Node next = first(root);
+			private Node last = null;
+			private int expectedModCount = modCount;
+
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			public Task next() {
+				checkForComodification();
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				last = next;
+				next = successor(next);
+				return last.task;
+			}
+
+			public void remove() {
+				checkForComodification();
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+				removeTask(last);
+				last = null;
+				expectedModCount = modCount;
+			}
+
+			private void checkForComodification() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+			}
+		};
+	}
+
+	/**
+	 * @param taskId
+	 * @return the task with the ID, or null if there is none in the list
+	 */
+	protected Task getById(long taskId) {
+		return tasksById.get(taskId);
+	}
+
+	/**
+	 * @param alias
+	 * @return the position of the first task with the alias, or -1 if no task has it
+	 */
+	protected int indexOfAlias(String alias) {
+		ArrayList<Task> holders = tasksByAlias.get(alias);
+		if (holders == null) {
+			return -1;
+		}
+
+		int first = -1;
+		for (int i = 0; i < holders.size(); i++) {
+			int position = indexOf(holders.get(i));
+			if (position >= 0 && (first < 0 || position < first)) {
+				first = position;
+			}
+		}
+		return first;
+	}
+
+	/**
+	 * @param completed
+	 * @return the slots of the tasks with the status, which the caller may change
+	 */
+	protected SlotBitmap slotsWithStatus(boolean completed) {
+		return (completed ? completedSlots : incompleteSlots).copy();
+	}
+
+	/**
+	 * @param first
+	 * @param last
+	 * @return the slots of the tasks starting or ending on a day from first to last
+	 */
+	protected SlotBitmap slotsOnDays(LocalDate first, LocalDate last) {
+		SlotBitmap slots = new SlotBitmap();
+		if (first.isAfter(last)) {
+			return slots;
+		}
+
+		for (ArrayList<Task> tasks : tasksByDay.subMap(first, true, last, true).values()) {
+			for (int i = 0; i < tasks.size(); i++) {
+				slots.add(nodes.get(tasks.get(i)).slot);
+			}
+		}
+		return slots;
+	}
+
+	/**
+	 * @param now
+	 * @return the slots of the incomplete tasks whose start or end is before now
+	 */
+	protected SlotBitmap slotsOverdue(DateTime now) {
+		SlotBitmap slots = new SlotBitmap();
+		for (Node node : deadlines) {
+			if (node.deadline >= now.getMillis()) {
+				break;
+			}
+			slots.add(node.slot);
+		}
+		return slots;
+	}
+
+	/**
+	 * @param slots
+	 * @return the positions of the tasks in the slots, in ascending order
+	 */
+	protected int[] indicesOf(SlotBitmap slots) {
+		int[] positions = new int[slots.cardinality()];
+		int count = 0;
+		for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+			if (slot < slotCount && nodesBySlot[slot] != null) {
+				positions[count++] = rank(nodesBySlot[slot]);
+			}
+		}
+		positions = Arrays.copyOf(positions, count);
+		Arrays.sort(positions);
+		return positions;
+	}
+
+	/**
+	 * @param slots
+	 * @return the tasks in the slots
+	 */
+	protected ArrayList<Task> tasksOf(SlotBitmap slots) {
+		ArrayList<Task> tasks = new ArrayList<Task>();
+		for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+			if (slot < slotCount && nodesBySlot[slot] != null) {
+				tasks.add(nodesBySlot[slot].task);
+			}
+		}
+		return tasks;
+	}
+
+	/**
+	 * @param query words that must all be in the description, where a word ending in * matches every word it starts
+	 * @return the matching tasks, best match first and equal matches in list order
+	 */
+	protected ArrayList<Task> search(String query) {
+		return search(SearchIndex.parse(query));
+	}
+
+	/**
+	 * @param query words that must all be close to words in the description or alias
+	 * @return the matching tasks, best match first and equal matches in list order
+	 */
+	protected ArrayList<Task> searchFuzzy(String query) {
+		return search(searchIndex.fuzzy(SearchIndex.parse(query)));
+	}
+
+	private ArrayList<Task> search(SearchIndex.Query words) {
+		SlotBitmap matches = searchIndex.match(words);
+
+		HashMap<String, Double> weights = new HashMap<String, Double>();
+		ArrayList<Match> ranked = new ArrayList<Match>();
+		for (int slot = matches.nextSetBit(0); slot >= 0; slot = matches.nextSetBit(slot + 1)) {
+			Node node = nodesBySlot[slot];
+			ranked.add(new Match(node.task, searchIndex.score(slot, words, weights), rank(node)));
+		}
+		Collections.sort(ranked);
+
+		ArrayList<Task> found = new ArrayList<Task>(ranked.size());
+		for (int i = 0; i < ranked.size(); i++) {
+			found.add(ranked.get(i).task);
+		}
+		return found;
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return the timed tasks taking up any of the time from from to to, in order of start
+	 */
+	protected ArrayList<Task> getOverlapping(DateTime from, DateTime to) {
+		return intervals.getOverlapping(from.getMillis(), to.getMillis());
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @param minutes
+	 * @return the start and end of the first stretch of at least the given
+	 *         minutes between from and to free of timed tasks, or null if there is none
+	 */
+	protected DateTime[] findFreeSlot(DateTime from, DateTime to, long minutes) {
+		if (minutes > (to.getMillis() - from.getMillis()) / 60000L) {
+			// checked before converting, so a huge length cannot overflow
+			return null;
+		}
+		long[] slot = intervals.findFreeSlot(from.getMillis(), to.getMillis(), minutes * 60000L);
+		if (slot == null) {
+			return null;
+		}
+		return new DateTime[] {new DateTime(slot[0]), new DateTime(slot[1])};
+	}
+
+	/**
+	 * Moves a task in the list to its new alias in the index
+	 * @param task
+	 * @param previous the alias the task had before
+	 */
+	protected void aliasChanged(Task task, String previous) {
+		removeAlias(task, previous);
+		addAlias(task, task.getAlias());
+
+		Node node = nodes.get(task);
+		if (node != null) {
+			searchIndex.remove(node.slot);
+			searchIndex.add(node.slot, task);
+		}
+	}
+
+	/**
+	 * Moves a task in the list to its place, and to its days in the calendar,
+	 * after a field it is sorted by has changed
+	 * @param task
+	 */
+	protected void orderChanged(Task task) {
+		Node node = nodes.get(task);
+		if (node == null) {
+			return;
+		}
+
+		removeNode(node);
+		insertNode(node);
+		modCount++;
+		removeDays(node);
+		addDays(node);
+		intervals.remove(task);
+		intervals.add(task);
+		removeDeadline(node);
+		addDeadline(node);
+		fileStatus(node);
+		searchIndex.remove(node.slot);
+		searchIndex.add(node.slot, task);
+	}
+
+	/**
+	 * Moves a task in the list in or out of the deadlines, and to the
+	 * bitmap of its status, after it is marked
+	 * @param task
+	 */
+	protected void statusChanged(Task task) {
+		Node node = nodes.get(task);
+		if (node == null) {
+			return;
+		}
+
+		removeDeadline(node);
+		addDeadline(node);
+		fileStatus(node);
+	}
+
+	private void removeTask(Node node) {
+		removeNode(node);
+		nodes.remove(node.task);
+		modCount++;
+		unindex(node.task);
+		removeDays(node);
+		intervals.remove(node.task);
+		removeDeadline(node);
+		removeSlot(node);
+	}
+
+	/**
+	 * Orders tasks by Task.compareTo, and tasks that compare as equal by ID and then handle
+	 */
+	private static int compare(Task a, Task b) {
+		int order = a.compareTo(b);
+		if (order != 0) {
+			return order;
+		}
+		if (a.getId() != b.getId()) {
+			return (a.getId() < b.getId()) ? -1 : 1;
+		}
+		return (a.getHandle() < b.getHandle()) ? -1 : ((a.getHandle() == b.getHandle()) ? 0 : 1);
+	}
+
+	/**
+	 * Adds the node as a leaf in its sorted place, then rotates it up until
+	 * its priority is below its parent's
+	 */
+	private void insertNode(Node node) {
+		if (root == null) {
+			root = node;
+			return;
+		}
+
+		Node parent = root;
+		while (true) {
+			parent.size++;
+			Node next = (compare(node.task, parent.task) < 0) ? parent.left : parent.right;
+			if (next == null) {
+				break;
+			}
+			parent = next;
+		}
+
+		node.parent = parent;
+		if (compare(node.task, parent.task) < 0) {
+			parent.left = node;
+		} else {
+			parent.right = node;
+		}
+
+		while (node.parent != null && node.priority > node.parent.priority) {
+			rotateUp(node);
+		}
+	}
+
+	/**
+	 * Rotates the node down below the child of higher priority until it is a
+	 * leaf, then cuts it off
+	 */
+	private void removeNode(Node node) {
+		while (node.left != null && node.right != null) {
+			rotateUp((node.left.priority > node.right.priority) ? node.left : node.right);
+		}
+
+		Node child = (node.left != null) ? node.left : node.right;
+		replaceChild(node.parent, node, child);
+		if (child != null) {
+			child.parent = node.parent;
+		}
+
+		for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+			ancestor.size--;
+		}
+		node.parent = null;
+		node.left = null;
+		node.right = null;
+		node.size = 1;
+	}
+
+	/**
+	 * Swaps the node with its parent, keeping the order of the tree
+	 */
+	private void rotateUp(Node node) {
+		Node parent = node.parent;
+		Node grandparent = parent.parent;
+
+		if (parent.left == node) {
+			parent.left = node.right;
+			if (node.right != null) {
+				node.right.parent = parent;
+			}
+			node.right = parent;
+		} else {
+			parent.right = node.left;
+			if (node.left != null) {
+				node.left.parent = parent;
+			}
+			node.left = parent;
+		}
+
+		parent.parent = node;
+		node.parent = grandparent;
+		replaceChild(grandparent, parent, node);
+
+		node.size = parent.size;
+		parent.size = size(parent.left) + size(parent.right) + 1;
+	}
+
+	private void replaceChild(Node parent, Node child, Node replacement) {
+		if (parent == null) {
+			root = replacement;
+		} else if (parent.left == child) {
+			parent.left = replacement;
+		} else {
+			parent.right = replacement;
+		}
+	}
+
+	private Node nodeAt(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+
+		Node node = root;
+		while (true) {
+			int leftSize = size(node.left);
+			if (index < leftSize) {
+				node = node.left;
+			} else if (index == leftSize) {
+				return node;
+			} else {
+				index -= leftSize + 1;
+				node = node.right;
+			}
+		}
+	}
+
+	private static int rank(Node node) {
+		int rank = size(node.left);
+		for (Node child = node; child.parent != null; child = child.parent) {
+			if (child.parent.right == child) {
+				rank += size(child.parent.left) + 1;
+			}
+		}
+		return rank;
+	}
+
+	private static int size(Node node) {
+		return (node == null) ? 0 : node.size;
+	}
+
+	private static Node first(Node node) {
+		if (node == null) {
+			return null;
+		}
+		while (node.left != null) {
+			node = node.left;
+		}
+		return node;
+	}
+
+	private static Node successor(Node node) {
+		if (node.right != null) {
+			return first(node.right);
+		}
+		while (node.parent != null && node.parent.right == node) {
+			node = node.parent;
+		}
+		return node.parent;
+	}
+
+	private void index(Task task) {
+		task.setOwner(this);
+		tasksById.put(task.getId(), task);
+		addAlias(task, task.getAlias());
+	}
+
+	private void unindex(Task task) {
+		if (task.getOwner() == this) {
+			task.setOwner(null);
+		}
+		if (tasksById.get(task.getId()) == task) {
+			tasksById.remove(task.getId());
+		}
+		removeAlias(task, task.getAlias());
+	}
+
+	private void addAlias(Task task, String alias) {
+		if (alias == null) {
+			return;
+		}
+		addTo(tasksByAlias, alias, task);
+	}
+
+	private void removeAlias(Task task, String alias) {
+		if (alias == null) {
+			return;
+		}
+		removeFrom(tasksByAlias, alias, task);
+	}
+
+	private void addDays(Node node) {
+		node.startDay = dayOf(node.task.getStartDateTime());
+		node.endDay = dayOf(node.task.getEndDateTime());
+
+		if (node.startDay != null) {
+			addTo(tasksByDay, node.startDay, node.task);
+		}
+		if (node.endDay != null && !node.endDay.equals(node.startDay)) {
+			addTo(tasksByDay, node.endDay, node.task);
+		}
+	}
+
+	private void removeDays(Node node) {
+		if (node.startDay != null) {
+			removeFrom(tasksByDay, node.startDay, node.task);
+		}
+		if (node.endDay != null && !node.endDay.equals(node.startDay)) {
+			removeFrom(tasksByDay, node.endDay, node.task);
+		}
+		node.startDay = null;
+		node.endDay = null;
+	}
+
+	/**
+	 * Gives the node the lowest free slot and files it under its status
+	 */
+	private void addSlot(Node node) {
+		int slot = freeSlots.nextSetBit(0);
+		if (slot >= 0) {
+			freeSlots.remove(slot);
+		} else {
+			slot = slotCount++;
+			if (slot == nodesBySlot.length) {
+				nodesBySlot = Arrays.copyOf(nodesBySlot, slot * 2);
+			}
+		}
+
+		node.slot = slot;
+		nodesBySlot[slot] = node;
+		fileStatus(node);
+		searchIndex.add(slot, node.task);
+	}
+
+	private void removeSlot(Node node) {
+		searchIndex.remove(node.slot);
+		completedSlots.remove(node.slot);
+		incompleteSlots.remove(node.slot);
+		nodesBySlot[node.slot] = null;
+		freeSlots.add(node.slot);
+	}
+
+	private void fileStatus(Node node) {
+		if (node.task.getStatus()) {
+			incompleteSlots.remove(node.slot);
+			completedSlots.add(node.slot);
+		} else {
+			completedSlots.remove(node.slot);
+			incompleteSlots.add(node.slot);
+		}
+	}
+
+	private void addDeadline(Node node) {
+		Task task = node.task;
+		if (task.getStatus() || (task.getStartDateTime() == null && task.getEndDateTime() == null)) {
+			return;
+		}
+
+		if (task.getStartDateTime() == null) {
+			node.deadline = task.getEndDateTime().getMillis();
+		} else if (task.getEndDateTime() == null) {
+			node.deadline = task.getStartDateTime().getMillis();
+		} else {
+			node.deadline = Math.min(task.getStartDateTime().getMillis(), task.getEndDateTime().getMillis());
+		}
+		node.hasDeadline = true;
+		deadlines.add(node);
+	}
+
+	private void removeDeadline(Node node) {
+		if (node.hasDeadline) {
+			deadlines.remove(node);
+			node.hasDeadline = false;
+		}
+	}
+
+	private static LocalDate dayOf(DateTime time) {
+		return (time == null) ? null : time.toLocalDate();
+	}
+
+	private static <K> void addTo(Map<K, ArrayList<Task>> index, K key, Task task) {
+		ArrayList<Task> holders = index.get(key);
+		if (holders == null) {
+			holders = new ArrayList<Task>(1);
+			index.put(key, holders);
+		}
+		holders.add(task);
+	}
+
+	private static <K> void removeFrom(Map<K, ArrayList<Task>> index, K key, Task task) {
+		ArrayList<Task> holders = index.get(key);
+		if (holders == null) {
+			return;
+		}
+		for (int i = 0; i < holders.size(); i++) {
+			if (holders.get(i) == task) {
+				holders.remove(i);
+				break;
+			}
+		}
+		if (holders.isEmpty()) {
+			index.remove(key);
+		}
+	}
+}
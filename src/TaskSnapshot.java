@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Reads and writes the full snapshot of the task list that the journal is
+ * replayed over. The snapshot is kept either in the text format of
+ * Task.toString, one task per line, or in the binary format of BinaryTaskFile.
+ * Both record the sequence number of the last journal record folded into them.
+ */
+class TaskSnapshot {
+	private static final String FILE_BINARY = "tasks.dat";
+	private static final String CHECKPOINT_HEADER = "#CHECKPOINT";
+	private static final String SEPARATOR = "\t";
+
+	protected enum Format {
+		TEXT, BINARY;
+	}
+
+	private static Logger LOGGER = Logger.getLogger(TaskSnapshot.class.getName());
+
+	private static volatile Format format = Format.TEXT;
+
+	protected static Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * Sets the format of the snapshot and converts the snapshot on disk, if
+	 * there is one in the other format. Callers other than TaskJournal go
+	 * through TaskJournal.setSnapshotFormat, which keeps compaction out.
+	 * A snapshot that cannot be converted is left as it is; it is still read
+	 * until the next checkpoint replaces it.
+	 * @param snapshotFormat
+	 */
+	protected static void setFormat(Format snapshotFormat) {
+		Format previous = format;
+		format = snapshotFormat;
+		String from = getFileName(previous);
+		String to = getFileName(snapshotFormat);
+		if (previous == snapshotFormat || !FileManager.fileExists(from) || FileManager.fileExists(to)) {
+			return;
+		}
+
+		try {
+			if (snapshotFormat == Format.BINARY) {
+				BinaryTaskFile.convertTextToBinary(from, to);
+			} else {
+				BinaryTaskFile.convertBinaryToText(from, to);
+			}
+		} catch (IllegalStateException e) {
+			LOGGER.info("Error converting " + from + " " + e.getMessage());
+			return;
+		}
+		if (FileManager.fileExists(to)) {
+			FileManager.deleteFile(from);
+		}
+	}
+
+	protected static String getFileName(Format snapshotFormat) {
+		return (snapshotFormat == Format.BINARY) ? FILE_BINARY : Task.FILE_TASK;
+	}
+
+	/**
+	 * Reads the snapshot into the given list
+	 * @param tasks
+	 * @return the sequence number of the last journal record folded into the snapshot
+	 */
+	protected static long read(ArrayList<Task> tasks) {
+		Format snapshotFormat = format;
+		if (!FileManager.fileExists(getFileName(snapshotFormat))) {
+			Format other = (snapshotFormat == Format.BINARY) ? Format.TEXT : Format.BINARY;
+			if (FileManager.fileExists(getFileName(other))) {
+				snapshotFormat = other;
+			}
+		}
+
+		if (snapshotFormat == Format.BINARY) {
+			return BinaryTaskFile.read(FILE_BINARY, tasks);
+		} else {
+			return readText(Task.FILE_TASK, tasks);
+		}
+	}
+
+	/**
+	 * Writes the tasks as the snapshot and removes any snapshot left in the other format
+	 * @param tasks
+	 * @param checkpointSequence
+	 * @return true if the snapshot was written
+	 */
+	protected static boolean write(List<Task> tasks, long checkpointSequence) {
+		Format snapshotFormat = format;
+		if (!write(getFileName(snapshotFormat), snapshotFormat, tasks, checkpointSequence)) {
+			return false;
+		}
+		deleteOtherFormat(snapshotFormat);
+		return true;
+	}
+
+	/**
+	 * Removes the snapshot in the format that is not currently in use, if any
+	 * @param snapshotFormat the format in use
+	 */
+	protected static void deleteOtherFormat(Format snapshotFormat) {
+		Format other = (snapshotFormat == Format.BINARY) ? Format.TEXT : Format.BINARY;
+		FileManager.deleteFile(getFileName(other));
+	}
+
+	/**
+	 * Writes the tasks to the named file in the given format
+	 * @param fileName
+	 * @param snapshotFormat
+	 * @param tasks
+	 * @param checkpointSequence
+	 * @return true if the file was written
+	 */
+	protected static boolean write(String fileName, Format snapshotFormat, List<Task> tasks, long checkpointSequence) {
+		if (snapshotFormat == Format.BINARY) {
+			return BinaryTaskFile.write(fileName, tasks, checkpointSequence);
+		} else {
+			return writeText(fileName, tasks, checkpointSequence);
+		}
+	}
+
+	/**
+	 * Reads a snapshot in the text format into the given list
+	 * @param fileName
+	 * @param tasks
+	 * @return the sequence number of the last journal record folded into the snapshot
+	 * @throws IllegalStateException if the file exists but cannot be read
+	 */
+	protected static long readText(String fileName, ArrayList<Task> tasks) {
+		ArrayList<String> lines = FileManager.readAllLines(fileName);
+		long sequence = 0;
+
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i);
+			if (line.startsWith(CHECKPOINT_HEADER)) {
+				sequence = parseSequence(line.substring(CHECKPOINT_HEADER.length()).trim());
+				continue;
+			}
+			try {
+				tasks.add(Task.parseTaskFromString(line));
+			} catch (IllegalArgumentException e) {
+				LOGGER.info("Skipping malformed task " + line);
+			}
+		}
+
+		return sequence;
+	}
+
+	protected static boolean writeText(String fileName, List<Task> tasks, long checkpointSequence) {
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add(CHECKPOINT_HEADER + SEPARATOR + checkpointSequence);
+		for (int i = 0; i < tasks.size(); i++) {
+			lines.add(tasks.get(i).toString());
+		}
+
+		return FileManager.writeToFile(fileName, lines);
+	}
+
+	private static long parseSequence(String s) {
+		try {
+			return Long.parseLong(s);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+
+public class TestIndexes {
+
+	private static final long HOUR = 60 * 60 * 1000L;
+
+	@Test
+	public void testIntervalOverlaps() {
+		IntervalTree tree = new IntervalTree();
+		Task meeting = timedTask("meeting", 9, 10);
+		Task lunch = timedTask("lunch", 12, 13);
+		Task workshop = timedTask("workshop", 8, 11);
+		tree.add(meeting);
+		tree.add(lunch);
+		tree.add(workshop);
+		tree.add(new Task("deadline", null, new DateTime(at(15)), null));
+		tree.add(timedTask("backwards", 16, 15));
+		assertEquals(3, tree.size());
+		
+		assertEquals(Arrays.asList(workshop, meeting), tree.getOverlapping(at(9), at(10)));
+		assertEquals(Arrays.asList(workshop), tree.getOverlapping(at(10), at(12)));
+		assertEquals(Arrays.asList(workshop, meeting, lunch), tree.getOverlapping(at(7), at(14)));
+		assertTrue(tree.getOverlapping(at(13), at(14)).isEmpty());
+		assertTrue(tree.getOverlapping(at(11), at(12)).isEmpty());
+		
+		tree.remove(workshop);
+		assertEquals(Arrays.asList(meeting), tree.getOverlapping(at(7), at(11)));
+	}
+
+	@Test
+	public void testIntervalOverlapsMatchScan() {
+		Random random = new Random(16);
+		IntervalTree tree = new IntervalTree();
+		ArrayList<Task> tasks = new ArrayList<Task>();
+		for (int i = 0; i < 300; i++) {
+			long start = at(0) + random.nextInt(1000) * HOUR / 10;
+			Task task = new Task("task " + i, new DateTime(start), new DateTime(start + (1 + random.nextInt(30)) * HOUR / 10), null);
+			tasks.add(task);
+			tree.add(task);
+		}
+		for (int i = 0; i < 100; i++) {
+			tree.remove(tasks.remove(random.nextInt(tasks.size())));
+		}
+		
+		for (int i = 0; i < 200; i++) {
+			long from = at(0) + random.nextInt(1100) * HOUR / 10;
+			long to = from + random.nextInt(50) * HOUR / 10;
+			HashSet<Task> expected = new HashSet<Task>();
+			for (Task task : tasks) {
+				if (task.getStartDateTime().getMillis() < to && task.getEndDateTime().getMillis() > from) {
+					expected.add(task);
+				}
+			}
+			
+			ArrayList<Task> found = tree.getOverlapping(from, to);
+			assertEquals(expected, new HashSet<Task>(found));
+			assertEquals(expected.size(), found.size());
+			for (int j = 1; j < found.size(); j++) {
+				assertFalse(found.get(j).getStartDateTime().isBefore(found.get(j - 1).getStartDateTime()));
+			}
+		}
+	}
+
+	@Test
+	public void testFindFreeSlot() {
+		IntervalTree tree = new IntervalTree();
+		Task workshop = timedTask("workshop", 8, 11);
+		tree.add(workshop);
+		tree.add(timedTask("meeting", 9, 10));
+		tree.add(timedTask("lunch", 12, 13));
+		tree.add(timedTask("call", 13, 14));
+		
+		assertArrayEquals(new long[] {at(11), at(12)}, tree.findFreeSlot(at(8), at(17), HOUR));
+		assertArrayEquals(new long[] {at(14), at(17)}, tree.findFreeSlot(at(8), at(17), 2 * HOUR));
+		assertArrayEquals(new long[] {at(7), at(8)}, tree.findFreeSlot(at(7), at(17), HOUR));
+		assertArrayEquals(new long[] {at(14), at(16)}, tree.findFreeSlot(at(12), at(16), HOUR));
+		assertNull(tree.findFreeSlot(at(8), at(17), 4 * HOUR));
+		assertNull(tree.findFreeSlot(at(12), at(14), 1));
+		
+		tree.remove(workshop);
+		assertArrayEquals(new long[] {at(8), at(9)}, tree.findFreeSlot(at(8), at(17), HOUR));
+	}
+
+	@Test
+	public void testSlotBitmapAcrossChunkKinds() {
+		SlotBitmap dense = new SlotBitmap();
+		for (int i = 0; i < 4096; i++) {
+			dense.add(i * 2);
+		}
+		assertFalse(dense.add(0));
+		assertEquals(4096, dense.cardinality());
+		dense.add(1);
+		assertEquals(4097, dense.cardinality());
+		assertTrue(dense.remove(1));
+		assertFalse(dense.remove(1));
+		assertTrue(dense.remove(8190));
+		assertEquals(4095, dense.cardinality());
+		assertTrue(dense.contains(8188));
+		assertFalse(dense.contains(8190));
+		assertEquals(8188, dense.nextSetBit(8187));
+		assertEquals(-1, dense.nextSetBit(8189));
+		
+		Random random = new Random(18);
+		int[] sizes = {0, 10, 4095, 4096, 4097, 30000};
+		for (int i = 0; i < sizes.length; i++) {
+			for (int j = 0; j < sizes.length; j++) {
+				BitSet expectedA = new BitSet();
+				BitSet expectedB = new BitSet();
+				SlotBitmap a = randomBitmap(random, sizes[i], expectedA);
+				SlotBitmap b = randomBitmap(random, sizes[j], expectedB);
+				
+				BitSet and = (BitSet) expectedA.clone();
+				and.and(expectedB);
+				BitSet or = (BitSet) expectedA.clone();
+				or.or(expectedB);
+				BitSet andNot = (BitSet) expectedA.clone();
+				andNot.andNot(expectedB);
+				assertEquals(expectedA, toBitSet(a));
+				assertEquals(and, toBitSet(SlotBitmap.and(a, b)));
+				assertEquals(or, toBitSet(SlotBitmap.or(a, b)));
+				assertEquals(andNot, toBitSet(SlotBitmap.andNot(a, b)));
+				assertEquals(or.cardinality(), SlotBitmap.or(a, b).cardinality());
+				assertEquals(expectedA, toBitSet(a));
+			}
+		}
+	}
+
+	@Test
+	public void testSearchPrefixAndRanking() {
+		Task meet = new Task("meet john at the cafe");
+		Task notes = new Task("meeting notes");
+		Task project = new Task("project meeting with john and the whole design team");
+		Task milk = new Task("buy milk", null, null, "groceries");
+		TaskList list = new TaskList(Arrays.asList(meet, notes, project, milk));
+		
+		assertEquals(Arrays.asList(notes, meet, project), list.search("meet*"));
+		assertEquals(Arrays.asList(meet), list.search("meet"));
+		assertEquals(Arrays.asList(meet, project), list.search("JOHN meet*"));
+		assertEquals(Arrays.asList(milk), list.search("groceries"));
+		assertTrue(list.search("john milk").isEmpty());
+		assertTrue(list.search("").isEmpty());
+		
+		milk.setDescription("buy oat milk");
+		assertEquals(Arrays.asList(milk), list.search("oat"));
+		list.remove(meet);
+		assertEquals(Arrays.asList(project), list.search("john"));
+	}
+
+	@Test
+	public void testFuzzySearchRanking() {
+		Task closer = new Task("meeting plan");
+		Task further = new Task("meet plan");
+		Task shortDesign = new Task("design review");
+		Task longDesign = new Task("review the whole design of the team page");
+		Task milk = new Task("buy milk", null, null, "groceries");
+		TaskList list = new TaskList(Arrays.asList(longDesign, further, milk, shortDesign, closer));
+		
+		assertEquals(Arrays.asList(closer, further), list.searchFuzzy("meetng"));
+		assertEquals(Arrays.asList(closer), list.searchFuzzy("meeting"));
+		assertEquals(Arrays.asList(shortDesign, longDesign), list.searchFuzzy("desgin"));
+		assertEquals(Arrays.asList(shortDesign, longDesign), list.searchFuzzy("desgin reveiw"));
+		assertEquals(Arrays.asList(milk), list.searchFuzzy("grocerys"));
+		assertTrue(list.searchFuzzy("xyzzy").isEmpty());
+		assertTrue(list.searchFuzzy("mt").isEmpty());
+	}
+
+	private SlotBitmap randomBitmap(Random random, int size, BitSet expected) {
+		// the first chunk gets the given number of values and the next ones a few
+		SlotBitmap bitmap = new SlotBitmap();
+		while (expected.cardinality() < size) {
+			int value = random.nextInt(65536);
+			expected.set(value);
+			bitmap.add(value);
+		}
+		for (int i = 0; i < size % 7; i++) {
+			int value = 65536 * (1 + random.nextInt(3)) + random.nextInt(100);
+			expected.set(value);
+			bitmap.add(value);
+		}
+		return bitmap;
+	}
+
+	private BitSet toBitSet(SlotBitmap bitmap) {
+		BitSet bits = new BitSet();
+		for (int i = bitmap.nextSetBit(0); i >= 0; i = bitmap.nextSetBit(i + 1)) {
+			bits.set(i);
+		}
+		assertEquals(bits.cardinality(), bitmap.cardinality());
+		return bits;
+	}
+
+	private Task timedTask(String description, int startHour, int endHour) {
+		return new Task(description, new DateTime(at(startHour)), new DateTime(at(endHour)), null);
+	}
+
+	private long at(int hour) {
+		return new DateTime(2014, 3, 10, 0, 0).getMillis() + hour * HOUR;
+	}
+}
@@ -1,154 +1,304 @@
-
-import static org.junit.Assert.*;
-
-import java.util.ArrayList;
-import java.util.Arrays;
-
-import org.joda.time.DateTime;
-import org.junit.Test;
-
-public class TestParser {
-	////////Tests for Command Parser /////////
-	
-	@Test 
-	public void testGetUserCommand() {
-		assertEquals("add", CommandParser.getUserCommandType("add meeting with john"));
-		assertEquals("meeting with jack", CommandParser.getUserCommandDesc("add meeting with jack"));
-		assertNull(CommandParser.getUserCommandDesc("add"));
-	}
-	
-	@Test
-	public void testIsValidCommand() {
-		//assertTrue(CommandParser.isValidCommand("add yolo"));
-		//assertFalse(CommandParser.isValidCommand("add"));
-		//assertFalse(CommandParser.isValidCommand("add "));
-		//assertFalse(CommandParser.isValidCommand(" add yolo"));
-	}
-	
-	@Test
-	public void testGetTaskFields() {
-		String[] expected = new String[4];
-		String[] input;
-		ArrayList<String> actual;
-		
-		input = "do stuff".split(" ");
-		actual = new ArrayList<String>(Arrays.asList(input));
-		assertArrayEquals(expected, CommandParser.getTaskFields(actual));
-		
-		expected[1] = "5pm";
-		input = "do stuff from 5pm".split(" ");
-		actual = new ArrayList<String>(Arrays.asList(input));
-		assertArrayEquals(expected, CommandParser.getTaskFields(actual));
-		
-		expected[3] = "1800";
-		input = "do stuff from 5pm to 1800".split(" ");
-		actual = new ArrayList<String>(Arrays.asList(input));
-		assertArrayEquals(expected, CommandParser.getTaskFields(actual));
-		
-		expected[0] = "monday";
-		input = "do stuff on monday from 5pm to 1800".split(" ");
-		actual = new ArrayList<String>(Arrays.asList(input));
-		assertArrayEquals(expected, CommandParser.getTaskFields(actual));
-		
-		expected[2] = "13/01/2033";
-		input = "do stuff from monday 5pm to 13/01/2033 1800".split(" ");
-		actual = new ArrayList<String>(Arrays.asList(input));
-		assertArrayEquals(expected, CommandParser.getTaskFields(actual));
-		
-	}
-	
-	@Test
-	public void testRemoveDateTimeFromString() {
-		assertEquals("do stuff ", CommandParser.removeDateTimeFromString("do stuff"));
-		assertEquals("do stuff with abby ", CommandParser.removeDateTimeFromString("do stuff on monday with abby"));
-		assertEquals("do stuff with abby ", CommandParser.removeDateTimeFromString("on monday do stuff with abby until tue"));
-		assertEquals("meeting with abby ", CommandParser.removeDateTimeFromString("from 5pm to 6pm meeting with abby on 12/12/12"));
-	}
-	
-	////////Tests for Date Parser /////////
-	
-	@Test
-	public void testIsDate() {
-		// Test for accepted date formats partition
-		assertTrue(DateParser.isDate("12/12/2012"));
-		assertTrue(DateParser.isDate("12-12-2012"));
-		assertTrue(DateParser.isDate("12.12.2012"));
-		assertTrue(DateParser.isDate("12/12"));
-		assertTrue(DateParser.isDate("12-12"));
-		assertTrue(DateParser.isDate("12/Feb/2012"));
-		assertTrue(DateParser.isDate("12-March-2012"));
-		assertTrue(DateParser.isDate("12.Dec.2012"));
-		assertTrue(DateParser.isDate("Tuesday"));
-		assertTrue(DateParser.isDate("Tomorrow"));
-		
-		// Test for unsupported date formats partition
-		assertFalse(DateParser.isDate("12-Decem-2013"));
-		assertFalse(DateParser.isDate("12.12"));
-		assertFalse(DateParser.isDate("yolo"));
-		
-		// Test for accepted date formats with escape characters
-		assertFalse(DateParser.isDate("/tomorrow"));
-	}
-	
-	@Test
-	public void testSetDate() {
-		DateTime dt;
-		dt = DateParser.setDate("11/12/2012");
-		assertEquals("11/12/2012", dt.toString("dd/MM/YYYY"));
-		dt = DateParser.setDate("11-12-2012");
-		assertEquals("11/12/2012", dt.toString("dd/MM/YYYY"));
-		dt = DateParser.setDate("11.12.2012");
-		assertEquals("11/12/2012", dt.toString("dd/MM/YYYY"));
-		dt = DateParser.setDate("11/12");
-		assertEquals("11/12", dt.toString("dd/MM"));
-		dt = DateParser.setDate("11-12");
-		assertEquals("11/12", dt.toString("dd/MM"));
-		dt = DateParser.setDate("11-March-2012");
-		assertEquals("11/03/2012", dt.toString("dd/MM/YYYY"));
-		dt = DateParser.setDate("11.Dec.2012");
-		assertEquals("11/12/2012", dt.toString("dd/MM/YYYY"));
-	}
-	
-	//////// Tests for Time Parser /////////
-	
-	@Test
-	public void testIsTime() {
-		// Test for accepted time formats
-		assertTrue(TimeParser.isTime("12:13"));
-		assertTrue(TimeParser.isTime("23.45"));
-		assertTrue(TimeParser.isTime("2359"));
-		assertTrue(TimeParser.isTime("11:30am"));
-		assertTrue(TimeParser.isTime("12.20pm"));
-		assertTrue(TimeParser.isTime("1130pm"));
-		assertTrue(TimeParser.isTime("11pm"));
-		assertTrue(TimeParser.isTime("1am"));
-		
-		// Test for unsupported time formats
-		assertFalse(TimeParser.isTime("24:00"));
-		
-		// Test for supported time formats with escape characters
-		assertFalse(TimeParser.isTime("/1235"));
-	}
-	
-	@Test
-	public void testSetTime() {
-		DateTime dt = new DateTime();
-		dt = TimeParser.setTime(dt, "12:13");
-		assertEquals("12:13", dt.toString("HH:mm"));
-		dt = TimeParser.setTime(dt, "23.45");
-		assertEquals("23:45", dt.toString("HH:mm"));
-		dt = TimeParser.setTime(dt, "2359");
-		assertEquals("23:59", dt.toString("HH:mm"));
-		dt = TimeParser.setTime(dt, "11:30am");
-		assertEquals("11:30", dt.toString("HH:mm"));
-		dt = TimeParser.setTime(dt, "12.20pm");
-		assertEquals("12:20", dt.toString("HH:mm"));
-		dt = TimeParser.setTime(dt, "1130pm");
-		assertEquals("23:30", dt.toString("HH:mm"));
-		dt = TimeParser.setTime(dt, "11pm");
-		assertEquals("23:00", dt.toString("HH:mm"));
-		dt = TimeParser.setTime(dt, "1am");
-		assertEquals("01:00", dt.toString("HH:mm"));
-	}
-}
-
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.junit.Test;
+
+public class TestParser {
+	////////Tests for Command Parser /////////
+	
+	@Test 
+	public void testGetUserCommand() {
+		assertEquals("add", CommandParser.getUserCommandType("add meeting with john"));
+		assertEquals("meeting with jack", CommandParser.getUserCommandDesc("add meeting with jack"));
+		assertNull(CommandParser.getUserCommandDesc("add"));
+	}
+	
+	@Test
+	public void testTokenize() {
+		CommandTokens tokens = CommandParser.tokenize("add  meet tutor alias:tut on 21/3 from 2pm to 3pm 12");
+		assertEquals(11, tokens.size());
+		assertEquals("add", CommandParser.getUserCommandType(tokens));
+		assertEquals("meet tutor alias:tut on 21/3 from 2pm to 3pm 12", CommandParser.getUserCommandDesc(tokens));
+		assertEquals(CommandTokens.WORD, tokens.getKind(2));
+		assertEquals(CommandTokens.ALIAS, tokens.getKind(3));
+		assertEquals(CommandTokens.IDENTIFIER, tokens.getKind(4));
+		assertEquals(CommandTokens.DATE, tokens.getKind(5));
+		assertEquals(CommandTokens.TIME, tokens.getKind(7));
+		assertEquals(CommandTokens.NUMBER, tokens.getKind(10));
+		assertEquals(5, tokens.getStart(1));
+		
+		tokens = CommandParser.tokenize("meet tutor alias:tut on 21/3 from 2pm to 3pm");
+		assertEquals("meet tutor", CommandParser.getDescription(tokens));
+		assertEquals("tut", CommandParser.getAliasFromDescription(tokens));
+		assertArrayEquals(new String[] {"21/3", "2pm", null, "3pm"}, CommandParser.getTaskFields(tokens));
+		
+		// Leading whitespace gives an empty first token, as String.split does
+		tokens = CommandParser.tokenize(" add yolo");
+		assertEquals("", CommandParser.getUserCommandType(tokens));
+		assertEquals("add yolo", CommandParser.getUserCommandDesc(tokens));
+		assertEquals("", CommandParser.getUserCommandDesc("add "));
+		assertNull(CommandParser.getUserCommandDesc("add"));
+	}
+	
+	@Test
+	public void testIsValidCommand() {
+		//assertTrue(CommandParser.isValidCommand("add yolo"));
+		//assertFalse(CommandParser.isValidCommand("add"));
+		//assertFalse(CommandParser.isValidCommand("add "));
+		//assertFalse(CommandParser.isValidCommand(" add yolo"));
+	}
+	
+	@Test
+	public void testGetTaskFields() {
+		String[] expected = new String[4];
+		String[] input;
+		ArrayList<String> actual;
+		
+		input = "do stuff".split(" ");
+		actual = new ArrayList<String>(Arrays.asList(input));
+		assertArrayEquals(expected, CommandParser.getTaskFields(actual));
+		
+		expected[1] = "5pm";
+		input = "do stuff from 5pm".split(" ");
+		actual = new ArrayList<String>(Arrays.asList(input));
+		assertArrayEquals(expected, CommandParser.getTaskFields(actual));
+		
+		expected[3] = "1800";
+		input = "do stuff from 5pm to 1800".split(" ");
+		actual = new ArrayList<String>(Arrays.asList(input));
+		assertArrayEquals(expected, CommandParser.getTaskFields(actual));
+		
+		expected[0] = "monday";
+		input = "do stuff on monday from 5pm to 1800".split(" ");
+		actual = new ArrayList<String>(Arrays.asList(input));
+		assertArrayEquals(expected, CommandParser.getTaskFields(actual));
+		
+		expected[2] = "13/01/2033";
+		input = "do stuff from monday 5pm to 13/01/2033 1800".split(" ");
+		actual = new ArrayList<String>(Arrays.asList(input));
+		assertArrayEquals(expected, CommandParser.getTaskFields(actual));
+		
+	}
+	
+	@Test
+	public void testRemoveDateTimeFromString() {
+		assertEquals("do stuff ", CommandParser.removeDateTimeFromString("do stuff"));
+		assertEquals("do stuff with abby ", CommandParser.removeDateTimeFromString("do stuff on monday with abby"));
+		assertEquals("do stuff with abby ", CommandParser.removeDateTimeFromString("on monday do stuff with abby until tue"));
+		assertEquals("meeting with abby ", CommandParser.removeDateTimeFromString("from 5pm to 6pm meeting with abby on 12/12/12"));
+	}
+	
+	////////Tests for Date Parser /////////
+	
+	@Test
+	public void testIsDate() {
+		// Test for accepted date formats partition
+		assertTrue(DateParser.isDate("12/12/2012"));
+		assertTrue(DateParser.isDate("12-12-2012"));
+		assertTrue(DateParser.isDate("12.12.2012"));
+		assertTrue(DateParser.isDate("12/12"));
+		assertTrue(DateParser.isDate("12-12"));
+		assertTrue(DateParser.isDate("12/Feb/2012"));
+		assertTrue(DateParser.isDate("12-March-2012"));
+		assertTrue(DateParser.isDate("12.Dec.2012"));
+		assertTrue(DateParser.isDate("Tuesday"));
+		assertTrue(DateParser.isDate("Tomorrow"));
+		
+		// Test for unsupported date formats partition
+		assertFalse(DateParser.isDate("12-Decem-2013"));
+		assertFalse(DateParser.isDate("12.12"));
+		assertFalse(DateParser.isDate("yolo"));
+		
+		// Test for accepted date formats with escape characters
+		assertFalse(DateParser.isDate("/tomorrow"));
+	}
+	
+	@Test
+	public void testSetDate() {
+		DateTime dt;
+		dt = DateParser.setDate("11/12/2012");
+		assertEquals("11/12/2012", dt.toString("dd/MM/YYYY"));
+		dt = DateParser.setDate("11-12-2012");
+		assertEquals("11/12/2012", dt.toString("dd/MM/YYYY"));
+		dt = DateParser.setDate("11.12.2012");
+		assertEquals("11/12/2012", dt.toString("dd/MM/YYYY"));
+		dt = DateParser.setDate("11/12");
+		assertEquals("11/12", dt.toString("dd/MM"));
+		dt = DateParser.setDate("11-12");
+		assertEquals("11/12", dt.toString("dd/MM"));
+		dt = DateParser.setDate("11-March-2012");
+		assertEquals("11/03/2012", dt.toString("dd/MM/YYYY"));
+		dt = DateParser.setDate("11.Dec.2012");
+		assertEquals("11/12/2012", dt.toString("dd/MM/YYYY"));
+	}
+	
+	@Test
+	public void testIsDateMatchesFormats() {
+		// The formats dates were once parsed with, tried in turn
+		String[] patterns = {"dd/MM/YYYY", "dd-MM-YYYY", "dd.MM.YYYY", "dd/MMM/YYYY", "dd-MMM-YYYY", "dd.MMM.YYYY",
+				"dd/MM", "dd-MM", "dd/MMM", "dd-MMM", "dd.MMM", "E"};
+		String[] days = {"", "0", "1", "01", "001", "9", "28", "29", "30", "31", "32", "+1", "x"};
+		String[] months = {"", "0", "2", "02", "4", "12", "13", "003", "feb", "Feb", "FEB", "fEb", "april", "April",
+				"APRIL", "Sept", "Decem", "mayo"};
+		String[] years = {null, "", "0", "1", "14", "2012", "2013", "2014", "2100", "292278993", "999999999",
+				"1234567890", "-2014", "2014 "};
+		String[] separators = {"/", "-", ".", " ", ":"};
+		String[] words = {"tue", "Tue", "TUE", "tUE", "tues", "Tuesday", "TUESDAY", "tuesDay", "thur", "sun",
+				"Sunday", "today", "Tomorrow", "YESTERDAY", "yolo", "meeting", "/tomorrow", "tue5", "", "mar"};
+		
+		ArrayList<String> inputs = new ArrayList<String>(Arrays.asList(words));
+		for (String day : days) {
+			for (String month : months) {
+				for (String separator : separators) {
+					for (String year : years) {
+						String date = day + separator + month;
+						inputs.add((year == null) ? date : date + separator + year);
+					}
+				}
+			}
+		}
+		
+		for (String input : inputs) {
+			boolean isDate = false;
+			for (String pattern : patterns) {
+				try {
+					DateTimeFormat.forPattern(pattern).withLocale(Locale.ENGLISH).parseDateTime(input);
+					isDate = true;
+					break;
+				} catch (IllegalArgumentException e) {
+					continue;
+				}
+			}
+			isDate = isDate || input.equalsIgnoreCase("today") || input.equalsIgnoreCase("tomorrow")
+					|| input.equalsIgnoreCase("yesterday");
+			assertEquals(input, isDate, DateParser.isDate(input));
+		}
+	}
+	
+	@Test
+	public void testDateCache() {
+		long hits = DateParser.getCacheStatistics().getHits();
+		assertTrue(DateParser.isDate("25/12/2030"));
+		assertTrue(DateParser.isDate("25/12/2030"));
+		assertFalse(DateParser.isDate("cachedword"));
+		assertFalse(DateParser.isDate("cachedword"));
+		assertEquals(hits + 2, DateParser.getCacheStatistics().getHits());
+		
+		// the cases a name may be written in share an entry
+		hits = DateParser.getCacheStatistics().getHits();
+		assertTrue(DateParser.isDate("25-dec-2031"));
+		assertTrue(DateParser.isDate("25-DEC-2031"));
+		assertTrue(DateParser.isDate("25-Dec-2031"));
+		assertFalse(DateParser.isDate("25-DeC-2031"));
+		assertFalse(DateParser.isDate("25-dec-2031 "));
+		assertEquals(hits + 2, DateParser.getCacheStatistics().getHits());
+		
+		LruCache<String, Integer> cache = new LruCache<String, Integer>(2);
+		cache.put("a", 1, LruCache.NEVER);
+		cache.put("b", 2, 100);
+		assertEquals(Integer.valueOf(1), cache.get("a", 0));
+		cache.put("c", 3, LruCache.NEVER);
+		
+		// b was used least recently, so it makes way for c
+		assertNull(cache.get("b", 0));
+		assertEquals(Integer.valueOf(3), cache.get("c", 0));
+		
+		// a stale value is dropped
+		cache.put("b", 2, 100);
+		assertEquals(Integer.valueOf(2), cache.get("b", 99));
+		assertNull(cache.get("b", 100));
+		
+		LruCache.Statistics statistics = cache.getStatistics();
+		assertEquals(3, statistics.getHits());
+		assertEquals(2, statistics.getMisses());
+		assertEquals(2, statistics.getEvictions());
+		assertEquals(1, statistics.getExpirations());
+	}
+	
+	//////// Tests for Time Parser /////////
+	
+	@Test
+	public void testIsTime() {
+		// Test for accepted time formats
+		assertTrue(TimeParser.isTime("12:13"));
+		assertTrue(TimeParser.isTime("23.45"));
+		assertTrue(TimeParser.isTime("2359"));
+		assertTrue(TimeParser.isTime("11:30am"));
+		assertTrue(TimeParser.isTime("12.20pm"));
+		assertTrue(TimeParser.isTime("1130pm"));
+		assertTrue(TimeParser.isTime("11pm"));
+		assertTrue(TimeParser.isTime("1am"));
+		
+		// Test for unsupported time formats
+		assertFalse(TimeParser.isTime("24:00"));
+		
+		// Test for supported time formats with escape characters
+		assertFalse(TimeParser.isTime("/1235"));
+	}
+	
+	@Test
+	public void testGetMinuteOfDayMatchesFormats() {
+		// The formats times were once parsed with, tried in turn
+		String[] patterns = {"HH:mm", "HH.mm", "HHmm", "hh:mmaa", "hh.mmaa", "hhmmaa", "hhaa", "haa"};
+		String[] hours = {"", "0", "1", "00", "01", "9", "11", "12", "13", "23", "24", "99", "001", "123", "0930",
+				"2359", "1130", "0000", "12345", "+1", "x"};
+		String[] minutes = {null, "", "0", "5", "05", "30", "59", "60", "005", "+5"};
+		String[] separators = {":", ".", "", " ", "-"};
+		String[] halfdays = {"", "am", "pm", "AM", "PM", "Pm", "aM", "a", "p.m.", " pm", "x"};
+		
+		ArrayList<String> inputs = new ArrayList<String>();
+		for (String hour : hours) {
+			for (String minute : minutes) {
+				for (String separator : separators) {
+					for (String halfday : halfdays) {
+						String time = (minute == null) ? hour : hour + separator + minute;
+						inputs.add(time + halfday);
+					}
+				}
+			}
+		}
+		
+		for (String input : inputs) {
+			int minuteOfDay = TimeParser.NOT_A_TIME;
+			for (String pattern : patterns) {
+				try {
+					DateTime time = DateTimeFormat.forPattern(pattern).withLocale(Locale.ENGLISH).parseDateTime(input);
+					minuteOfDay = time.getMinuteOfDay();
+					break;
+				} catch (IllegalArgumentException e) {
+					continue;
+				}
+			}
+			assertEquals(input, minuteOfDay, TimeParser.getMinuteOfDay(input));
+			assertEquals(input, minuteOfDay != TimeParser.NOT_A_TIME, TimeParser.isTime(input));
+		}
+	}
+	
+	@Test
+	public void testSetTime() {
+		DateTime dt = new DateTime();
+		dt = TimeParser.setTime(dt, "12:13");
+		assertEquals("12:13", dt.toString("HH:mm"));
+		dt = TimeParser.setTime(dt, "23.45");
+		assertEquals("23:45", dt.toString("HH:mm"));
+		dt = TimeParser.setTime(dt, "2359");
+		assertEquals("23:59", dt.toString("HH:mm"));
+		dt = TimeParser.setTime(dt, "11:30am");
+		assertEquals("11:30", dt.toString("HH:mm"));
+		dt = TimeParser.setTime(dt, "12.20pm");
+		assertEquals("12:20", dt.toString("HH:mm"));
+		dt = TimeParser.setTime(dt, "1130pm");
+		assertEquals("23:30", dt.toString("HH:mm"));
+		dt = TimeParser.setTime(dt, "11pm");
+		assertEquals("23:00", dt.toString("HH:mm"));
+		dt = TimeParser.setTime(dt, "1am");
+		assertEquals("01:00", dt.toString("HH:mm"));
+	}
+}
+
@@ -0,0 +1,342 @@
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+
+public class TestPersistence {
+
+	@Test
+	public void testJournalKeepsTabs() {
+		MainLogic.runLogic("add journal tab check alias:jtab");
+		MainLogic.runLogic("update jtab desc journal\ttab\tchanged");
+		WriteBehindPersister.flush();
+		assertTrue(findTask(TaskJournal.load(), "journal\ttab\tchanged") >= 0);
+		
+		MainLogic.runLogic("undo");
+		MainLogic.runLogic("undo");
+		WriteBehindPersister.flush();
+		assertEquals(-1, findTask(TaskJournal.load(), "journal\ttab\tchanged"));
+	}
+
+	@Test
+	public void testJournalReplay() {
+		MainLogic.runLogic("add replayed task alias:replay1");
+		MainLogic.runLogic("add replayed and deleted alias:replay2");
+		MainLogic.runLogic("update replay1 desc replayed task changed");
+		MainLogic.runLogic("mark replay1");
+		MainLogic.runLogic("delete replay2");
+		WriteBehindPersister.flush();
+		
+		ArrayList<Task> replayed = TaskJournal.load();
+		assertEquals(describe(Task.getList()), describe(replayed));
+		assertTrue(replayed.get(findTask(replayed, "replayed task changed")).getStatus());
+		assertEquals(-1, findTask(replayed, "replayed and deleted"));
+		MainLogic.runLogic("delete replay1");
+	}
+
+	@Test
+	public void testReplayAfterCompaction() {
+		WriteBehindPersister.flush();
+		TaskJournal.setCompactionPolicy(3, 0);
+		try {
+			for (int i = 1; i <= 5; i++) {
+				MainLogic.runLogic("add compacted " + i);
+				WriteBehindPersister.flush();
+			}
+			TaskJournal.awaitCompaction();
+			assertFalse(FileManager.fileExists("tasks.log.compacting"));
+		} finally {
+			TaskJournal.setCompactionPolicy(1000, 256 * 1024);
+		}
+		
+		ArrayList<Task> replayed = TaskJournal.load();
+		assertEquals(describe(Task.getList()), describe(replayed));
+		assertTrue(findTask(replayed, "compacted 5") >= 0);
+	}
+
+	@Test
+	public void testCrashBetweenRenameAndSnapshot() {
+		WriteBehindPersister.flush();
+		TaskJournal.checkpoint(Task.getList());
+		MainLogic.runLogic("add logged before the crash");
+		MainLogic.runLogic("add also logged before the crash");
+		WriteBehindPersister.flush();
+		assertTrue(FileManager.replaceFile("tasks.log", "tasks.log.compacting"));
+		
+		ArrayList<Task> replayed = TaskJournal.load();
+		assertEquals(describe(Task.getList()), describe(replayed));
+		TaskJournal.awaitCompaction();
+		assertFalse(FileManager.fileExists("tasks.log.compacting"));
+		assertTrue(findTask(TaskJournal.load(), "also logged before the crash") >= 0);
+	}
+
+	@Test
+	public void testFailedCheckpointKeepsLog() {
+		MainLogic.runLogic("add logged before a failed checkpoint alias:failcp");
+		WriteBehindPersister.flush();
+		long logSize = FileManager.getFileSize("tasks.log");
+		assertTrue(logSize > 0);
+		
+		File blocker = new File(FileManager.filepath + TaskSnapshot.getFileName(TaskSnapshot.getFormat()) + ".tmp");
+		assertTrue(blocker.mkdir());
+		try {
+			assertFalse(TaskJournal.checkpoint(Task.getList()));
+			assertEquals(logSize, FileManager.getFileSize("tasks.log"));
+			assertTrue(findTask(TaskJournal.load(), "logged before a failed checkpoint") >= 0);
+		} finally {
+			blocker.delete();
+		}
+		
+		assertTrue(TaskJournal.checkpoint(Task.getList()));
+		assertEquals(0, FileManager.getFileSize("tasks.log"));
+		long writes = countWrites();
+		assertTrue(TaskJournal.checkpoint(Task.getList()));
+		// only the snapshot is written; the log is already empty
+		assertEquals(writes + 1, countWrites());
+		MainLogic.runLogic("delete failcp");
+	}
+
+	@Test
+	public void testUndoDeltaKeepsTabs() {
+		Task task = new Task("after\tchange");
+		Task before = new Task("before\tchange\\t");
+		UndoDelta delta = new UndoDelta().addChanged(task, before).addCommandAdded("add", "a\tb");
+		
+		UndoDelta read = new UndoDelta();
+		for (String line : delta.toLines()) {
+			read.addLine(line);
+		}
+		assertEquals(delta.toLines(), read.toLines());
+		assertEquals("after\tchange", read.getChanged().get(0).getDescription());
+		assertEquals("before\tchange\\t", read.getImages().get(0).getDescription());
+	}
+
+	@Test
+	public void testWriteModeSetting() {
+		FileManager.writeToFile(Settings.FILE_SETTINGS, new ArrayList<String>(Arrays.asList(
+				"# written by testWriteModeSetting", "", "write.mode = fast", "write.sync.directory = sometimes")));
+		try {
+			Settings.load();
+			assertEquals(FileManager.WriteMode.FAST, FileManager.getWriteMode());
+			
+			long fastWrites = FileManager.getWriteCount(FileManager.WriteMode.FAST);
+			FileManager.writeToFile("write-mode-check.txt", new ArrayList<String>(Arrays.asList("fast")));
+			assertEquals(fastWrites + 1, FileManager.getWriteCount(FileManager.WriteMode.FAST));
+			assertEquals(Arrays.asList("fast"), FileManager.readAllLines("write-mode-check.txt"));
+			
+			assertFalse(Settings.apply(Settings.WRITE_MODE, "careless"));
+			assertEquals(FileManager.WriteMode.FAST, FileManager.getWriteMode());
+			assertTrue(Settings.apply(Settings.WRITE_SYNC_DIRECTORY, "true"));
+		} finally {
+			Settings.apply(Settings.WRITE_MODE, "durable");
+			Settings.apply(Settings.WRITE_SYNC_DIRECTORY, "false");
+			FileManager.deleteFile(Settings.FILE_SETTINGS);
+			FileManager.deleteFile("write-mode-check.txt");
+		}
+	}
+
+	@Test
+	public void testFailedWriteIsReported() {
+		File blocker = new File(FileManager.filepath + "write-failure-check.txt.tmp");
+		assertTrue(FileManager.writeToFile("write-failure-check.txt", new ArrayList<String>(Arrays.asList("kept"))));
+		assertTrue(blocker.mkdir());
+		try {
+			// the temporary file cannot be opened where a directory is in the way
+			assertFalse(FileManager.writeToFile("write-failure-check.txt", new ArrayList<String>(Arrays.asList("lost"))));
+			assertEquals(Arrays.asList("kept"), FileManager.readAllLines("write-failure-check.txt"));
+			assertFalse(FileManager.appendToFile("write-failure-check.txt.tmp", new ArrayList<String>(Arrays.asList("lost"))));
+		} finally {
+			blocker.delete();
+			FileManager.deleteFile("write-failure-check.txt");
+		}
+	}
+
+	@Test
+	public void testSnapshotFormatSetting() {
+		String textFile = TaskSnapshot.getFileName(TaskSnapshot.Format.TEXT);
+		String binaryFile = TaskSnapshot.getFileName(TaskSnapshot.Format.BINARY);
+		MainLogic.runLogic("add snapshot format check");
+		WriteBehindPersister.flush();
+		TaskJournal.checkpoint(Task.getList());
+		MainLogic.runLogic("add logged after the checkpoint");
+		WriteBehindPersister.flush();
+		try {
+			assertTrue(Settings.apply(Settings.SNAPSHOT_FORMAT, "binary"));
+			assertTrue(FileManager.fileExists(binaryFile));
+			assertFalse(FileManager.fileExists(textFile));
+			assertTrue(findTask(TaskJournal.load(), "snapshot format check") >= 0);
+			assertTrue(findTask(TaskJournal.load(), "logged after the checkpoint") >= 0);
+			
+			assertTrue(Settings.apply(Settings.SNAPSHOT_FORMAT, "text"));
+			assertTrue(FileManager.fileExists(textFile));
+			assertFalse(FileManager.fileExists(binaryFile));
+			assertTrue(findTask(TaskJournal.load(), "snapshot format check") >= 0);
+			assertTrue(findTask(TaskJournal.load(), "logged after the checkpoint") >= 0);
+		} finally {
+			Settings.apply(Settings.SNAPSHOT_FORMAT, "text");
+		}
+	}
+
+	@Test
+	public void testSnapshotsKeepZone() {
+		DateTimeZone tokyo = DateTimeZone.forID("Asia/Tokyo");
+		DateTimeZone zone = tokyo.equals(DateTimeZone.getDefault()) ? DateTimeZone.forID("America/New_York") : tokyo;
+		Task abroad = new Task("meeting abroad", new DateTime(2014, 3, 10, 9, 0, zone), new DateTime(2014, 3, 10, 10, 30, zone), null);
+		Task home = new Task("meeting at home", new DateTime(2014, 3, 10, 9, 0), null, null);
+		List<Task> tasks = Arrays.asList(abroad, home);
+		
+		for (TaskSnapshot.Format format : TaskSnapshot.Format.values()) {
+			String fileName = "zone-check-" + format;
+			assertTrue(TaskSnapshot.write(fileName, format, tasks, 0));
+			ArrayList<Task> read = new ArrayList<Task>();
+			if (format == TaskSnapshot.Format.BINARY) {
+				BinaryTaskFile.read(fileName, read);
+			} else {
+				TaskSnapshot.readText(fileName, read);
+			}
+			FileManager.deleteFile(fileName);
+			
+			assertEquals(9, read.get(0).getStartDateTime().getHourOfDay());
+			assertEquals(10, read.get(0).getEndDateTime().getHourOfDay());
+			assertEquals(abroad.toContentString(), read.get(0).toContentString());
+			assertEquals(home.toContentString(), read.get(1).toContentString());
+			assertEquals(DateTimeZone.getDefault(), read.get(1).getStartDateTime().getZone());
+		}
+	}
+
+	@Test
+	public void testWriteBehindCoalesces() {
+		WriteBehindPersister.flush();
+		final int[] saves = new int[1];
+		Runnable save = new Runnable() {
+			public void run() {
+				saves[0]++;
+			}
+		};
+		try {
+			assertTrue(Settings.apply(Settings.WRITE_BEHIND_WINDOW, "60000"));
+			assertFalse(Settings.apply(Settings.WRITE_BEHIND_WINDOW, "soon"));
+			WriteBehindPersister.markDirty("coalesce-check", save);
+			WriteBehindPersister.markDirty("coalesce-check", save);
+			assertTrue(WriteBehindPersister.hasPendingSaves());
+			assertEquals(0, saves[0]);
+			WriteBehindPersister.flush();
+			assertFalse(WriteBehindPersister.hasPendingSaves());
+			assertEquals(1, saves[0]);
+			
+			long writes = countWrites();
+			MainLogic.runLogic("add coalesced one");
+			MainLogic.runLogic("add coalesced two");
+			MainLogic.runLogic("add coalesced three");
+			assertEquals(writes, countWrites());
+			WriteBehindPersister.flush();
+			assertTrue(countWrites() - writes <= 2);	// one for the journal and one for the undo log
+			assertTrue(findTask(TaskJournal.load(), "coalesced three") >= 0);
+			
+			assertTrue(Settings.apply(Settings.WRITE_BEHIND, "false"));
+			WriteBehindPersister.markDirty("coalesce-check", save);
+			assertFalse(WriteBehindPersister.hasPendingSaves());
+			assertEquals(2, saves[0]);
+		} finally {
+			Settings.apply(Settings.WRITE_BEHIND, "true");
+			Settings.apply(Settings.WRITE_BEHIND_WINDOW, "200");
+		}
+	}
+
+	@Test
+	public void testStorageModeSetting() {
+		MainLogic.runLogic("add kept in every storage mode");
+		try {
+			assertTrue(Settings.apply(Settings.STORAGE_MODE, "slotted"));
+			assertEquals(Task.StorageMode.SLOTTED, Task.getStorageMode());
+			assertTrue(SlottedTaskStore.exists());
+			assertFalse(FileManager.fileExists(Task.FILE_TASK));
+			MainLogic.runLogic("add kept in slots");
+			WriteBehindPersister.flush();
+			assertTrue(findTask(Task.loadTasks(), "kept in every storage mode") >= 0);
+			assertTrue(findTask(Task.loadTasks(), "kept in slots") >= 0);
+			
+			assertTrue(Settings.apply(Settings.STORAGE_MODE, "snapshot"));
+			assertFalse(SlottedTaskStore.exists());
+			MainLogic.runLogic("add kept in the snapshot");
+			WriteBehindPersister.flush();
+			assertTrue(findTask(Task.loadTasks(), "kept in slots") >= 0);
+			assertTrue(findTask(Task.loadTasks(), "kept in the snapshot") >= 0);
+			
+			assertFalse(Settings.apply(Settings.STORAGE_MODE, "cloud"));
+			assertEquals(Task.StorageMode.SNAPSHOT, Task.getStorageMode());
+		} finally {
+			Settings.apply(Settings.STORAGE_MODE, "journal");
+		}
+		assertTrue(findTask(Task.loadTasks(), "kept in every storage mode") >= 0);
+		assertTrue(findTask(Task.loadTasks(), "kept in the snapshot") >= 0);
+	}
+
+	@Test
+	public void testNewestSlotCopyWinsAfterCrash() throws IOException {
+		Task task = new Task("slot copy before the crash");
+		task.assignId();
+		try {
+			assertTrue(SlottedTaskStore.rewrite(Arrays.asList(task)));
+			byte[] before = readSlotFile();
+			
+			// the edited copy is appended behind the old copy
+			task.setDescription("slot copy after the crash");
+			SlottedTaskStore.recordChanged(task);
+			SlottedTaskStore.flush(Arrays.asList(task));
+			byte[] after = readSlotFile();
+			
+			// the crash loses the write that freed the old copy, the first byte to change
+			int first = 0;
+			while (after[first] == before[first]) {
+				first++;
+			}
+			after[first] = before[first];
+			Files.write(Paths.get(FileManager.filepath + SlottedTaskStore.FILE_SLOTS), after);
+			
+			ArrayList<Task> loaded = SlottedTaskStore.load();
+			assertEquals(1, loaded.size());
+			assertEquals("slot copy after the crash", loaded.get(0).getDescription());
+			assertEquals(1, SlottedTaskStore.load().size());
+		} finally {
+			SlottedTaskStore.delete();
+		}
+	}
+
+	private byte[] readSlotFile() throws IOException {
+		return Files.readAllBytes(Paths.get(FileManager.filepath + SlottedTaskStore.FILE_SLOTS));
+	}
+
+	private long countWrites() {
+		return FileManager.getWriteCount(FileManager.WriteMode.DURABLE) + FileManager.getWriteCount(FileManager.WriteMode.FAST);
+	}
+
+	private ArrayList<String> describe(List<Task> tasks) {
+		ArrayList<String> lines = new ArrayList<String>();
+		for (int i = 0; i < tasks.size(); i++) {
+			lines.add(tasks.get(i).toString());
+		}
+		Collections.sort(lines);
+		return lines;
+	}
+
+	private int findTask(ArrayList<Task> tasks, String description) {
+		for (int i = 0; i < tasks.size(); i++) {
+			if (tasks.get(i).getDescription().equals(description)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
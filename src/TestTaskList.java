@@ -0,0 +1,182 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+
+public class TestTaskList {
+
+	@Test
+	public void testNewTaskGetsIdWhenAdded() {
+		Task stored = new Task(1000000, "stored task", null, null, null, false);
+		Task created = new Task("created task");
+		assertEquals(0, created.getId());
+		
+		TaskList list = new TaskList();
+		list.add(stored);
+		list.add(created);
+		assertTrue(created.getId() > stored.getId());
+		assertSame(created, list.getById(created.getId()));
+		
+		long id = created.getId();
+		list.remove(created);
+		list.add(created);
+		assertEquals(id, created.getId());
+	}
+
+	@Test
+	public void testAssignIdsToDuplicates() {
+		ArrayList<Task> tasks = new ArrayList<Task>();
+		tasks.add(new Task(2000000, "first", null, null, null, false));
+		tasks.add(new Task(2000000, "second", null, null, null, false));
+		tasks.add(new Task("legacy"));
+		
+		assertTrue(Task.assignIds(tasks));
+		assertEquals(2000000, tasks.get(0).getId());
+		assertTrue(tasks.get(1).getId() > 2000000);
+		assertTrue(tasks.get(2).getId() > 2000000);
+		assertTrue(tasks.get(1).getId() != tasks.get(2).getId());
+		assertFalse(Task.assignIds(tasks));
+	}
+
+	@Test
+	public void testOrderAfterUpdatesThatMoveTasks() {
+		DateTime day = new DateTime(2014, 3, 10, 9, 0);
+		Task first = new Task("first", null, day, null);
+		Task second = new Task("second", null, day.plusDays(1), null);
+		Task third = new Task("third", null, day.plusDays(2), null);
+		Task undated = new Task("undated");
+		TaskList list = new TaskList(Arrays.asList(undated, third, first, second));
+		assertEquals(Arrays.asList(first, second, third, undated), list);
+		
+		third.setEndDateTime(day.minusDays(1));
+		assertSame(third, list.get(0));
+		assertSame(first, list.get(1));
+		assertEquals(0, list.indexOf(third));
+		
+		first.setEndDateTime(day.plusDays(5));
+		undated.setStartDateTime(day);
+		assertEquals(Arrays.asList(third, undated, second, first), list);
+		for (int k = 0; k < list.size(); k++) {
+			assertEquals(k, list.indexOf(list.get(k)));
+		}
+		
+		list.remove(undated);
+		assertSame(second, list.get(1));
+		assertSame(first, list.get(2));
+	}
+
+	@Test
+	public void testAliasIndexFollowsUpdateAndUndo() {
+		MainLogic.runLogic("add alias index check alias:aliasold");
+		MainLogic.runLogic("update aliasold alias aliasnew");
+		assertEquals(-1, Task.getTaskIndexFromAlias("aliasold"));
+		assertEquals("alias index check", getTaskWithAlias("aliasnew").getDescription());
+		
+		MainLogic.runLogic("undo");
+		assertEquals(-1, Task.getTaskIndexFromAlias("aliasnew"));
+		assertEquals("alias index check", getTaskWithAlias("aliasold").getDescription());
+		
+		MainLogic.runLogic("redo");
+		assertEquals(-1, Task.getTaskIndexFromAlias("aliasold"));
+		assertEquals("alias index check", getTaskWithAlias("aliasnew").getDescription());
+		
+		MainLogic.runLogic("delete aliasnew");
+		assertEquals(-1, Task.getTaskIndexFromAlias("aliasnew"));
+	}
+
+	@Test
+	public void testMarkAndDeleteSeveralTasks() {
+		MainLogic.runLogic("add first of several alias:several1");
+		MainLogic.runLogic("add second of several alias:several2");
+		assertEquals("Nothing to mark.\n", MainLogic.runLogic("mark").getDesc());
+		assertEquals("Nothing to mark.\n", MainLogic.runLogic("mark 99999999999 nosuchalias").getDesc());
+		
+		MainLogic.runLogic("mark several1  several2 several1");
+		assertTrue(getTaskWithAlias("several1").getStatus());
+		assertTrue(getTaskWithAlias("several2").getStatus());
+		
+		MainLogic.runLogic("delete several2 99999999999 several1");
+		assertEquals(-1, Task.getTaskIndexFromAlias("several1"));
+		assertEquals(-1, Task.getTaskIndexFromAlias("several2"));
+	}
+
+	@Test
+	public void testCalendarWeekAndMonth() {
+		Task sundayBefore = new Task("sunday before", null, new DateTime(2014, 3, 9, 23, 0), null);
+		Task monday = new Task("monday", null, new DateTime(2014, 3, 10, 0, 0), null);
+		Task sunday = new Task("sunday", new DateTime(2014, 3, 16, 10, 0), new DateTime(2014, 3, 16, 11, 0), null);
+		Task mondayAfter = new Task("monday after", null, new DateTime(2014, 3, 17, 9, 0), null);
+		Task endOfMonth = new Task("end of month", null, new DateTime(2014, 3, 31, 23, 59), null);
+		Task nextMonth = new Task("next month", null, new DateTime(2014, 4, 1, 0, 0), null);
+		TaskList list = new TaskList(Arrays.asList(sundayBefore, monday, sunday, mondayAfter, endOfMonth, nextMonth, new Task("undated")));
+		
+		LocalDate weekStart = new LocalDate(2014, 3, 10);
+		LocalDate weekEnd = new LocalDate(2014, 3, 16);
+		assertEquals(asSet(monday, sunday), asSet(list.tasksOf(list.slotsOnDays(weekStart, weekEnd))));
+		assertEquals(asSet(sundayBefore, monday, sunday, mondayAfter, endOfMonth),
+				asSet(list.tasksOf(list.slotsOnDays(new LocalDate(2014, 3, 1), new LocalDate(2014, 3, 31)))));
+		assertEquals(0, list.slotsOnDays(weekEnd, weekStart).cardinality());
+		
+		nextMonth.setEndDateTime(new DateTime(2014, 3, 12, 8, 0));
+		sunday.setStartDateTime(null);
+		sunday.setEndDateTime(new DateTime(2014, 3, 18, 8, 0));
+		assertEquals(asSet(monday, nextMonth), asSet(list.tasksOf(list.slotsOnDays(weekStart, weekEnd))));
+		assertEquals(0, list.slotsOnDays(new LocalDate(2014, 4, 1), new LocalDate(2014, 4, 30)).cardinality());
+	}
+
+	@Test
+	public void testOverdueTasksDropOutWhenMarked() {
+		DateTime now = new DateTime(2014, 3, 10, 12, 0);
+		Task late = new Task("late", null, now.minusHours(1), null);
+		Task started = new Task("started", now.minusDays(1), now.plusHours(1), null);
+		Task due = new Task("due", null, now.plusHours(1), null);
+		TaskList list = new TaskList(Arrays.asList(late, started, due, new Task("undated")));
+		assertEquals(asSet(late, started), asSet(list.tasksOf(list.slotsOverdue(now))));
+		
+		late.toggleStatus();
+		assertEquals(asSet(started), asSet(list.tasksOf(list.slotsOverdue(now))));
+		assertEquals(asSet(late), asSet(list.tasksOf(list.slotsWithStatus(true))));
+		
+		late.toggleStatus();
+		due.setEndDateTime(now.minusMinutes(1));
+		assertEquals(asSet(late, started, due), asSet(list.tasksOf(list.slotsOverdue(now))));
+		
+		list.remove(started);
+		assertEquals(asSet(late, due), asSet(list.tasksOf(list.slotsOverdue(now))));
+	}
+
+	@Test
+	public void testFreeTimeRejectsHugeLengths() {
+		DateTime from = new DateTime(2014, 3, 10, 8, 0);
+		TaskList list = new TaskList(Arrays.asList(new Task("meeting", from.plusHours(1), from.plusHours(2), null)));
+		assertArrayEquals(new DateTime[] {from.plusHours(2), from.plusDays(1)}, list.findFreeSlot(from, from.plusDays(1), 120));
+		assertNull(list.findFreeSlot(from, from.plusDays(1), Long.MAX_VALUE / 1000));
+		
+		String tooLong = "Error, please enter a length of time no longer than a month.\n";
+		assertEquals(tooLong, MainLogic.runLogic("free 36000000h").getDesc());
+		assertEquals(tooLong, MainLogic.runLogic("free 99999999999999999999m").getDesc());
+		assertEquals(tooLong, MainLogic.runLogic("free 745").getDesc());
+		assertFalse(MainLogic.runLogic("free 1h").getDesc().startsWith("Error"));
+	}
+
+	private HashSet<Task> asSet(Task... tasks) {
+		return asSet(Arrays.asList(tasks));
+	}
+
+	private HashSet<Task> asSet(List<Task> tasks) {
+		return new HashSet<Task>(tasks);
+	}
+
+	private Task getTaskWithAlias(String alias) {
+		int index = Task.getTaskIndexFromAlias(alias);
+		assertTrue(index >= 0);
+		return Task.getList().get(index);
+	}
+}
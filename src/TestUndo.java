@@ -1,15 +1,255 @@
-import static org.junit.Assert.*;
-
-import org.junit.Test;
-
-
-public class TestUndo {
-
-	@Test
-	public void testUndo() {
-		MainLogic.runLogic("add meeting with john");
-		MainLogic.runLogic("Undo");
-		Feedback feedback = HistoryHandler.undoCommand();
-		assertEquals("Undo successful!" + "\n",feedback.getDesc());
-	}
-}
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+
+public class TestUndo {
+
+	@Test
+	public void testUndo() {
+		MainLogic.runLogic("add meeting with john");
+		MainLogic.runLogic("Undo");
+		Feedback feedback = HistoryHandler.undoCommand();
+		assertEquals("Undo successful!" + "\n",feedback.getDesc());
+	}
+
+	@Test
+	public void testUndoUpdateInPlace() {
+		MainLogic.runLogic("add undo update check");
+		int index = findTask("undo update check") + 1;
+		MainLogic.runLogic("update " + index + " desc undo update changed");
+		assertTrue(findTask("undo update changed") >= 0);
+		
+		MainLogic.runLogic("undo");
+		assertTrue(findTask("undo update check") >= 0);
+		assertEquals(-1, findTask("undo update changed"));
+		
+		MainLogic.runLogic("redo");
+		assertEquals(-1, findTask("undo update check"));
+		assertTrue(findTask("undo update changed") >= 0);
+		
+		MainLogic.runLogic("undo");
+		MainLogic.runLogic("undo");
+		assertEquals(-1, findTask("undo update check"));
+	}
+
+	@Test
+	public void testUndoCustomCommand() {
+		String invalid = "Invalid command! Please try again.\n";
+		MainLogic.runLogic("custom add jot");
+		assertFalse(invalid.equals(MainLogic.runLogic("JOT undo custom check").getDesc()));
+		assertTrue(findTask("undo custom check") >= 0);
+		
+		MainLogic.runLogic("undo");
+		MainLogic.runLogic("undo");
+		assertEquals(-1, findTask("undo custom check"));
+		assertEquals(invalid, MainLogic.runLogic("jot undo custom check").getDesc());
+		
+		MainLogic.runLogic("redo");
+		assertFalse(invalid.equals(MainLogic.runLogic("Jot undo custom check").getDesc()));
+		MainLogic.runLogic("undo");
+		MainLogic.runLogic("dcustom JOT");
+		assertEquals(invalid, MainLogic.runLogic("jot undo custom check").getDesc());
+	}
+
+	@Test
+	public void testSnapshotEngine() {
+		assertTrue(Settings.apply(Settings.UNDO_ENGINE, "snapshot"));
+		try {
+			assertEquals(HistoryHandler.Engine.SNAPSHOT, HistoryHandler.getEngine());
+			MainLogic.runLogic("add snapshot engine check alias:snapcheck");
+			WriteBehindPersister.flush();
+			assertFalse(FileManager.fileExists("undo.log"));
+			MainLogic.runLogic("update snapcheck desc snapshot engine changed");
+			MainLogic.runLogic("mark snapcheck");
+			
+			MainLogic.runLogic("undo");
+			Task task = Task.getList().get(findTask("snapshot engine changed"));
+			assertFalse(task.getStatus());
+			MainLogic.runLogic("undo");
+			assertTrue(findTask("snapshot engine check") >= 0);
+			MainLogic.runLogic("undo");
+			assertEquals(-1, findTask("snapshot engine check"));
+			assertEquals("Nothing left to undo.\n", MainLogic.runLogic("undo").getDesc());
+			
+			MainLogic.runLogic("redo");
+			MainLogic.runLogic("redo");
+			MainLogic.runLogic("redo");
+			task = Task.getList().get(findTask("snapshot engine changed"));
+			assertTrue(task.getStatus());
+			assertEquals("snapcheck", task.getAlias());
+			assertEquals("Nothing left to redo.\n", MainLogic.runLogic("redo").getDesc());
+			
+			MainLogic.runLogic("delete snapcheck");
+			assertEquals(-1, findTask("snapshot engine changed"));
+			MainLogic.runLogic("undo");
+			assertTrue(findTask("snapshot engine changed") >= 0);
+			MainLogic.runLogic("delete snapcheck");
+		} finally {
+			assertTrue(Settings.apply(Settings.UNDO_ENGINE, "delta"));
+		}
+		assertFalse(Settings.apply(Settings.UNDO_ENGINE, "sideways"));
+	}
+
+	@Test
+	public void testEngineSettingIsLazy() {
+		MainLogic.runLogic("add lazy engine check");
+		WriteBehindPersister.flush();
+		long logSize = FileManager.getFileSize("undo.log");
+		int steps = HistoryHandler.getUndoSteps();
+		
+		// picking an engine leaves the history alone until it is used
+		assertTrue(Settings.apply(Settings.UNDO_ENGINE, "snapshot"));
+		assertTrue(Settings.apply(Settings.UNDO_ENGINE, "delta"));
+		WriteBehindPersister.flush();
+		assertEquals(logSize, FileManager.getFileSize("undo.log"));
+		assertEquals(steps, HistoryHandler.getUndoSteps());
+		
+		MainLogic.runLogic("undo");
+		assertEquals(-1, findTask("lazy engine check"));
+	}
+
+	@Test
+	public void testPersistentMapDiff() {
+		PersistentLongMap<String> empty = PersistentLongMap.empty();
+		PersistentLongMap<String> before = empty;
+		for (long key = 1; key <= 2000; key++) {
+			before = before.put(key * 37, "v" + key);
+		}
+		before = before.put(Long.MAX_VALUE, "max").put(1L << 40, "far");
+		
+		PersistentLongMap<String> after = before.remove(37).remove(Long.MAX_VALUE).put(74, "changed").put(5, "new").put(3L << 40, "far new");
+		assertEquals(2002, before.size());
+		assertEquals(2002, after.size());
+		assertEquals("v2", before.get(74));
+		assertEquals("changed", after.get(74));
+		assertNull(after.get(37));
+		
+		final TreeMap<Long, String> restored = new TreeMap<Long, String>();
+		final ArrayList<String> changes = new ArrayList<String>();
+		for (long key = 1; key <= 2000; key++) {
+			restored.put(key * 37, before.get(key * 37));
+		}
+		restored.put(Long.MAX_VALUE, "max");
+		restored.put(1L << 40, "far");
+		before.diff(after, new PersistentLongMap.DiffHandler<String>() {
+			public void removed(long key, String value) {
+				changes.add("-" + key);
+				restored.remove(key);
+			}
+			public void added(long key, String value) {
+				changes.add("+" + key);
+				restored.put(key, value);
+			}
+			public void changed(long key, String from, String to) {
+				changes.add("~" + key);
+				restored.put(key, to);
+			}
+		});
+		
+		assertEquals(5, changes.size());
+		assertTrue(changes.containsAll(Arrays.asList("-37", "-" + Long.MAX_VALUE, "~74", "+5", "+" + (3L << 40))));
+		assertEquals(after.size(), restored.size());
+		for (Long key : restored.keySet()) {
+			assertEquals(restored.get(key), after.get(key));
+		}
+		
+		changes.clear();
+		after.diff(after.put(74, new String("changed")), new PersistentLongMap.DiffHandler<String>() {
+			public void removed(long key, String value) {
+				changes.add("-" + key);
+			}
+			public void added(long key, String value) {
+				changes.add("+" + key);
+			}
+			public void changed(long key, String from, String to) {
+				changes.add("~" + key);
+			}
+		});
+		assertEquals(Arrays.asList("~74"), changes);
+	}
+
+	@Test
+	public void testUndoThroughSpilledSteps() {
+		long heapBudget = HistoryHandler.getHeapBudget();
+		long diskBudget = HistoryHandler.getDiskBudget();
+		try {
+			assertTrue(Settings.apply(Settings.UNDO_HEAP_BUDGET, "1"));
+			assertFalse(Settings.apply(Settings.UNDO_DISK_BUDGET, "-1"));
+			assertEquals(diskBudget, HistoryHandler.getDiskBudget());
+			long diskBytes = HistoryHandler.getDiskFootprint();
+			for (int i = 1; i <= 5; i++) {
+				MainLogic.runLogic("add spilled step " + i);
+			}
+			assertTrue(HistoryHandler.getDiskFootprint() > diskBytes);
+			assertTrue(HistoryHandler.getHeapFootprint() > 0);
+			
+			for (int i = 5; i >= 1; i--) {
+				assertEquals("Undo successful!\n", MainLogic.runLogic("undo").getDesc());
+				assertEquals(-1, findTask("spilled step " + i));
+			}
+			
+			for (int i = 1; i <= 5; i++) {
+				assertEquals("Redo successful!\n", MainLogic.runLogic("redo").getDesc());
+				assertTrue(findTask("spilled step " + i) >= 0);
+			}
+			for (int i = 1; i <= 5; i++) {
+				MainLogic.runLogic("undo");
+			}
+		} finally {
+			HistoryHandler.setMemoryBudget(heapBudget, diskBudget);
+		}
+	}
+
+	@Test
+	public void testUndoFromOldUndoFile() {
+		MainLogic.runLogic("add legacy undo one");
+		MainLogic.runLogic("add legacy undo two");
+		ArrayList<String> before = new ArrayList<String>();
+		ArrayList<String> between = new ArrayList<String>();
+		for (Task task : Task.getList()) {
+			if (!task.getDescription().startsWith("legacy undo")) {
+				before.add(task.toContentString());
+			}
+			if (!task.getDescription().equals("legacy undo two")) {
+				between.add(task.toContentString());
+			}
+		}
+		ArrayList<String> saved = new ArrayList<String>(before);
+		saved.add("!@#$%^&*()");
+		saved.addAll(between);
+		saved.add("!@#$%^&*()");
+		saved.addAll(between);
+		saved.add("!@#$%^&*()");
+		
+		WriteBehindPersister.flush();
+		FileManager.deleteFile("undo.log");
+		FileManager.writeToFile("undo.txt", saved);
+		HistoryHandler.reload();
+		assertEquals(2, HistoryHandler.getUndoSteps());
+		assertFalse(FileManager.fileExists("undo.txt"));
+		
+		assertEquals("Undo successful!\n", MainLogic.runLogic("undo").getDesc());
+		assertEquals(-1, findTask("legacy undo two"));
+		assertTrue(findTask("legacy undo one") >= 0);
+		
+		HistoryHandler.reload();
+		assertEquals(1, HistoryHandler.getUndoSteps());
+		assertEquals("Undo successful!\n", MainLogic.runLogic("undo").getDesc());
+		assertEquals(-1, findTask("legacy undo one"));
+		assertEquals(before.size(), Task.getList().size());
+	}
+
+	private int findTask(String description) {
+		for (int i = 0; i < Task.getList().size(); i++) {
+			if (Task.getList().get(i).getDescription().equals(description)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
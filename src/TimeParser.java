@@ -1,95 +1,142 @@
-import java.util.ArrayList;
-import java.util.Arrays;
-
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-
-public class TimeParser{
-	private static final String TIME_FORMAT_0 = "HH:mm";
-	private static final String TIME_FORMAT_1 = "HH.mm";
-	private static final String TIME_FORMAT_2 = "HHmm";
-	private static final String TIME_FORMAT_3 = "hh:mmaa";
-	private static final String TIME_FORMAT_4 = "hh.mmaa";
-	private static final String TIME_FORMAT_5 = "hhmmaa";
-	private static final String TIME_FORMAT_6 = "hhaa";
-	private static final String TIME_FORMAT_7 = "haa";
-	private static final int FORMAT_SIZE = 8;
-	
-	private static ArrayList<DateTimeFormatter> timeFormats = 
-		new ArrayList<DateTimeFormatter> (Arrays.asList( 
-			DateTimeFormat.forPattern(TIME_FORMAT_0), 
-			DateTimeFormat.forPattern(TIME_FORMAT_1), 
-			DateTimeFormat.forPattern(TIME_FORMAT_2), 	
-			DateTimeFormat.forPattern(TIME_FORMAT_3), 
-			DateTimeFormat.forPattern(TIME_FORMAT_4), 
-			DateTimeFormat.forPattern(TIME_FORMAT_5), 
-			DateTimeFormat.forPattern(TIME_FORMAT_6),
-			DateTimeFormat.forPattern(TIME_FORMAT_7)
-		));
-	
-	/**
-	 * Alters the time component of the input DateTime object with the input time string
-	 * @param date
-	 * @param input
-	 * @return a DateTime object with date and time already set
-	 */
-	protected static DateTime setTime(DateTime date, String input) {
-		if (isValidFormat(input)) {
-			date = parseTimeFormat(date, input);
-			return date;
-		} else {
-			return date;
-		}
-	}
-
-	/**
-	 * Checks if the input string is a valid date format
-	 * @param input
-	 * @return true if valid, false otherwise
-	 */
-	private static boolean isValidFormat(String input) {
-		DateTime date;
-		int i = 0;
-		for ( ; i < timeFormats.size(); i++) {
-			try {
-				date = timeFormats.get(i).parseDateTime(input);
-				break;
-			} catch (IllegalArgumentException e) {
-				continue;
-			} catch (NullPointerException e) {
-				continue;
-			}
-		}
-		
-		if (i < FORMAT_SIZE) {
-			return true;
-		} else {
-			return false;
-		}
-	}
-	
-	/**
-	 * Checks wheter the input string is a time
-	 * @param input
-	 * @return true if string is a time, false otherwise
-	 */
-	protected static boolean isTime(String input) {
-		return isValidFormat(input);
-	}
-	
-	private static DateTime parseTimeFormat(DateTime date, String input){
-		DateTime time = null;
-		
-		for (int i = 0; i < FORMAT_SIZE; i++) {
-			try {
-				time = timeFormats.get(i).parseDateTime(input);
-			} catch (IllegalArgumentException e) {
-				continue;
-			}
-		}
-		
-		return new DateTime(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth(), time.getHourOfDay(), time.getMinuteOfHour());
-	}
-	
-}
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+
+public class TimeParser{
+	protected static final int NOT_A_TIME = -1;
+	protected static final int MINUTE_FIRST = 0;
+	protected static final int MINUTE_LAST = 23 * 60 + 59;
+	
+	private static final int MINUTES_PER_HOUR = 60;
+	private static final int HOURS_PER_HALFDAY = 12;
+	private static final int MAXIMUM_FIELD_DIGITS = 2;
+	
+	private static final String TIME_AM = "am";
+	private static final String TIME_AM_UPPER = "AM";
+	private static final String TIME_PM = "pm";
+	private static final String TIME_PM_UPPER = "PM";
+	
+	/**
+	 * Alters the time component of the input DateTime object with the input time string
+	 * @param date
+	 * @param input
+	 * @return a DateTime object with date and time already set
+	 */
+	protected static DateTime setTime(DateTime date, String input) {
+		int minuteOfDay = getMinuteOfDay(input);
+		
+		if (minuteOfDay == NOT_A_TIME) {
+			return date;
+		} else {
+			return date.withTime(minuteOfDay / MINUTES_PER_HOUR, minuteOfDay % MINUTES_PER_HOUR, 0, 0);
+		}
+	}
+	
+	/**
+	 * Creates the DateTime of a minute on a date
+	 * @param date
+	 * @param minuteOfDay from getMinuteOfDay; the start of the day is used if it is NOT_A_TIME
+	 * @return a DateTime object with date and time already set
+	 */
+	protected static DateTime setTime(LocalDate date, int minuteOfDay) {
+		if (minuteOfDay == NOT_A_TIME) {
+			minuteOfDay = MINUTE_FIRST;
+		}
+		return new DateTime(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth(), 
+				minuteOfDay / MINUTES_PER_HOUR, minuteOfDay % MINUTES_PER_HOUR);
+	}
+	
+	/**
+	 * Checks wheter the input string is a time
+	 * @param input
+	 * @return true if string is a time, false otherwise
+	 */
+	protected static boolean isTime(String input) {
+		return getMinuteOfDay(input) != NOT_A_TIME;
+	}
+	
+	/**
+	 * Reads the input as a time in one pass, without creating any objects.
+	 * The accepted formats are 24 hour times such as 17:30, 17.30 and 1730,
+	 * and 12 hour times such as 5:30pm, 5.30pm, 0530pm, 530pm and 5pm. When
+	 * the hour and minute are written together the hour takes two digits, so
+	 * 123 is 12:03. am and pm must be all lower or all upper case.
+	 * @param input
+	 * @return the minutes since midnight, or NOT_A_TIME if the input is not a time
+	 */
+	protected static int getMinuteOfDay(String input) {
+		if (input == null) {
+			return NOT_A_TIME;
+		}
+		
+		int length = input.length();
+		int position = 0;
+		while (position < length && isDigit(input.charAt(position))) {
+			position++;
+		}
+		int digits = position;
+		
+		int hour;
+		int minute;
+		if (position < length && (input.charAt(position) == ':' || input.charAt(position) == '.')) {
+			if (digits == 0 || digits > MAXIMUM_FIELD_DIGITS) {
+				return NOT_A_TIME;
+			}
+			hour = readNumber(input, 0, digits);
+			
+			int minuteStart = ++position;
+			while (position < length && isDigit(input.charAt(position))) {
+				position++;
+			}
+			if (position == minuteStart || position - minuteStart > MAXIMUM_FIELD_DIGITS) {
+				return NOT_A_TIME;
+			}
+			minute = readNumber(input, minuteStart, position);
+		} else if (digits == 1 || digits == MAXIMUM_FIELD_DIGITS) {
+			if (position == length) {
+				return NOT_A_TIME;
+			}
+			hour = readNumber(input, 0, digits);
+			minute = 0;
+		} else if (digits == MAXIMUM_FIELD_DIGITS + 1 || digits == MAXIMUM_FIELD_DIGITS * 2) {
+			hour = readNumber(input, 0, MAXIMUM_FIELD_DIGITS);
+			minute = readNumber(input, MAXIMUM_FIELD_DIGITS, digits);
+		} else {
+			return NOT_A_TIME;
+		}
+		
+		if (minute >= MINUTES_PER_HOUR) {
+			return NOT_A_TIME;
+		} else if (position == length) {
+			return (hour < HOURS_PER_HALFDAY * 2) ? hour * MINUTES_PER_HOUR + minute : NOT_A_TIME;
+		}
+		
+		boolean isPm = isHalfday(input, position, TIME_PM, TIME_PM_UPPER);
+		if ((!isPm && !isHalfday(input, position, TIME_AM, TIME_AM_UPPER)) || hour == 0 || hour > HOURS_PER_HALFDAY) {
+			return NOT_A_TIME;
+		}
+		hour = hour % HOURS_PER_HALFDAY + (isPm ? HOURS_PER_HALFDAY : 0);
+		return hour * MINUTES_PER_HOUR + minute;
+	}
+	
+	/**
+	 * @return true if the input from the given position on is the halfday, in lower or upper case
+	 */
+	private static boolean isHalfday(String input, int position, String lower, String upper) {
+		if (input.length() - position != lower.length()) {
+			return false;
+		}
+		return input.startsWith(lower, position) || input.startsWith(upper, position);
+	}
+	
+	private static int readNumber(String input, int start, int end) {
+		int number = 0;
+		for (int i = start; i < end; i++) {
+			number = number * 10 + (input.charAt(i) - '0');
+		}
+		return number;
+	}
+	
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
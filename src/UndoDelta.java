@@ -0,0 +1,322 @@
+import java.util.ArrayList;
+import java.util.logging.Logger;
+
+/**
+ * The change made by one undoable command: the tasks it inserted, the tasks
+ * it removed, the tasks it changed together with a copy of each as it was
+ * before, and the custom commands it added or deleted.
+ *
+ * Reverting a delta undoes exactly those changes and turns the delta into its
+ * own inverse, so the same delta is reverted again to redo the command. Both
+ * cost time in proportion to the size of the change, not of the task list.
+ *
+ * The tasks are held by reference, and later commands may change them. The
+ * string form of each task as of this delta is therefore kept alongside it,
+ * which is what is saved. After a restart a task is found by the ID at the
+ * start of its string form.
+ */
+class UndoDelta {
+	private static final String SEPARATOR = "\t";
+	private static final String TYPE_INSERTED = "INSERTED";
+	private static final String TYPE_REMOVED = "REMOVED";
+	private static final String TYPE_CHANGED = "CHANGED";
+	private static final String TYPE_COMMAND_ADDED = "COMMAND_ADDED";
+	private static final String TYPE_COMMAND_DELETED = "COMMAND_DELETED";
+
+	private static final long DELTA_OVERHEAD = 200;
+	private static final long TASK_OVERHEAD = 150;
+	private static final long COMMAND_OVERHEAD = 100;
+
+	private static Logger LOGGER = Logger.getLogger(UndoDelta.class.getName());
+
+	private ArrayList<Task> inserted = new ArrayList<Task>();
+	private ArrayList<Task> removed = new ArrayList<Task>();
+	private ArrayList<Task> changed = new ArrayList<Task>();
+	private ArrayList<Task> images = new ArrayList<Task>();
+	private ArrayList<String> insertedKeys = new ArrayList<String>();
+	private ArrayList<String> removedKeys = new ArrayList<String>();
+	private ArrayList<String> changedKeys = new ArrayList<String>();
+	private ArrayList<String[]> commandsAdded = new ArrayList<String[]>();
+	private ArrayList<String[]> commandsDeleted = new ArrayList<String[]>();
+
+	protected UndoDelta addInserted(Task task) {
+		inserted.add(task);
+		insertedKeys.add(task.toString());
+		return this;
+	}
+
+	protected UndoDelta addRemoved(Task task) {
+		removed.add(task);
+		removedKeys.add(task.toString());
+		return this;
+	}
+
+	protected UndoDelta addRemoved(ArrayList<Task> tasks) {
+		for (int i = 0; i < tasks.size(); i++) {
+			addRemoved(tasks.get(i));
+		}
+		return this;
+	}
+
+	/**
+	 * Records a task that was changed in place
+	 * @param task the task after the change
+	 * @param before a copy of the task before the change
+	 * @return this delta
+	 */
+	protected UndoDelta addChanged(Task task, Task before) {
+		changed.add(task);
+		changedKeys.add(task.toString());
+		images.add(before);
+		return this;
+	}
+
+	protected UndoDelta addCommandAdded(String commandType, String command) {
+		commandsAdded.add(new String[] {commandType, command});
+		return this;
+	}
+
+	protected UndoDelta addCommandDeleted(String commandType, String command) {
+		commandsDeleted.add(new String[] {commandType, command});
+		return this;
+	}
+
+	protected ArrayList<Task> getInserted() {
+		return inserted;
+	}
+
+	protected ArrayList<Task> getRemoved() {
+		return removed;
+	}
+
+	protected ArrayList<Task> getChanged() {
+		return changed;
+	}
+
+	protected ArrayList<Task> getImages() {
+		return images;
+	}
+
+	/**
+	 * @return a delta holding only the custom command changes of this one, or null if there are none
+	 */
+	protected UndoDelta getCommandChanges() {
+		if (commandsAdded.isEmpty() && commandsDeleted.isEmpty()) {
+			return null;
+		}
+
+		UndoDelta delta = new UndoDelta();
+		delta.commandsAdded.addAll(commandsAdded);
+		delta.commandsDeleted.addAll(commandsDeleted);
+		return delta;
+	}
+
+	/**
+	 * Estimates the heap bytes held by this delta: the tasks it holds, the
+	 * copies of changed tasks, and the string form kept for each
+	 * @return the estimate in bytes
+	 */
+	protected long estimateSize() {
+		long size = DELTA_OVERHEAD;
+		size += estimateSize(insertedKeys) + estimateSize(removedKeys) + 2 * estimateSize(changedKeys);
+		for (int i = 0; i < commandsAdded.size(); i++) {
+			size += COMMAND_OVERHEAD + 2L * commandsAdded.get(i)[1].length();
+		}
+		for (int i = 0; i < commandsDeleted.size(); i++) {
+			size += COMMAND_OVERHEAD + 2L * commandsDeleted.get(i)[1].length();
+		}
+		return size;
+	}
+
+	/**
+	 * Each task is counted as its fields plus its string form, both taken to
+	 * be about as long as the string form in two-byte characters
+	 */
+	private static long estimateSize(ArrayList<String> keys) {
+		long size = 0;
+		for (int i = 0; i < keys.size(); i++) {
+			size += TASK_OVERHEAD + 4L * keys.get(i).length();
+		}
+		return size;
+	}
+
+	/**
+	 * Undoes the change on the task list and the custom commands, saves the
+	 * affected records, and leaves this delta holding the inverse change
+	 */
+	protected void revert() {
+		revertTasks();
+		revertCommands();
+	}
+
+	private void revertTasks() {
+		if (inserted.isEmpty() && removed.isEmpty() && changed.isEmpty()) {
+			return;
+		}
+
+		TaskList taskList = Task.getList();
+
+		ArrayList<Task> uninserted = new ArrayList<Task>();
+		for (int i = 0; i < inserted.size(); i++) {
+			int index = indexOf(taskList, inserted.get(i), insertedKeys.get(i));
+			if (index >= 0) {
+				uninserted.add(taskList.remove(index));
+			}
+		}
+
+		taskList.addAll(removed);
+
+		for (int i = 0; i < changed.size(); i++) {
+			int index = indexOf(taskList, changed.get(i), changedKeys.get(i));
+			if (index < 0) {
+				continue;
+			}
+			Task task = taskList.get(index);
+			String previous = task.toString();
+			task.swapFields(images.get(i));
+			changed.set(i, task);
+			Task.saveTaskUpdated(previous, task, task);
+		}
+
+		Task.saveTasksDeleted(uninserted);
+		for (int i = 0; i < removed.size(); i++) {
+			Task.saveTaskAdded(removed.get(i));
+		}
+
+		inserted = removed;
+		removed = uninserted;
+		insertedKeys = toKeys(inserted);
+		removedKeys = toKeys(removed);
+		changedKeys = toKeys(changed);
+	}
+
+	private void revertCommands() {
+		if (commandsAdded.isEmpty() && commandsDeleted.isEmpty()) {
+			return;
+		}
+
+		for (int i = 0; i < commandsAdded.size(); i++) {
+			CustomCommandHandler.removeCommandFromList(commandsAdded.get(i)[1], commandsAdded.get(i)[0]);
+		}
+		for (int i = 0; i < commandsDeleted.size(); i++) {
+			CustomCommandHandler.addCommandToList(commandsDeleted.get(i)[1], commandsDeleted.get(i)[0]);
+		}
+		CustomCommandHandler.saveCustomCommands();
+
+		ArrayList<String[]> swap = commandsAdded;
+		commandsAdded = commandsDeleted;
+		commandsDeleted = swap;
+	}
+
+	/**
+	 * Turns this delta into its inverse without touching the task list or the
+	 * custom commands, for replaying an undo that was applied before a restart
+	 */
+	protected void invert() {
+		ArrayList<Task> swap = inserted;
+		inserted = removed;
+		removed = swap;
+		ArrayList<String> swapKeys = insertedKeys;
+		insertedKeys = removedKeys;
+		removedKeys = swapKeys;
+
+		swap = changed;
+		changed = images;
+		images = swap;
+		changedKeys = toKeys(changed);
+
+		ArrayList<String[]> swapCommands = commandsAdded;
+		commandsAdded = commandsDeleted;
+		commandsDeleted = swapCommands;
+	}
+
+	private static ArrayList<String> toKeys(ArrayList<Task> tasks) {
+		ArrayList<String> keys = new ArrayList<String>(tasks.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			keys.add(tasks.get(i).toString());
+		}
+		return keys;
+	}
+
+	/**
+	 * Finds the task in the list, first as the same object and otherwise by the
+	 * ID in the given string form, for deltas read back from a file. Deltas
+	 * saved before tasks had IDs are matched on the whole string form.
+	 */
+	private static int indexOf(TaskList taskList, Task task, String key) {
+		int index = taskList.indexOf(task);
+		if (index >= 0) {
+			return index;
+		}
+
+		long taskId = Task.parseId(key);
+		if (taskId > 0) {
+			return taskList.indexOf(taskList.getById(taskId));
+		}
+
+		index = 0;
+		for (Task candidate : taskList) {
+			if (candidate.toContentString().equals(key)) {
+				return index;
+			}
+			index++;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the delta as lines of text, one per inserted, removed or changed
+	 * record, with every field escaped by FileManager.escapeField
+	 */
+	protected ArrayList<String> toLines() {
+		ArrayList<String> lines = new ArrayList<String>();
+		for (int i = 0; i < insertedKeys.size(); i++) {
+			lines.add(TYPE_INSERTED + SEPARATOR + escape(insertedKeys.get(i)));
+		}
+		for (int i = 0; i < removedKeys.size(); i++) {
+			lines.add(TYPE_REMOVED + SEPARATOR + escape(removedKeys.get(i)));
+		}
+		for (int i = 0; i < changedKeys.size(); i++) {
+			lines.add(TYPE_CHANGED + SEPARATOR + escape(changedKeys.get(i)) + SEPARATOR + escape(images.get(i).toString()));
+		}
+		for (int i = 0; i < commandsAdded.size(); i++) {
+			lines.add(TYPE_COMMAND_ADDED + SEPARATOR + escape(commandsAdded.get(i)[0]) + SEPARATOR + escape(commandsAdded.get(i)[1]));
+		}
+		for (int i = 0; i < commandsDeleted.size(); i++) {
+			lines.add(TYPE_COMMAND_DELETED + SEPARATOR + escape(commandsDeleted.get(i)[0]) + SEPARATOR + escape(commandsDeleted.get(i)[1]));
+		}
+		return lines;
+	}
+
+	private static String escape(String field) {
+		return FileManager.escapeField(field);
+	}
+
+	/**
+	 * Adds a record read back from a line written by toLines. Malformed lines are skipped.
+	 * @param line
+	 */
+	protected void addLine(String line) {
+		String[] tokens = line.split(SEPARATOR);
+		for (int i = 1; i < tokens.length; i++) {
+			tokens[i] = FileManager.unescapeField(tokens[i]);
+		}
+		try {
+			if (tokens[0].equals(TYPE_INSERTED) && tokens.length >= 2) {
+				addInserted(Task.parseTaskFromString(tokens[1]));
+			} else if (tokens[0].equals(TYPE_REMOVED) && tokens.length >= 2) {
+				addRemoved(Task.parseTaskFromString(tokens[1]));
+			} else if (tokens[0].equals(TYPE_CHANGED) && tokens.length >= 3) {
+				addChanged(Task.parseTaskFromString(tokens[1]), Task.parseTaskFromString(tokens[2]));
+			} else if (tokens[0].equals(TYPE_COMMAND_ADDED) && tokens.length >= 3) {
+				addCommandAdded(tokens[1], tokens[2]);
+			} else if (tokens[0].equals(TYPE_COMMAND_DELETED) && tokens.length >= 3) {
+				addCommandDeleted(tokens[1], tokens[2]);
+			} else {
+				LOGGER.info("Skipping malformed undo entry " + line);
+			}
+		} catch (IllegalArgumentException e) {
+			LOGGER.info("Skipping malformed undo entry " + line);
+		}
+	}
+}
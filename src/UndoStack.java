@@ -0,0 +1,305 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.logging.Logger;
+
+/**
+ * A stack of undo deltas bounded by bytes instead of by steps. The newest
+ * entries are kept on the heap up to the heap budget; older ones are written
+ * to a spill file and read back when the stack is popped down to them. The
+ * spill file is itself bounded by the disk budget, past which the oldest
+ * entries are dropped.
+ *
+ * Spilled entries are laid out oldest first, so paging the newest one back
+ * in only truncates the file. The spill file is scratch space for the
+ * session; the history that survives a restart is the one in undo.log.
+ */
+class UndoStack {
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String LINE_SEPARATOR = "\n";
+
+	private static Logger LOGGER = Logger.getLogger(UndoStack.class.getName());
+
+	private final String fileName;
+	private long heapBudget;
+	private long diskBudget;
+
+	private final ArrayDeque<Entry> heapEntries = new ArrayDeque<Entry>();
+	private final ArrayDeque<SpilledEntry> spilledEntries = new ArrayDeque<SpilledEntry>();
+	private long heapBytes = 0;
+	private long spilledBytes = 0;
+	private long fileEnd = 0;
+	private FileChannel channel = null;
+
+	private static class Entry {
+		private final UndoDelta delta;
+		private final long size;
+
+		private Entry(UndoDelta delta) {
+			this.delta = delta;
+			this.size = delta.estimateSize();
+		}
+	}
+
+	private static class SpilledEntry {
+		private final long position;
+		private final int length;
+
+		private SpilledEntry(long position, int length) {
+			this.position = position;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * @param fileName the spill file
+	 * @param heapBudget
+	 * @param diskBudget
+	 */
+	protected UndoStack(String fileName, long heapBudget, long diskBudget) {
+		this.fileName = fileName;
+		this.heapBudget = heapBudget;
+		this.diskBudget = diskBudget;
+	}
+
+	protected synchronized void setBudget(long heap, long disk) {
+		heapBudget = heap;
+		diskBudget = disk;
+		enforceBudget();
+	}
+
+	protected synchronized int size() {
+		return heapEntries.size() + spilledEntries.size();
+	}
+
+	protected synchronized boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return the estimated heap bytes held by the entries kept in memory
+	 */
+	protected synchronized long getHeapBytes() {
+		return heapBytes;
+	}
+
+	/**
+	 * @return the bytes taken up by the spill file, including space left by
+	 * dropped entries that has not been reclaimed yet
+	 */
+	protected synchronized long getDiskBytes() {
+		return fileEnd;
+	}
+
+	protected synchronized void add(UndoDelta delta) {
+		Entry entry = new Entry(delta);
+		heapEntries.addLast(entry);
+		heapBytes += entry.size;
+		enforceBudget();
+	}
+
+	/**
+	 * Removes the newest entry, reading it back from the spill file if needed
+	 * @return the newest entry, or null if the stack is empty
+	 */
+	protected synchronized UndoDelta pollLast() {
+		if (heapEntries.isEmpty()) {
+			pageIn();
+		}
+
+		Entry entry = heapEntries.pollLast();
+		if (entry == null) {
+			return null;
+		}
+		heapBytes -= entry.size;
+		return entry.delta;
+	}
+
+	protected synchronized void clear() {
+		heapEntries.clear();
+		spilledEntries.clear();
+		heapBytes = 0;
+		dropSpilled();
+	}
+
+	/**
+	 * Adds the lines of every entry, oldest first, each preceded by the
+	 * header and followed by the delimiter. Spilled entries are copied
+	 * from the spill file without being read back into deltas.
+	 * @param lines
+	 * @param header
+	 * @param delimiter
+	 */
+	protected synchronized void appendEntries(ArrayList<String> lines, String header, String delimiter) {
+		ArrayList<String> spilledLines = new ArrayList<String>();
+		for (SpilledEntry spilled : spilledEntries) {
+			String[] entryLines = readEntry(spilled);
+			if (entryLines == null) {
+				spilledLines.clear();
+				break;
+			}
+			spilledLines.add(header);
+			spilledLines.addAll(Arrays.asList(entryLines));
+			spilledLines.add(delimiter);
+		}
+		lines.addAll(spilledLines);
+
+		for (Entry entry : heapEntries) {
+			lines.add(header);
+			lines.addAll(entry.delta.toLines());
+			lines.add(delimiter);
+		}
+	}
+
+	/**
+	 * Spills the oldest heap entries until the heap is within budget, always
+	 * keeping the newest one, then drops the oldest spilled entries until the
+	 * file is within budget
+	 */
+	private void enforceBudget() {
+		while (heapBytes > heapBudget && heapEntries.size() > 1) {
+			spill(heapEntries.pollFirst());
+		}
+
+		while (spilledBytes > diskBudget && !spilledEntries.isEmpty()) {
+			spilledBytes -= spilledEntries.pollFirst().length;
+		}
+
+		if (spilledEntries.isEmpty()) {
+			truncate(0);
+		} else if (spilledEntries.peekFirst().position > spilledBytes) {
+			reclaim();
+		}
+	}
+
+	/**
+	 * Writes the oldest heap entry after the newest spilled one. If that
+	 * fails, the spilled entries are dropped along with it so the history
+	 * left has no gaps.
+	 */
+	private void spill(Entry entry) {
+		heapBytes -= entry.size;
+
+		ArrayList<String> lines = entry.delta.toLines();
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < lines.size(); i++) {
+			text.append(lines.get(i)).append(LINE_SEPARATOR);
+		}
+		byte[] data = text.toString().getBytes(CHARSET);
+
+		try {
+			FileChannel spillChannel = getChannel();
+			FileManager.writeAt(spillChannel, fileEnd, ByteBuffer.wrap(data));
+			spilledEntries.addLast(new SpilledEntry(fileEnd, data.length));
+			spilledBytes += data.length;
+			fileEnd += data.length;
+		} catch (IOException e) {
+			LOGGER.info("Error spilling undo history to " + fileName);
+			dropSpilled();
+		}
+	}
+
+	/**
+	 * Reads the newest spilled entry back onto the heap and cuts it off the file
+	 */
+	private void pageIn() {
+		SpilledEntry spilled = spilledEntries.pollLast();
+		if (spilled == null) {
+			return;
+		}
+		spilledBytes -= spilled.length;
+
+		String[] lines = readEntry(spilled);
+		if (lines == null) {
+			dropSpilled();
+			return;
+		}
+		truncate(spilled.position);
+
+		UndoDelta delta = new UndoDelta();
+		for (int i = 0; i < lines.length; i++) {
+			delta.addLine(lines[i]);
+		}
+		Entry entry = new Entry(delta);
+		heapEntries.addFirst(entry);
+		heapBytes += entry.size;
+	}
+
+	private String[] readEntry(SpilledEntry spilled) {
+		if (spilled.length == 0) {
+			return new String[0];
+		}
+
+		try {
+			ByteBuffer data = ByteBuffer.allocate(spilled.length);
+			FileManager.readAt(getChannel(), spilled.position, data);
+			return new String(data.array(), 0, data.position(), CHARSET).split(LINE_SEPARATOR);
+		} catch (IOException e) {
+			LOGGER.info("Error reading undo history from " + fileName);
+			return null;
+		}
+	}
+
+	/**
+	 * Moves the spilled entries to the start of the file once the space left by
+	 * dropped entries outgrows them
+	 */
+	private void reclaim() {
+		long start = spilledEntries.peekFirst().position;
+		try {
+			ByteBuffer data = ByteBuffer.allocate((int) (fileEnd - start));
+			FileManager.readAt(getChannel(), start, data);
+			data.flip();
+			FileManager.writeAt(getChannel(), 0, data);
+		} catch (IOException e) {
+			LOGGER.info("Error compacting " + fileName);
+			return;
+		}
+
+		ArrayDeque<SpilledEntry> moved = new ArrayDeque<SpilledEntry>();
+		Iterator<SpilledEntry> oldestFirst = spilledEntries.iterator();
+		while (oldestFirst.hasNext()) {
+			SpilledEntry spilled = oldestFirst.next();
+			moved.addLast(new SpilledEntry(spilled.position - start, spilled.length));
+		}
+		spilledEntries.clear();
+		spilledEntries.addAll(moved);
+		truncate(fileEnd - start);
+	}
+
+	private void dropSpilled() {
+		spilledEntries.clear();
+		spilledBytes = 0;
+		truncate(0);
+	}
+
+	private void truncate(long size) {
+		fileEnd = size;
+		if (channel == null) {
+			return;
+		}
+
+		try {
+			channel.truncate(size);
+		} catch (IOException e) {
+			LOGGER.info("Error truncating " + fileName);
+		}
+	}
+
+	/**
+	 * Opens the spill file, emptying whatever an earlier session left in it
+	 */
+	private FileChannel getChannel() throws IOException {
+		if (channel == null) {
+			channel = FileManager.openForUpdate(fileName);
+			channel.truncate(0);
+			fileEnd = 0;
+		}
+		return channel;
+	}
+}
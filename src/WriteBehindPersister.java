@@ -0,0 +1,140 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Saves stores on a dedicated thread instead of the caller's. A mutation only
+ * marks its store dirty; every save that becomes due within the coalescing
+ * window is then run once, so a burst of commands costs a single write per store.
+ *
+ * Saves run while holding STORE_LOCK, which MainLogic also holds while it runs
+ * a command, so a save never sees a half-applied command.
+ */
+class WriteBehindPersister {
+	private static final long DEFAULT_WINDOW_MILLIS = 200;
+
+	protected static final Object STORE_LOCK = new Object();
+
+	private static Logger LOGGER = Logger.getLogger(WriteBehindPersister.class.getName());
+
+	private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "write-behind");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final LinkedHashMap<String, Runnable> dirtyStores = new LinkedHashMap<String, Runnable>();
+	private static ScheduledFuture<?> scheduledFlush = null;
+
+	private static volatile boolean enabled = true;
+	private static volatile long windowMillis = DEFAULT_WINDOW_MILLIS;
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				if (hasPendingSaves()) {
+					flush();
+				}
+			}
+		}, "write-behind-exit"));
+	}
+
+	protected static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns write-behind on or off. Turning it off flushes anything pending,
+	 * after which every save runs on the caller's thread again.
+	 * @param writeBehind
+	 */
+	protected static void setEnabled(boolean writeBehind) {
+		enabled = writeBehind;
+		if (!writeBehind) {
+			flush();
+		}
+	}
+
+	/**
+	 * Sets how long a save waits for further mutations to coalesce with
+	 * @param millis
+	 */
+	protected static void setCoalesceWindow(long millis) {
+		windowMillis = Math.max(0, millis);
+	}
+
+	/**
+	 * Marks a store dirty. The save runs on the caller's thread straight away
+	 * if write-behind is off, and on the writer thread otherwise. Marking a
+	 * store that is already dirty does not schedule a second save.
+	 * @param store name of the store
+	 * @param save writes the store to disk
+	 */
+	protected static void markDirty(String store, Runnable save) {
+		if (!enabled) {
+			runSave(store, save);
+			return;
+		}
+
+		synchronized (dirtyStores) {
+			dirtyStores.put(store, save);
+			if (scheduledFlush == null) {
+				scheduledFlush = writer.schedule(new Runnable() {
+					public void run() {
+						flush();
+					}
+				}, windowMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Runs every pending save on the caller's thread and returns once they are
+	 * on disk. Callers that need durability before they return use this. The
+	 * scheduled flush is cancelled, so the next mutation starts a full window.
+	 */
+	protected static void flush() {
+		synchronized (STORE_LOCK) {
+			ArrayList<String> stores;
+			ArrayList<Runnable> saves;
+			synchronized (dirtyStores) {
+				stores = new ArrayList<String>(dirtyStores.keySet());
+				saves = new ArrayList<Runnable>(dirtyStores.values());
+				dirtyStores.clear();
+				if (scheduledFlush != null) {
+					scheduledFlush.cancel(false);
+					scheduledFlush = null;
+				}
+			}
+
+			for (int i = 0; i < saves.size(); i++) {
+				runSave(stores.get(i), saves.get(i));
+			}
+		}
+	}
+
+	/**
+	 * @return true if a store has been marked dirty and not yet saved
+	 */
+	protected static boolean hasPendingSaves() {
+		synchronized (dirtyStores) {
+			return !dirtyStores.isEmpty();
+		}
+	}
+
+	private static void runSave(String store, Runnable save) {
+		try {
+			save.run();
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Error saving " + store, e);
+		}
+	}
+}